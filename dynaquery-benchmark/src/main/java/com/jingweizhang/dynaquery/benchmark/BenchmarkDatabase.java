@@ -0,0 +1,89 @@
+package com.jingweizhang.dynaquery.benchmark;
+
+import com.jingweizhang.dynaquery.benchmark.entity.WideOrder;
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description
+ * An in-memory H2 database holding the benchmark view entities, so benchmarks run offline.
+ * WideOrder is a view entity refusing writes, so its rows are inserted by JDBC.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+    public static final String VIEW_ENTITY_PACKAGE = WideOrder.class.getPackageName();
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final String[] CITIES = {"New York", "York", "Boston", "Chicago", "Seattle"};
+    private static final String[] STATUSES = {"PENDING", "SHIPPED", "DELIVERED", "CANCELLED"};
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public BenchmarkDatabase(int rows) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:benchmark" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan(VIEW_ENTITY_PACKAGE);
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaPropertyMap(Map.of("hibernate.hbm2ddl.auto", "create-drop"));
+        factory.afterPropertiesSet();
+        this.entityManagerFactory = factory.getObject();
+
+        try (Connection connection = dataSource.getConnection()) {
+            this.insertWideOrders(connection, rows);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public EntityManager createEntityManager() {
+        return this.entityManagerFactory.createEntityManager();
+    }
+
+    @Override
+    public void close() {
+        this.entityManagerFactory.close();
+    }
+
+    private void insertWideOrders(Connection connection, int rows) throws SQLException {
+        String sql = "insert into wide_orders (order_id, customer_name, customer_email, shipping_address, shipping_city, shipping_country, " +
+                "status, amount, discount, quantity, warehouse_id, order_date, updated_at, priority) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < rows; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "customer" + i);
+                statement.setString(3, "customer" + i + "@example.com");
+                statement.setString(4, i + " 5th Avenue");
+                statement.setString(5, CITIES[i % CITIES.length]);
+                statement.setString(6, i % 10 == 0 ? "CA" : "US");
+                statement.setString(7, STATUSES[i % STATUSES.length]);
+                statement.setDouble(8, (i % 500) * 1.5);
+                statement.setDouble(9, 0.1);
+                statement.setInt(10, i % 7);
+                statement.setLong(11, i % 13);
+                statement.setDate(12, Date.valueOf(LocalDate.of(2023, 1, 1).plusDays(i % 365)));
+                statement.setTimestamp(13, Timestamp.valueOf(LocalDateTime.of(2023, 1, 1, 0, 0).plusMinutes(i)));
+                statement.setBoolean(14, i % 3 == 0);
+                statement.addBatch();
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.jingweizhang.dynaquery.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Description
+ * Closed-loop load test against a running server: each of the given number of clients posts the request,
+ * waits for the response and posts it again, until the duration is over. Reports throughput, latency percentiles and errors.
+ * Run it with virtual threads off and on, at growing concurrency, and compare the throughput reached at the same p99.
+ * Usage: LoadTest <url> <concurrency> <duration seconds> <request json file> [warm-up seconds]
+ */
+public class LoadTest {
+    private static final int MAX_SAMPLES_PER_CLIENT = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: LoadTest <url> <concurrency> <duration seconds> <request json file> [warm-up seconds]");
+            System.exit(1);
+        }
+
+        URI uri = URI.create(args[0]);
+        int concurrency = Integer.parseInt(args[1]);
+        Duration duration = Duration.ofSeconds(Long.parseLong(args[2]));
+        String body = Files.readString(Path.of(args[3]));
+        Duration warmUp = Duration.ofSeconds(args.length > 4 ? Long.parseLong(args[4]) : 10);
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        long warmUpEnd = System.nanoTime() + warmUp.toNanos();
+        long end = warmUpEnd + duration.toNanos();
+        long[][] samples = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        for (int i = 0; i < concurrency; i++) {
+            int clientIndex = i;
+            samples[i] = new long[1024];
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        boolean failed;
+                        try {
+                            failed = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 400;
+                        } catch (Exception e) {
+                            failed = true;
+                        }
+                        long finished = System.nanoTime();
+
+                        // Requests started during the warm-up are not measured
+                        if (start < warmUpEnd || finished > end) {
+                            continue;
+                        }
+                        if (failed) {
+                            errors.incrementAndGet();
+                        } else if (counts[clientIndex] < MAX_SAMPLES_PER_CLIENT) {
+                            if (counts[clientIndex] == samples[clientIndex].length) {
+                                samples[clientIndex] = Arrays.copyOf(samples[clientIndex], samples[clientIndex].length * 2);
+                            }
+                            samples[clientIndex][counts[clientIndex]++] = finished - start;
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-test-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        long[] latencies = new long[Arrays.stream(counts).sum()];
+        int offset = 0;
+        for (int i = 0; i < concurrency; i++) {
+            System.arraycopy(samples[i], 0, latencies, offset, counts[i]);
+            offset += counts[i];
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("concurrency %d, %d requests in %d s, %.1f req/s, %d errors%n",
+                concurrency, latencies.length, duration.getSeconds(), latencies.length / (double) duration.getSeconds(), errors.get());
+        System.out.printf("p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+}
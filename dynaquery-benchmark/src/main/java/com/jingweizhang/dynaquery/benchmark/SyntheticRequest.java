@@ -0,0 +1,85 @@
+package com.jingweizhang.dynaquery.benchmark;
+
+import com.jingweizhang.dynaquery.benchmark.entity.WideOrder;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.FilterConnector;
+
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @Description
+ * Shapes of DynaQueryRequest on WideOrder that stress different parts of the pipeline.
+ * Values match rows of BenchmarkDatabase, so executing them returns rows.
+ */
+public enum SyntheticRequest {
+    // AND and OR alternating 8 levels deep, with a few simple filters on every level.
+    DEEP_FILTER(() -> {
+        DynaQueryRequest request = requestOf();
+        request.setFilter(deepFilterOf(8));
+        request.setOrders(Collections.singletonList(new DynaQueryRequest.OrderBy("orderId", "ASC", 0)));
+        return request;
+    }),
+    // IN list of 1000 customers.
+    WIDE_IN(() -> {
+        DynaQueryRequest request = requestOf();
+        request.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "IN",
+                IntStream.range(0, 1000).mapToObj(i -> "customer" + i * 7).collect(Collectors.toList())));
+        request.setOrders(Collections.singletonList(new DynaQueryRequest.OrderBy("orderId", "ASC", 0)));
+        return request;
+    }),
+    // Grouped by two columns, with a filter on the aggregated value.
+    GROUP_BY_HAVING(() -> {
+        DynaQueryRequest request = requestOf();
+        DynaQueryRequest.GroupBy.Aggregator aggregator = new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalAmount");
+        request.setFilter(new DynaQueryRequest.SimpleFilter("priority", "EQ", Collections.singletonList("false")));
+        request.setGroup(new DynaQueryRequest.GroupBy(
+                new ArrayList<>(Arrays.asList("shippingCity", "status")),
+                aggregator,
+                new DynaQueryRequest.GroupBy.AggregatorFilter(aggregator, "GT", Collections.singletonList("1000"))));
+        return request;
+    }),
+    // Every column of the view projected and several orders.
+    MANY_COLUMNS(() -> {
+        DynaQueryRequest request = requestOf();
+        request.setProjections(Arrays.stream(WideOrder.class.getDeclaredFields())
+                .map(x -> new DynaQueryRequest.ProjectBy(x.getName(), true))
+                .collect(Collectors.toList()));
+        request.setFilter(new DynaQueryRequest.SimpleFilter("status", "EQ", Collections.singletonList("SHIPPED")));
+        request.setOrders(Arrays.asList(
+                new DynaQueryRequest.OrderBy("shippingCountry", "ASC", 0),
+                new DynaQueryRequest.OrderBy("amount", "DESC", 1),
+                new DynaQueryRequest.OrderBy("orderId", "ASC", 2)));
+        return request;
+    });
+
+    private final Supplier<DynaQueryRequest> factory;
+
+    SyntheticRequest(Supplier<DynaQueryRequest> factory) {
+        this.factory = factory;
+    }
+
+    // A new request every time, the normalizer must not see the same instance twice.
+    public DynaQueryRequest create() {
+        return this.factory.get();
+    }
+
+    private static DynaQueryRequest requestOf() {
+        DynaQueryRequest request = new DynaQueryRequest();
+        request.setTargetView(WideOrder.class.getSimpleName());
+        return request;
+    }
+
+    private static DynaQueryRequest.Filter deepFilterOf(int depth) {
+        List<DynaQueryRequest.Filter> filters = new ArrayList<>(Arrays.asList(
+                new DynaQueryRequest.SimpleFilter("amount", "GE", Collections.singletonList(String.valueOf(depth * 10))),
+                new DynaQueryRequest.SimpleFilter("shippingCity", "LIKE", Collections.singletonList("York")),
+                new DynaQueryRequest.SimpleFilter("orderDate", "BETWEEN", Arrays.asList("2023-01-01", "2023-12-31"))));
+        if (depth > 1) {
+            filters.add(deepFilterOf(depth - 1));
+        }
+        return new DynaQueryRequest.CompositeFilter(filters, depth % 2 == 0 ? FilterConnector.AND : FilterConnector.OR);
+    }
+}
@@ -0,0 +1,63 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.benchmark.BenchmarkDatabase;
+import com.jingweizhang.dynaquery.benchmark.SyntheticRequest;
+import com.jingweizhang.dynaquery.extension.ViewEntity;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description
+ * Converting a normalized DynaQuery into criteria queries, what a plan cache miss costs on top of Hibernate's own compilation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConvertBenchmark {
+    @Param
+    private SyntheticRequest shape;
+
+    private BenchmarkDatabase benchmarkDatabase;
+    private EntityManager entityManager;
+    private CriteriaBuilder criteriaBuilder;
+    private Class<? extends ViewEntity> entityClazz;
+    private Class<?> resultClazz;
+    private DynaQuery dynaQuery;
+
+    @Setup
+    public void setUp() {
+        this.benchmarkDatabase = new BenchmarkDatabase(0);
+        this.entityManager = this.benchmarkDatabase.createEntityManager();
+        this.criteriaBuilder = this.entityManager.getCriteriaBuilder();
+
+        ViewEntityRegistry viewEntityRegistry = new ViewEntityRegistry(BenchmarkDatabase.VIEW_ENTITY_PACKAGE);
+        this.dynaQuery = new DynaQueryNormalizer(viewEntityRegistry).normalize(this.shape.create());
+        this.entityClazz = viewEntityRegistry.getViewEntityClass(this.dynaQuery.getTargetView());
+        // Rows instead of entities for group by and projections, as DynaQueryExecutor does
+        this.resultClazz = this.dynaQuery.getGroupBy() != null || !this.dynaQuery.getProjectBys().isEmpty() ? Object.class : this.entityClazz;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.entityManager.close();
+        this.benchmarkDatabase.close();
+    }
+
+    @Benchmark
+    public CriteriaQuery<?> toContentQuery() {
+        return DynaQueryExecutor.CriteriaQueryConverter.of(this.criteriaBuilder, this.entityClazz).toContentQuery(this.dynaQuery, this.resultClazz);
+    }
+
+    @Benchmark
+    public CriteriaQuery<Long> toCountQuery() {
+        return DynaQueryExecutor.CriteriaQueryConverter.of(this.criteriaBuilder, this.entityClazz).toCountQuery(this.dynaQuery);
+    }
+}
@@ -0,0 +1,65 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.benchmark.BenchmarkDatabase;
+import com.jingweizhang.dynaquery.benchmark.SyntheticRequest;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import javax.persistence.EntityManager;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description
+ * A request from normalizing to mapped rows of a page, against an embedded H2 database.
+ * The plan cache is warm after the first invocation, as it would be in a running service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param
+    private SyntheticRequest shape;
+
+    @Param({"10000"})
+    private int rows;
+
+    @Param({"50"})
+    private int pageSize;
+
+    private BenchmarkDatabase benchmarkDatabase;
+    private EntityManager entityManager;
+    private DynaQueryNormalizer dynaQueryNormalizer;
+    private DynaQueryExecutor dynaQueryExecutor;
+    private DynaQueryRequest dynaQueryRequest;
+
+    @Setup
+    public void setUp() {
+        this.benchmarkDatabase = new BenchmarkDatabase(this.rows);
+        this.entityManager = this.benchmarkDatabase.createEntityManager();
+
+        ViewEntityRegistry viewEntityRegistry = new ViewEntityRegistry(BenchmarkDatabase.VIEW_ENTITY_PACKAGE, this.entityManager.getMetamodel());
+        this.dynaQueryNormalizer = new DynaQueryNormalizer(viewEntityRegistry);
+        this.dynaQueryExecutor = new DynaQueryExecutor(this.entityManager, viewEntityRegistry, new DynaQueryPlanCache(512), new DynaQueryCountCache(1024, 60));
+        this.dynaQueryRequest = this.shape.create();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.entityManager.close();
+        this.benchmarkDatabase.close();
+    }
+
+    @Benchmark
+    public Page<Map<String, Object>> queryAll() {
+        Page<Map<String, Object>> page = this.dynaQueryExecutor.queryAll(this.dynaQueryNormalizer.normalize(this.dynaQueryRequest), PageRequest.of(0, this.pageSize));
+        // A request gets a fresh persistence context in the service, don't let loaded entities pile up
+        this.entityManager.clear();
+        return page;
+    }
+}
@@ -0,0 +1,38 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.benchmark.BenchmarkDatabase;
+import com.jingweizhang.dynaquery.benchmark.SyntheticRequest;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description
+ * Validating and normalizing a request into a DynaQuery, the first stage of the pipeline. No database involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalizeBenchmark {
+    @Param
+    private SyntheticRequest shape;
+
+    private DynaQueryNormalizer dynaQueryNormalizer;
+    private DynaQueryRequest dynaQueryRequest;
+
+    @Setup
+    public void setUp() {
+        this.dynaQueryNormalizer = new DynaQueryNormalizer(new ViewEntityRegistry(BenchmarkDatabase.VIEW_ENTITY_PACKAGE));
+        this.dynaQueryRequest = this.shape.create();
+    }
+
+    @Benchmark
+    public DynaQuery normalize() {
+        return this.dynaQueryNormalizer.normalize(this.dynaQueryRequest);
+    }
+}
@@ -0,0 +1,119 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.benchmark.entity.WideOrder;
+import com.jingweizhang.dynaquery.extension.ViewEntity;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @Description
+ * Mapping a page of view entities to maps, with the precomputed column getters of ViewEntityRegistry
+ * against the per row reflection DynaQueryExecutor used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+    @Param({"100", "10000"})
+    private int pageSize;
+
+    private ViewEntityRegistry viewEntityRegistry;
+    private DynaQueryExecutor dynaQueryExecutor;
+    private DynaQuery dynaQuery;
+    private List<WideOrder> page;
+
+    @Setup
+    public void setUp() {
+        this.viewEntityRegistry = new ViewEntityRegistry("com.jingweizhang.dynaquery.benchmark.entity");
+        this.dynaQueryExecutor = new DynaQueryExecutor(null, this.viewEntityRegistry, null, null);
+
+        this.dynaQuery = new DynaQuery();
+        this.dynaQuery.setTargetView(WideOrder.class.getSimpleName());
+
+        this.page = new ArrayList<>();
+        for (int i = 0; i < this.pageSize; i++) {
+            WideOrder order = new WideOrder();
+            order.setOrderId(i);
+            order.setCustomerName("customer" + i);
+            order.setCustomerEmail("customer" + i + "@example.com");
+            order.setShippingAddress(i + " 5th Avenue");
+            order.setShippingCity("New York");
+            order.setShippingCountry("US");
+            order.setStatus(i % 2 == 0 ? "SHIPPED" : "PENDING");
+            order.setAmount(i * 1.5);
+            order.setDiscount(0.1);
+            order.setQuantity(i % 7);
+            order.setWarehouseId((long) (i % 13));
+            order.setOrderDate(LocalDate.of(2023, 1, 1).plusDays(i % 365));
+            order.setUpdatedAt(LocalDateTime.of(2023, 1, 1, 0, 0).plusMinutes(i));
+            order.setPriority(i % 3 == 0);
+            this.page.add(order);
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> precomputed() {
+        Function<Object, Map<String, Object>> rowMapper = this.dynaQueryExecutor.rowMapperOf(this.dynaQuery);
+        List<Map<String, Object>> records = new ArrayList<>(this.page.size());
+        for (WideOrder order : this.page) {
+            records.add(rowMapper.apply(order));
+        }
+        return records;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> reflective() {
+        List<Map<String, Object>> records = new ArrayList<>(this.page.size());
+        for (WideOrder order : this.page) {
+            records.add(this.reflectiveToMap(order));
+        }
+        return records;
+    }
+
+    // DynaQueryExecutor.toMap as it was, the baseline to compare against.
+    private Map<String, Object> reflectiveToMap(Object content) {
+        List<String> fieldNames = new ArrayList<>();
+        List<Class<? extends Annotation>> tableAnnotations = Arrays.asList(Column.class, OneToMany.class, ManyToOne.class, OneToOne.class, ManyToMany.class);
+
+        Class<?> entityClazz = this.viewEntityRegistry.getViewEntityClass(this.dynaQuery.getTargetView());
+        for (Field field : entityClazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()) &&
+                    tableAnnotations.stream().anyMatch(field::isAnnotationPresent)) {
+                fieldNames.add(field.getName());
+            }
+        }
+
+        Map<String, Object> record = new HashMap<>();
+        for (String fieldName : fieldNames) {
+            record.put(fieldName, getFieldValue(((ViewEntity) content).getClass(), fieldName, content));
+        }
+
+        return record;
+    }
+
+    private static Object getFieldValue(Class<?> entityClazz, String fieldName, Object instance) {
+        try {
+            Method method = entityClazz.getDeclaredMethod("get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1));
+            method.setAccessible(true);
+            Object result = method.invoke(instance);
+
+            return result instanceof Collection ? new ArrayList<>((Collection<?>) result) : result;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,10 +1,48 @@
 package com.jingweizhang.dynaquery.config;
 
+import com.jingweizhang.dynaquery.service.DynaQueryAnyFunction;
+import com.jingweizhang.dynaquery.service.DynaQueryBatchExecutor;
+import com.jingweizhang.dynaquery.service.DynaQueryCountCache;
+import com.jingweizhang.dynaquery.service.DynaQueryExecutor;
+import com.jingweizhang.dynaquery.service.DynaQueryGroupingSetsFunction;
+import com.jingweizhang.dynaquery.service.DynaQueryLimits;
+import com.jingweizhang.dynaquery.service.DynaQueryMetrics;
+import com.jingweizhang.dynaquery.service.DynaQueryNormalizer;
+import com.jingweizhang.dynaquery.service.DynaQueryOptimizer;
+import com.jingweizhang.dynaquery.service.DynaQueryParallelCounter;
+import com.jingweizhang.dynaquery.service.DynaQueryPlanCache;
+import com.jingweizhang.dynaquery.service.DynaQueryResultCache;
+import com.jingweizhang.dynaquery.service.DynaQueryRollups;
+import com.jingweizhang.dynaquery.service.DynaQueryRowValueFunction;
+import com.jingweizhang.dynaquery.service.DynaQuerySlowQueryLog;
+import com.jingweizhang.dynaquery.service.DynaQueryTextSearchFunction;
+import com.jingweizhang.dynaquery.service.ViewEntityRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springdoc.core.GroupedOpenApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
 
 /**
  * @Description
@@ -13,7 +51,11 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 @Configuration
 @EntityScan("com.jingweizhang.dynaquery")
 @EnableJpaRepositories("com.jingweizhang.dynaquery")
+@Import({DynaQueryDataSourceConfiguration.class, DynaQueryVirtualThreadConfiguration.class, DynaQueryWebConfiguration.class})
+@EnableConfigurationProperties(DynaQueryProperties.class)
 public class DynaQueryAutoConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryAutoConfiguration.class);
+
     //region Swagger
     @Bean
     public GroupedOpenApi api(){
@@ -23,4 +65,160 @@ public class DynaQueryAutoConfiguration {
                 .build();
     }
     //endregion
+
+    //region Hibernate
+    // Register the SQL functions of grouping sets, array bound lists, full text search and row value comparison,
+    // after the application's own contributor if any.
+    // Lists bound value by value are padded to the next power of two, so a few statements serve lists of any length.
+    @Bean
+    public HibernatePropertiesCustomizer dynaQueryHibernatePropertiesCustomizer(DynaQueryProperties dynaQueryProperties) {
+        String textSearchConfig = dynaQueryProperties.getTextSearch().getConfig();
+        MetadataBuilderContributor dynaQueryContributor = metadataBuilder -> {
+            DynaQueryGroupingSetsFunction.contribute(metadataBuilder);
+            DynaQueryAnyFunction.contribute(metadataBuilder);
+            DynaQueryTextSearchFunction.contribute(metadataBuilder, textSearchConfig);
+            DynaQueryRowValueFunction.contribute(metadataBuilder);
+        };
+
+        return properties -> {
+            properties.putIfAbsent(AvailableSettings.IN_CLAUSE_PARAMETER_PADDING, "true");
+
+            Object contributor = properties.get(EntityManagerFactoryBuilderImpl.METADATA_BUILDER_CONTRIBUTOR);
+            if (contributor == null) {
+                properties.put(EntityManagerFactoryBuilderImpl.METADATA_BUILDER_CONTRIBUTOR, dynaQueryContributor);
+            } else if (contributor instanceof MetadataBuilderContributor) {
+                properties.put(EntityManagerFactoryBuilderImpl.METADATA_BUILDER_CONTRIBUTOR, (MetadataBuilderContributor) metadataBuilder -> {
+                    ((MetadataBuilderContributor) contributor).contribute(metadataBuilder);
+                    dynaQueryContributor.contribute(metadataBuilder);
+                });
+            } else {
+                logger.info("{} is set by name, grouping sets are queried set by set, lists are bound value by value, text is searched by substring and keyset pages seek key by key", EntityManagerFactoryBuilderImpl.METADATA_BUILDER_CONTRIBUTOR);
+            }
+        };
+    }
+    //endregion
+
+    //region Query
+    // Collaborators of DynaQueryService, each may be replaced by a bean of the application's own.
+    // Queries run in read-only transactions, see readOnlyTransaction. Background threads of each are stopped by its close().
+    @Bean
+    @ConditionalOnMissingBean
+    public ViewEntityRegistry viewEntityRegistry(DynaQueryProperties properties, EntityManager entityManager) {
+        Assert.hasText(properties.getViewEntityPackage(), "dyna-query.view-entity-package must be set");
+        return new ViewEntityRegistry(properties.getViewEntityPackage(), entityManager.getMetamodel());
+    }
+
+    // Without a registry, e.g. no actuator on the classpath, nothing is measured either.
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryMetrics dynaQueryMetrics(DynaQueryProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = properties.getMetrics().isEnabled() ? meterRegistry.getIfAvailable() : null;
+        return registry != null ? new DynaQueryMetrics(registry) : DynaQueryMetrics.DISABLED;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQuerySlowQueryLog dynaQuerySlowQueryLog(DynaQueryProperties properties, EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        DynaQueryProperties.SlowQuery slowQuery = properties.getSlowQuery();
+        return slowQuery.isEnabled() ?
+                new DynaQuerySlowQueryLog(entityManager, readOnlyTransaction(transactionManager), Duration.ofMillis(slowQuery.getThresholdMillis()), slowQuery.getCapacity(), slowQuery.isExplain()) :
+                DynaQuerySlowQueryLog.DISABLED;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryPlanCache dynaQueryPlanCache(DynaQueryProperties properties) {
+        return new DynaQueryPlanCache(properties.getPlanCache().getSize());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryNormalizer dynaQueryNormalizer(ViewEntityRegistry viewEntityRegistry, DynaQueryMetrics dynaQueryMetrics) {
+        return new DynaQueryNormalizer(viewEntityRegistry, dynaQueryMetrics);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryOptimizer dynaQueryOptimizer(DynaQueryMetrics dynaQueryMetrics) {
+        return new DynaQueryOptimizer(dynaQueryMetrics);
+    }
+
+    // A view may override the limits by dyna-query.query-timeout.views.<view>.millis and dyna-query.cost-check.views.<view>.max-cost
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryLimits dynaQueryLimits(DynaQueryProperties properties) {
+        long queryTimeoutMillis = properties.getQueryTimeout().getMillis();
+        double maximumCost = properties.getCostCheck().getMaxCost();
+        Map<String, DynaQueryProperties.QueryTimeout.View> queryTimeoutViews = byView(properties.getQueryTimeout().getViews());
+        Map<String, DynaQueryProperties.CostCheck.View> costCheckViews = byView(properties.getCostCheck().getViews());
+        return new DynaQueryLimits(
+                view -> Duration.ofMillis(Optional.ofNullable(queryTimeoutViews.get(view)).map(DynaQueryProperties.QueryTimeout.View::getMillis).orElse(queryTimeoutMillis)),
+                view -> Optional.ofNullable(costCheckViews.get(view)).map(DynaQueryProperties.CostCheck.View::getMaxCost).orElse(maximumCost));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "dyna-query.parallel-count", name = "enabled", havingValue = "true")
+    public DynaQueryParallelCounter dynaQueryParallelCounter(DynaQueryProperties properties, EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        return new DynaQueryParallelCounter(entityManager, readOnlyTransaction(transactionManager), properties.getParallelCount().getThreads());
+    }
+
+    // Counts of pages run after their content query when there is no parallel counter.
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryExecutor dynaQueryExecutor(DynaQueryProperties properties, EntityManager entityManager, ViewEntityRegistry viewEntityRegistry,
+                                               DynaQueryPlanCache dynaQueryPlanCache, ObjectProvider<DynaQueryParallelCounter> dynaQueryParallelCounter,
+                                               DynaQueryLimits dynaQueryLimits, DynaQueryMetrics dynaQueryMetrics, DynaQuerySlowQueryLog dynaQuerySlowQueryLog) {
+        DynaQueryProperties.CountCache countCache = properties.getCountCache();
+        return new DynaQueryExecutor(entityManager, viewEntityRegistry, dynaQueryPlanCache,
+                new DynaQueryCountCache(countCache.getSize(), countCache.getTtlSeconds()), dynaQueryParallelCounter.getIfAvailable(), dynaQueryLimits, dynaQueryMetrics, dynaQuerySlowQueryLog,
+                properties.getInList().getArrayThreshold());
+    }
+
+    // A view may override the TTL by dyna-query.result-cache.views.<view>.ttl-seconds
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryResultCache dynaQueryResultCache(DynaQueryProperties properties) {
+        long ttlSeconds = properties.getResultCache().getTtlSeconds();
+        Map<String, DynaQueryProperties.ResultCache.View> views = byView(properties.getResultCache().getViews());
+        return new DynaQueryResultCache(properties.getResultCache().getSize(), view -> Duration.ofSeconds(
+                Optional.ofNullable(views.get(view)).map(DynaQueryProperties.ResultCache.View::getTtlSeconds).orElse(ttlSeconds)));
+    }
+
+    // Rollups are refreshed on the primary. Cached results of the aggregated view are dropped once its rollup is refreshed.
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryRollups dynaQueryRollups(DynaQueryProperties properties, ViewEntityRegistry viewEntityRegistry, EntityManager entityManager,
+                                             PlatformTransactionManager transactionManager, DynaQueryMetrics dynaQueryMetrics, DynaQueryResultCache dynaQueryResultCache) {
+        DynaQueryProperties.Rollup rollup = properties.getRollup();
+        return rollup.isEnabled() ?
+                new DynaQueryRollups(viewEntityRegistry, entityManager, new TransactionTemplate(transactionManager), dynaQueryMetrics,
+                        Duration.ofSeconds(rollup.getRefreshIntervalSeconds()), Duration.ofSeconds(rollup.getMaxStalenessSeconds()), dynaQueryResultCache::evictView) :
+                DynaQueryRollups.NONE;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DynaQueryBatchExecutor dynaQueryBatchExecutor(DynaQueryProperties properties, PlatformTransactionManager transactionManager,
+                                                         DynaQueryNormalizer dynaQueryNormalizer, DynaQueryOptimizer dynaQueryOptimizer, DynaQueryRollups dynaQueryRollups,
+                                                         DynaQueryExecutor dynaQueryExecutor, DynaQueryMetrics dynaQueryMetrics, DynaQuerySlowQueryLog dynaQuerySlowQueryLog) {
+        DynaQueryProperties.Batch batch = properties.getBatch();
+        return new DynaQueryBatchExecutor(dynaQueryNormalizer, dynaQueryOptimizer, dynaQueryRollups, dynaQueryExecutor, readOnlyTransaction(transactionManager), dynaQueryMetrics, dynaQuerySlowQueryLog,
+                batch.getThreads(), batch.getQueueSize(), batch.getMaxSize(), Duration.ofMillis(batch.getTimeoutMillis()));
+    }
+
+    // Not a bean, the application's TransactionTemplate, if any, stays read-write.
+    private static TransactionTemplate readOnlyTransaction(PlatformTransactionManager transactionManager) {
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        return readOnlyTransaction;
+    }
+
+    // Looked up regardless of case, keys bound from environment variables are lower case.
+    private static <T> Map<String, T> byView(Map<String, T> views) {
+        Map<String, T> byView = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        byView.putAll(views);
+        return byView;
+    }
+    //endregion
 }
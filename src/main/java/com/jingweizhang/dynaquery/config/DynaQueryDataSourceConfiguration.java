@@ -0,0 +1,62 @@
+package com.jingweizhang.dynaquery.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Description
+ * Read replicas for the query endpoints, only set up when dyna-query.datasource.replica-urls is given.
+ * Replicas share the credentials of spring.datasource, which stays the primary, and the pool settings of spring.datasource.hikari.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "dyna-query.datasource", name = "replica-urls")
+public class DynaQueryDataSourceConfiguration {
+    @Bean
+    DynaQueryRoutingDataSource routingDataSource(DataSourceProperties dataSourceProperties, DynaQueryProperties properties, Environment environment) {
+        Binder binder = Binder.get(environment);
+        HikariDataSource primary = pool(dataSourceProperties, binder);
+        List<DataSource> replicas = new ArrayList<>();
+        for (String replicaUrl : properties.getDatasource().getReplicaUrls()) {
+            HikariDataSource replica = pool(dataSourceProperties, binder);
+            replica.setJdbcUrl(replicaUrl.trim());
+            replica.setPoolName(primary.getPoolName() + "-replica-" + (replicas.size() + 1));
+            replicas.add(replica);
+        }
+
+        return new DynaQueryRoutingDataSource(primary, replicas, Duration.ofSeconds(properties.getDatasource().getReplicaRetrySeconds()));
+    }
+
+    // Built and bound to spring.datasource.hikari as Spring Boot does when there are no replicas.
+    private static HikariDataSource pool(DataSourceProperties dataSourceProperties, Binder binder) {
+        HikariDataSource pool = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        if (StringUtils.hasText(dataSourceProperties.getName())) {
+            pool.setPoolName(dataSourceProperties.getName());
+        }
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        if (pool.getPoolName() == null) {
+            pool.setPoolName("DynaQueryPool");
+        }
+        return pool;
+    }
+
+    // Connections are taken on the first statement, after the transaction has marked itself read-only.
+    @Bean
+    @Primary
+    public DataSource dataSource(DynaQueryRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -0,0 +1,148 @@
+package com.jingweizhang.dynaquery.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description
+ * Settings of DynaQueryService and its collaborators, under dyna-query.*, see the README for what each one does.
+ * Overrides of a single view, dyna-query.<setting>.views.<view>.*, are bound by view name, null where not overridden.
+ */
+@Data
+@ConfigurationProperties(prefix = "dyna-query")
+public class DynaQueryProperties {
+    private String viewEntityPackage;
+    private final PlanCache planCache = new PlanCache();
+    private final Stream stream = new Stream();
+    private final CountCache countCache = new CountCache();
+    private final ResultCache resultCache = new ResultCache();
+    private final Batch batch = new Batch();
+    private final ParallelCount parallelCount = new ParallelCount();
+    private final QueryTimeout queryTimeout = new QueryTimeout();
+    private final CostCheck costCheck = new CostCheck();
+    private final Metrics metrics = new Metrics();
+    private final SlowQuery slowQuery = new SlowQuery();
+    private final Rollup rollup = new Rollup();
+    private final InList inList = new InList();
+    private final TextSearch textSearch = new TextSearch();
+    private final Datasource datasource = new Datasource();
+    private final VirtualThreads virtualThreads = new VirtualThreads();
+    private final Web web = new Web();
+
+    @Data
+    public static class PlanCache {
+        private long size = 512;
+    }
+
+    @Data
+    public static class Stream {
+        private int fetchSize = 500;
+    }
+
+    @Data
+    public static class CountCache {
+        private long size = 1024;
+        private long ttlSeconds = 60;
+    }
+
+    @Data
+    public static class ResultCache {
+        private long size = 1024;
+        private long ttlSeconds = 30;
+        private Map<String, View> views = new HashMap<>();
+
+        @Data
+        public static class View {
+            private Long ttlSeconds;
+        }
+    }
+
+    @Data
+    public static class Batch {
+        private int threads = 8;
+        private int queueSize = 64;
+        private int maxSize = 50;
+        private long timeoutMillis = 10000;
+    }
+
+    @Data
+    public static class ParallelCount {
+        private boolean enabled;
+        private int threads = 8;
+    }
+
+    @Data
+    public static class QueryTimeout {
+        private long millis;
+        private Map<String, View> views = new HashMap<>();
+
+        @Data
+        public static class View {
+            private Long millis;
+        }
+    }
+
+    @Data
+    public static class CostCheck {
+        private double maxCost;
+        private Map<String, View> views = new HashMap<>();
+
+        @Data
+        public static class View {
+            private Double maxCost;
+        }
+    }
+
+    @Data
+    public static class Metrics {
+        private boolean enabled;
+    }
+
+    @Data
+    public static class SlowQuery {
+        private boolean enabled;
+        private long thresholdMillis = 1000;
+        private int capacity = 100;
+        private boolean explain;
+    }
+
+    @Data
+    public static class Rollup {
+        private boolean enabled;
+        private long refreshIntervalSeconds;
+        private long maxStalenessSeconds = 600;
+    }
+
+    @Data
+    public static class InList {
+        private int arrayThreshold = 64;
+    }
+
+    @Data
+    public static class TextSearch {
+        private String config = "simple";
+    }
+
+    @Data
+    public static class Datasource {
+        private List<String> replicaUrls = new ArrayList<>();
+        private long replicaRetrySeconds = 30;
+    }
+
+    @Data
+    public static class VirtualThreads {
+        private boolean enabled;
+    }
+
+    @Data
+    public static class Web {
+        private int threads = 200;
+        private int queueSize = 200;
+        private long timeoutMillis = 60000;
+    }
+}
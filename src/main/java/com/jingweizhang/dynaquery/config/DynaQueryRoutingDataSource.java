@@ -0,0 +1,113 @@
+package com.jingweizhang.dynaquery.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Description
+ * Routes read-only transactions to the replicas in round-robin, everything else to the primary.
+ * A replica that fails to give a connection is skipped for a while, and reads go to the primary when no replica is up.
+ * The routing decision is made when a connection is requested, so it has to sit behind a LazyConnectionDataSourceProxy
+ * for the read-only flag of the transaction to be known by then.
+ */
+class DynaQueryRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+    private static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final long retryNanos;
+    // System.nanoTime() until which each replica is skipped
+    private final AtomicLongArray downUntil;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public DynaQueryRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration retryAfter) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.retryNanos = retryAfter.toNanos();
+        this.downUntil = new AtomicLongArray(replicas.size());
+
+        long now = System.nanoTime();
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targetDataSources.put(i, replicas.get(i));
+            this.downUntil.set(i, now);
+        }
+        this.setTargetDataSources(targetDataSources);
+        this.setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || this.replicas.isEmpty()) {
+            return PRIMARY;
+        }
+
+        long now = System.nanoTime();
+        int start = Math.floorMod(this.next.getAndIncrement(), this.replicas.size());
+        for (int i = 0; i < this.replicas.size(); i++) {
+            int replica = (start + i) % this.replicas.size();
+            if (now - this.downUntil.get(replica) >= 0) {
+                return replica;
+            }
+        }
+
+        return PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = this.determineCurrentLookupKey();
+        if (key instanceof Integer) {
+            int replica = (Integer) key;
+            try {
+                return this.replicas.get(replica).getConnection();
+            } catch (SQLException e) {
+                this.markDown(replica, e);
+            }
+        }
+
+        return this.primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Object key = this.determineCurrentLookupKey();
+        if (key instanceof Integer) {
+            int replica = (Integer) key;
+            try {
+                return this.replicas.get(replica).getConnection(username, password);
+            } catch (SQLException e) {
+                this.markDown(replica, e);
+            }
+        }
+
+        return this.primary.getConnection(username, password);
+    }
+
+    private void markDown(int replica, SQLException e) {
+        this.downUntil.set(replica, System.nanoTime() + this.retryNanos);
+        this.logger.warn("Replica " + replica + " is down, reading from other replicas or the primary for " + Duration.ofNanos(this.retryNanos), e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataSource dataSource : this.getResolvedDataSources().values()) {
+            if (dataSource instanceof Closeable) {
+                ((Closeable) dataSource).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jingweizhang.dynaquery.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @Description
+ * Opt-in mode handling requests on virtual threads, enabled by dyna-query.virtual-threads.enabled=true.
+ * Queries run as async requests of Spring MVC, see DynaQueryWebConfiguration, and also on virtual threads then.
+ * A request blocks its thread for the whole JDBC round trip, a virtual thread costs next to nothing while blocked,
+ * so Tomcat is no longer limited by the size of its pool. Concurrency on the database stays limited by the connection
+ * pool: beyond spring.datasource.hikari.maximum-pool-size, requests wait for a connection up to its connection-timeout.
+ * Virtual threads need JDK 21, on older JDKs requests stay on platform threads.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "dyna-query.virtual-threads", name = "enabled", havingValue = "true")
+public class DynaQueryVirtualThreadConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryVirtualThreadConfiguration.class);
+
+    // Null on JDKs without virtual threads
+    private final ExecutorService virtualThreadExecutor;
+
+    // Resolved reflectively, so the library still builds and runs on JDKs without virtual threads.
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public DynaQueryVirtualThreadConfiguration() {
+        this.virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        if (this.virtualThreadExecutor == null) {
+            logger.warn("Virtual threads need JDK 21, running on {}. Requests stay on platform threads", System.getProperty("java.version"));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (this.virtualThreadExecutor != null) {
+            this.virtualThreadExecutor.shutdown();
+        }
+    }
+
+    @Bean
+    WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer() {
+        return factory -> {
+            if (this.virtualThreadExecutor != null) {
+                factory.addProtocolHandlerCustomizers(handler -> handler.setExecutor(this.virtualThreadExecutor));
+            }
+        };
+    }
+
+    // Null on JDKs without virtual threads. DynaQueryWebConfiguration runs the async requests of Spring MVC on it.
+    ExecutorService getVirtualThreadExecutor() {
+        return this.virtualThreadExecutor;
+    }
+}
@@ -0,0 +1,74 @@
+package com.jingweizhang.dynaquery.config;
+
+import com.jingweizhang.dynaquery.service.DynaQueryService;
+import com.jingweizhang.dynaquery.web.DynaQueryAsyncTasks;
+import com.jingweizhang.dynaquery.web.DynaQueryCancellingInterceptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @Description
+ * Queries are async requests of Spring MVC. They run on a pool of their own, as many at once as dyna-query.web.threads
+ * with as many more waiting as dyna-query.web.queue-size, or on virtual threads when enabled, and time out after
+ * dyna-query.web.timeout-millis. The pool is not a bean, and not the executor of Spring MVC, so that it replaces neither
+ * the application's task executor of Spring Boot nor the executor of its other async requests. Streaming exports stay on
+ * the executor, and within the timeout, of Spring MVC.
+ */
+@Configuration
+public class DynaQueryWebConfiguration implements WebMvcConfigurer {
+    private final DynaQueryService dynaQueryService;
+    private final AsyncTaskExecutor asyncExecutor;
+    // Null when running on virtual threads
+    private final ThreadPoolTaskExecutor threadPool;
+
+    public DynaQueryWebConfiguration(DynaQueryService dynaQueryService,
+                                     ObjectProvider<DynaQueryVirtualThreadConfiguration> virtualThreadConfiguration,
+                                     DynaQueryProperties properties) {
+        this.dynaQueryService = dynaQueryService;
+        DynaQueryProperties.Web web = properties.getWeb();
+
+        DynaQueryVirtualThreadConfiguration virtualThreads = virtualThreadConfiguration.getIfAvailable();
+        ExecutorService virtualThreadExecutor = virtualThreads != null ? virtualThreads.getVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            this.threadPool = null;
+            this.asyncExecutor = new TaskExecutorAdapter(virtualThreadExecutor);
+        } else {
+            // Beyond the queue, queries are rejected instead of waiting longer than they would be worth.
+            this.threadPool = new ThreadPoolTaskExecutor();
+            this.threadPool.setCorePoolSize(web.getThreads());
+            this.threadPool.setMaxPoolSize(web.getThreads());
+            this.threadPool.setQueueCapacity(web.getQueueSize());
+            this.threadPool.setAllowCoreThreadTimeOut(true);
+            this.threadPool.setThreadNamePrefix("dyna-query-web-");
+            this.threadPool.initialize();
+            this.asyncExecutor = this.threadPool;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (this.threadPool != null) {
+            this.threadPool.shutdown();
+        }
+    }
+
+    @Bean
+    DynaQueryAsyncTasks dynaQueryAsyncTasks(DynaQueryProperties properties) {
+        return new DynaQueryAsyncTasks(this.asyncExecutor, properties.getWeb().getTimeoutMillis());
+    }
+
+    // Only cancels statements of DynaQuery, any other async request passes through untouched.
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new DynaQueryCancellingInterceptor(this.dynaQueryService));
+    }
+}
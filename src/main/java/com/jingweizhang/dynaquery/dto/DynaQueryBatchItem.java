@@ -0,0 +1,22 @@
+package com.jingweizhang.dynaquery.dto;
+
+import com.jingweizhang.dynaquery.model.CountStrategy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @Description
+ * One query of a batch. The id is chosen by the client and keys the query's result in the response.
+ * Without page number and page size the whole result is returned.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DynaQueryBatchItem {
+    private String id;
+    private DynaQueryRequest query;
+    private Integer pageNumber;
+    private Integer pageSize;
+    private CountStrategy countStrategy;
+}
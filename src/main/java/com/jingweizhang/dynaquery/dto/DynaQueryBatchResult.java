@@ -0,0 +1,39 @@
+package com.jingweizhang.dynaquery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Slice;
+
+import java.util.Map;
+
+/**
+ * @Description
+ * Result of one query of a batch, either its rows or why there are none.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DynaQueryBatchResult {
+    private Status status;
+    private Slice<Map<String, Object>> result;
+    private String error;
+
+    public static DynaQueryBatchResult ok(Slice<Map<String, Object>> result) {
+        return new DynaQueryBatchResult(Status.OK, result, null);
+    }
+
+    public static DynaQueryBatchResult failed(Status status, String error) {
+        return new DynaQueryBatchResult(status, null, error);
+    }
+
+    public enum Status {
+        OK,
+        // The query is invalid or failed in database
+        FAILED,
+        // The batch's deadline passed before the query finished
+        TIMEOUT,
+        // No capacity left to run the query
+        REJECTED
+    }
+}
@@ -0,0 +1,17 @@
+package com.jingweizhang.dynaquery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @Description
+ * Snapshot of the counters of a DynaQuery cache.
+ */
+@Data
+@AllArgsConstructor
+public class DynaQueryCacheStatistics {
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long size;
+}
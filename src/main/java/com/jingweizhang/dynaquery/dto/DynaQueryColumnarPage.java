@@ -0,0 +1,35 @@
+package com.jingweizhang.dynaquery.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @Description
+ * A page of rows sent column by column: the name and type of every column once, then its values in row order.
+ * A string column with few distinct values is dictionary encoded, its values are indexes into its dictionary.
+ * Total elements is null when the page was not counted.
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DynaQueryColumnarPage {
+    private List<Column> columns;
+    private int rowCount;
+    private int number;
+    private int size;
+    private Long totalElements;
+    private boolean hasNext;
+
+    @Data
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Column {
+        private String name;
+        private String type;
+        private List<Object> dictionary;
+        private List<Object> values;
+    }
+}
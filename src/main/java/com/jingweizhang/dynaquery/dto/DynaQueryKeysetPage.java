@@ -0,0 +1,20 @@
+package com.jingweizhang.dynaquery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @Description
+ * A page of a keyset(seek) paginated query.
+ * Pass the continuation back to fetch the page right after this one, it is null on the last page.
+ */
+@Data
+@AllArgsConstructor
+public class DynaQueryKeysetPage<T> {
+    private List<T> content;
+    private int size;
+    private boolean hasNext;
+    private String continuation;
+}
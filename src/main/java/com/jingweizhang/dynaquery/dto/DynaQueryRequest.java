@@ -61,6 +61,18 @@ public class DynaQueryRequest {
         private List<String> fields;
         private Aggregator aggregator;
         private Filter having;
+        // More aggregators over the same grouping, after the one above if given
+        private List<Aggregator> aggregators;
+        // Sets of the fields to group by in turn, e.g. [["region", "city"], ["region"], []] for subtotals per region and a grand total
+        private List<List<String>> groupingSets;
+        // Shorthand for grouping sets of every leading part of the fields, from all of them down to none
+        private boolean rollup;
+
+        public GroupBy(List<String> fields, Aggregator aggregator, Filter having) {
+            this.fields = fields;
+            this.aggregator = aggregator;
+            this.having = having;
+        }
 
         @Data
         @NoArgsConstructor
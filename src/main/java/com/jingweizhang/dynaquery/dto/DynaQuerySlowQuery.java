@@ -0,0 +1,28 @@
+package com.jingweizhang.dynaquery.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * @Description
+ * A statement that ran longer than the slow query threshold, with the query it was generated for.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DynaQuerySlowQuery {
+    private Instant time;
+    private String view;
+    // The request as sent by the client, or the saved query when there is none
+    private String request;
+    private String sql;
+    private List<String> binds;
+    private long elapsedMillis;
+    // Output of EXPLAIN (ANALYZE, BUFFERS) when enabled, set once the explain finished
+    private volatile JsonNode plan;
+}
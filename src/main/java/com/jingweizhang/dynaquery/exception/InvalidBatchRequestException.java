@@ -0,0 +1,11 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * A batch request that is empty, too large, or has an item without a unique id, query or valid page.
+ */
+public class InvalidBatchRequestException extends AbstractDynaQueryException {
+    public InvalidBatchRequestException(String reason) {
+        super(String.format("Invalid batch request: %s", reason));
+    }
+}
@@ -0,0 +1,11 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * A continuation token of keyset pagination that is malformed or was issued for a query with other orders.
+ */
+public class InvalidContinuationTokenException extends AbstractDynaQueryException {
+    public InvalidContinuationTokenException(String reason) {
+        super(String.format("Invalid continuation token: %s", reason));
+    }
+}
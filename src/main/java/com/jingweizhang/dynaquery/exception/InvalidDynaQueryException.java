@@ -0,0 +1,24 @@
+package com.jingweizhang.dynaquery.exception;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * A query with more than one error, each of them is kept as the exception it would be thrown as on its own.
+ */
+public class InvalidDynaQueryException extends AbstractDynaQueryException {
+    private static final long serialVersionUID = 1L;
+    private static final String MESSAGE = "Invalid query with %d errors: %s";
+
+    private final List<AbstractDynaQueryException> errors;
+
+    public InvalidDynaQueryException(List<AbstractDynaQueryException> errors) {
+        super(String.format(MESSAGE, errors.size(), errors.stream().map(Throwable::getMessage).collect(Collectors.joining("; "))));
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<AbstractDynaQueryException> getErrors() {
+        return errors;
+    }
+}
@@ -8,5 +8,8 @@ public class InvalidFieldAliasException extends AbstractDynaQueryException {
     public InvalidFieldAliasException(String field) {
         super(String.format("Field alias: %s can't be null or empty", field));
     }
-}
 
+    public InvalidFieldAliasException(String alias, String reason) {
+        super(String.format("Field alias: %s %s", alias, reason));
+    }
+}
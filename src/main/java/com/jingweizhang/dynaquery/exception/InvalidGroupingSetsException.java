@@ -0,0 +1,13 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * Grouping sets that are empty, name a field that is not a group field, or leave one out.
+ */
+public class InvalidGroupingSetsException extends AbstractDynaQueryException {
+    private static final long serialVersionUID = 1L;
+    private static final String MESSAGE = "Invalid grouping sets: %s";
+    public InvalidGroupingSetsException(String reason) {
+        super(String.format(MESSAGE, reason));
+    }
+}
@@ -0,0 +1,13 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * A query estimated by the database to cost more than its view allows.
+ */
+public class QueryCostExceededException extends AbstractDynaQueryException {
+    private static final long serialVersionUID = 1L;
+    private static final String MESSAGE = "Query on %s is estimated to cost %.0f, more than the %.0f allowed. Narrow down its filter";
+    public QueryCostExceededException(String viewEntityName, double cost, double maximumCost) {
+        super(String.format(MESSAGE, viewEntityName, cost, maximumCost));
+    }
+}
@@ -0,0 +1,13 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * A statement cancelled by its timeout or because its client went away.
+ */
+public class QueryTimeoutExceededException extends AbstractDynaQueryException {
+    private static final long serialVersionUID = 1L;
+    private static final String MESSAGE = "Query on %s was cancelled, it ran out of its time of %d ms or its client went away";
+    public QueryTimeoutExceededException(String viewEntityName, long timeoutMillis) {
+        super(String.format(MESSAGE, viewEntityName, timeoutMillis));
+    }
+}
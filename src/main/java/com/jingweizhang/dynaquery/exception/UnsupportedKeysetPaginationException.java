@@ -0,0 +1,11 @@
+package com.jingweizhang.dynaquery.exception;
+
+/**
+ * @Description
+ * A query that can't be paged by keyset: grouped, ordered by relevance, or on a view without an @Id field.
+ */
+public class UnsupportedKeysetPaginationException extends AbstractDynaQueryException {
+    public UnsupportedKeysetPaginationException(String reason) {
+        super(String.format("Keyset pagination is not supported: %s", reason));
+    }
+}
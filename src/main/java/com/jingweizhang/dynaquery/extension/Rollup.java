@@ -0,0 +1,29 @@
+package com.jingweizhang.dynaquery.extension;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @Description
+ * Marks a view entity as a pre-aggregated rollup of another view entity, e.g. a materialized view or a table of
+ * SUM(amount) by customerName and day. Group by queries on the other view are answered from the rollup when they can be.
+ * Fields of the rollup annotated with RollupMeasure are measures, the others are dimensions, named as the fields of the
+ * other view they stand for. A surrogate id not named as a field of the other view is neither.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Rollup {
+    // View entity the rollup aggregates
+    Class<? extends ViewEntity> of();
+
+    // Statements refreshing the rollup, run in order in one transaction. A statement may bind :lastRefreshed, the start
+    // of the previous successful refresh (the epoch for the first), and :refreshedUntil, the start of this one, to only
+    // aggregate rows changed in [lastRefreshed, refreshedUntil); the next refresh goes on from refreshedUntil. A row
+    // committed after a refresh with a time inside its window is only caught by reaching back before :lastRefreshed,
+    // so statements must give the same rollup when rows are processed again, e.g. by recomputing the groups they touch
+    // instead of adding to them.
+    // Empty for REFRESH MATERIALIZED VIEW CONCURRENTLY, which needs a unique index on the materialized view.
+    String[] refresh() default {};
+}
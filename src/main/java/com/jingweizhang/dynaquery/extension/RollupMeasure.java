@@ -0,0 +1,22 @@
+package com.jingweizhang.dynaquery.extension;
+
+import com.jingweizhang.dynaquery.model.AggregateOperator;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @Description
+ * A field of a Rollup holding an aggregate of a field of the view it aggregates, per combination of its dimensions.
+ * Only SUM, COUNT, MIN and MAX can be aggregated again from a rollup.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RollupMeasure {
+    // Field of the aggregated view
+    String field();
+
+    AggregateOperator operator();
+}
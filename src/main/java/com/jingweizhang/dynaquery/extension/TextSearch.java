@@ -0,0 +1,18 @@
+package com.jingweizhang.dynaquery.extension;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @Description
+ * A string field of a view entity that can be filtered by TEXT_SEARCH and ordered by RELEVANCE.
+ * On PostgreSQL the field is matched as to_tsvector(config, field) @@ plainto_tsquery(config, text), with config
+ * from dyna-query.text-search.config, so it should have a GIN index on exactly that expression, e.g.
+ * CREATE INDEX ON orders USING gin (to_tsvector('simple', customer_name)).
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TextSearch {
+}
@@ -0,0 +1,20 @@
+package com.jingweizhang.dynaquery.extension;
+
+/**
+ * @Description
+ * Publish this event with Spring's ApplicationEventPublisher when data behind a view entity has changed,
+ * so that cached results of saved queries on the view are dropped.
+ * e.g.
+ * applicationEventPublisher.publishEvent(new ViewChangedEvent("WarehouseOrderMonitor"));
+ */
+public class ViewChangedEvent {
+    private final String targetView;
+
+    public ViewChangedEvent(String targetView) {
+        this.targetView = targetView;
+    }
+
+    public String getTargetView() {
+        return targetView;
+    }
+}
@@ -9,5 +9,6 @@ public enum AggregateOperator {
     AVG,
     MAX,
     MIN,
-    COUNT
+    COUNT,
+    COUNT_DISTINCT
 }
@@ -0,0 +1,14 @@
+package com.jingweizhang.dynaquery.model;
+
+/**
+ * @Description
+ * How the total count of a paged query is obtained.
+ * EXACT runs a count query, SKIP runs none and only tells whether there is a next page,
+ * ESTIMATED takes the row estimate of the database planner, CACHED reuses a recent exact count of the same filter.
+ */
+public enum CountStrategy {
+    EXACT,
+    SKIP,
+    ESTIMATED,
+    CACHED
+}
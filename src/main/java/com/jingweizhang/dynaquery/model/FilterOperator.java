@@ -21,6 +21,15 @@ public enum FilterOperator {
     BETWEEN("BETWEEN"),
     ISNULL("IS NULL"),
     NOTNULL("IS NOT NULL"),
+    // Full text search of a field annotated with @TextSearch
+    TEXT_SEARCH("@@"),
+    // Patterns of a string field, the value is matched as it is, % and _ in it are no wildcards
+    STARTS_WITH("LIKE x%"),
+    ENDS_WITH("LIKE %x"),
+    CONTAINS("LIKE %x%"),
+    STARTS_WITH_IGNORE_CASE("ILIKE x%"),
+    ENDS_WITH_IGNORE_CASE("ILIKE %x"),
+    CONTAINS_IGNORE_CASE("ILIKE %x%"),
     ELEMATCH("element match");
 
     private String desc;
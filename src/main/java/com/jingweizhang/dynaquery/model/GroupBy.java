@@ -4,11 +4,14 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * @Description
  * Entity that maps to Group_Object table
+ * Every aggregator is computed over the same grouping, in the same pass.
+ * With grouping sets, rows are grouped by each set of fields in turn, fields out of the set are null in its rows.
  *
  * @Author rocky.zhang on 2023/4/3
  */
@@ -17,14 +20,22 @@ import java.util.List;
 public class GroupBy implements Serializable {
     private List<String> fields;
 
-    private Aggregator aggregator;
+    private List<Aggregator> aggregators;
 
     private Filter having;
 
+    // Null to group by all the fields once
+    private List<List<String>> groupingSets;
+
     public GroupBy(List<String> fields, Aggregator aggregator, Filter having) {
+        this(fields, Collections.singletonList(aggregator), having, null);
+    }
+
+    public GroupBy(List<String> fields, List<Aggregator> aggregators, Filter having, List<List<String>> groupingSets) {
         this.fields = fields;
-        this.aggregator = aggregator;
+        this.aggregators = aggregators;
         this.having = having;
+        this.groupingSets = groupingSets;
     }
 
     public static GroupBy of(List<String> fields, Aggregator aggregator, Filter having) {
@@ -34,4 +45,13 @@ public class GroupBy implements Serializable {
     public static GroupBy of(List<String> fields, Aggregator aggregator) {
         return new GroupBy(fields, aggregator, null);
     }
+
+    public static GroupBy of(List<String> fields, List<Aggregator> aggregators, Filter having, List<List<String>> groupingSets) {
+        return new GroupBy(fields, aggregators, having, groupingSets);
+    }
+
+    // Group by saved with a single aggregator
+    public void setAggregator(Aggregator aggregator) {
+        this.aggregators = Collections.singletonList(aggregator);
+    }
 }
@@ -8,5 +8,7 @@ package com.jingweizhang.dynaquery.model;
  */
 public enum SortingOperator {
     ASC,
-    DESC
+    DESC,
+    // Best matches of the TEXT_SEARCH filter on the field first
+    RELEVANCE
 }
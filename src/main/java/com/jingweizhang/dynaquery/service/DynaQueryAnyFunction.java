@@ -0,0 +1,50 @@
+package com.jingweizhang.dynaquery.service;
+
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import java.util.List;
+
+/**
+ * @Description
+ * Renders dq_any(a, :values) as (a = any(?)), which JPQL has no syntax for, so a list of values is bound as a single array parameter.
+ * The statement stays the same however many values there are, and is not limited by the number of parameters a driver takes.
+ * Compared to true it is an IN, to false a NOT IN. Only used on databases with arrays, PostgreSQL and H2.
+ */
+public class DynaQueryAnyFunction implements SQLFunction {
+    public static final String ANY = "dq_any";
+
+    // Registers the function, as a MetadataBuilderContributor.
+    public static void contribute(MetadataBuilder metadataBuilder) {
+        metadataBuilder.applySqlFunction(ANY, new DynaQueryAnyFunction());
+    }
+
+    @Override
+    public boolean hasArguments() {
+        return true;
+    }
+
+    @Override
+    public boolean hasParenthesesIfNoArguments() {
+        return true;
+    }
+
+    @Override
+    public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+        return StandardBasicTypes.BOOLEAN;
+    }
+
+    @Override
+    public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory) throws QueryException {
+        if (arguments.size() != 2) {
+            throw new QueryException(ANY + " takes an expression and an array");
+        }
+
+        return "(" + arguments.get(0) + " = any(" + arguments.get(1) + "))";
+    }
+}
@@ -0,0 +1,260 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchItem;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchResult;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.AbstractDynaQueryException;
+import com.jingweizhang.dynaquery.exception.InvalidBatchRequestException;
+import com.jingweizhang.dynaquery.model.CountStrategy;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description
+ * Runs the queries of a batch concurrently on a bounded pool of threads, within a deadline for the whole batch.
+ * Each query runs in a read-only transaction, and so on a connection, of its own, a connection runs one statement at a time.
+ * Identical queries of a batch, e.g. two widgets showing the same page, are answered by a single statement.
+ * A query failing, or missing the deadline, leaves the results of the others intact. At the deadline the running statements
+ * are cancelled on the database, so their connections are back in the pool at once instead of when they would have finished.
+ */
+public class DynaQueryBatchExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryBatchExecutor.class);
+
+    private final DynaQueryNormalizer dynaQueryNormalizer;
+    private final DynaQueryOptimizer dynaQueryOptimizer;
+    private final DynaQueryRollups dynaQueryRollups;
+    private final DynaQueryExecutor dynaQueryExecutor;
+    private final TransactionTemplate readOnlyTransaction;
+    private final DynaQueryMetrics dynaQueryMetrics;
+    private final DynaQuerySlowQueryLog dynaQuerySlowQueryLog;
+    private final ThreadPoolExecutor threadPool;
+    private final int maximumSize;
+    private final Duration timeout;
+
+    public DynaQueryBatchExecutor(DynaQueryNormalizer dynaQueryNormalizer,
+                                  DynaQueryOptimizer dynaQueryOptimizer,
+                                  DynaQueryRollups dynaQueryRollups,
+                                  DynaQueryExecutor dynaQueryExecutor,
+                                  TransactionTemplate readOnlyTransaction,
+                                  DynaQueryMetrics dynaQueryMetrics,
+                                  DynaQuerySlowQueryLog dynaQuerySlowQueryLog,
+                                  int threads,
+                                  int queueSize,
+                                  int maximumSize,
+                                  Duration timeout) {
+        this.dynaQueryNormalizer = dynaQueryNormalizer;
+        this.dynaQueryOptimizer = dynaQueryOptimizer;
+        this.dynaQueryRollups = dynaQueryRollups;
+        this.dynaQueryExecutor = dynaQueryExecutor;
+        this.readOnlyTransaction = readOnlyTransaction;
+        this.dynaQueryMetrics = dynaQueryMetrics;
+        this.dynaQuerySlowQueryLog = dynaQuerySlowQueryLog;
+        this.maximumSize = maximumSize;
+        this.timeout = timeout;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "dyna-query-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    // Results in the order of the items, keyed by their ids.
+    public Map<String, DynaQueryBatchResult> execute(List<DynaQueryBatchItem> items) {
+        this.validate(items);
+        long deadline = System.nanoTime() + this.timeout.toNanos();
+
+        Map<String, DynaQueryBatchResult> results = new ConcurrentHashMap<>();
+        Map<BatchQuery, List<String>> idsByQuery = new LinkedHashMap<>();
+        for (DynaQueryBatchItem item : items) {
+            try {
+                DynaQuery dynaQuery = this.dynaQueryRollups.rewrite(
+                        this.dynaQueryOptimizer.optimize(this.dynaQueryNormalizer.normalize(item.getQuery(), "batch"), "batch"), "batch");
+                idsByQuery.computeIfAbsent(new BatchQuery(item, dynaQuery), x -> new ArrayList<>()).add(item.getId());
+            } catch (RuntimeException e) {
+                results.put(item.getId(), this.failureOf(e));
+            }
+        }
+
+        Map<Future<?>, BatchTask> futures = new LinkedHashMap<>();
+        for (Map.Entry<BatchQuery, List<String>> query : idsByQuery.entrySet()) {
+            BatchTask task = new BatchTask(query.getKey(), query.getValue());
+            try {
+                futures.put(this.threadPool.submit(() -> this.execute(task, results)), task);
+            } catch (RejectedExecutionException e) {
+                task.ids.forEach(x -> results.put(x, DynaQueryBatchResult.failed(DynaQueryBatchResult.Status.REJECTED, "Too many queries in progress")));
+            }
+        }
+
+        for (Map.Entry<Future<?>, BatchTask> future : futures.entrySet()) {
+            try {
+                future.getKey().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                this.cancel(future.getKey(), future.getValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel(future.getKey(), future.getValue());
+            } catch (ExecutionException e) {
+                // execute keeps failures in the results
+            }
+        }
+
+        // Whatever has no result by now missed the deadline.
+        Map<String, DynaQueryBatchResult> ordered = new LinkedHashMap<>();
+        for (DynaQueryBatchItem item : items) {
+            ordered.put(item.getId(), results.getOrDefault(item.getId(),
+                    DynaQueryBatchResult.failed(DynaQueryBatchResult.Status.TIMEOUT, "Not finished within " + this.timeout.toMillis() + " ms")));
+        }
+        return ordered;
+    }
+
+    // A query not started yet never starts, a running one is cancelled on the database.
+    // Interrupting the thread instead would leave the statement running, and the connection taken, until it finishes.
+    private void cancel(Future<?> future, BatchTask task) {
+        task.cancelled = true;
+        future.cancel(false);
+
+        DynaQueryCancellationToken token = task.token;
+        if (token != null) {
+            this.dynaQueryExecutor.cancel(token);
+        }
+    }
+
+    // The result of a query goes to every item asking for it.
+    private void execute(BatchTask task, Map<String, DynaQueryBatchResult> results) {
+        BatchQuery query = task.query;
+        try (DynaQueryCancellationToken token = DynaQueryCancellationToken.open()) {
+            task.token = token;
+            if (task.cancelled) {
+                return;
+            }
+            DynaQueryBatchResult result = DynaQueryBatchResult.ok(this.readOnlyTransaction.execute(status ->
+                    this.dynaQueryMetrics.operation("batch", query.getDynaQuery().getTargetView(),
+                            () -> this.dynaQuerySlowQueryLog.withRequest(query.getRequest(),
+                                    () -> this.dynaQueryExecutor.queryAll(query.getDynaQuery(), query.getPageable(), query.getCountStrategy())),
+                            Slice::getNumberOfElements)));
+            task.ids.forEach(x -> results.put(x, result));
+        } catch (RuntimeException e) {
+            // A query cancelled at the deadline is reported as a timeout by the caller.
+            if (!task.cancelled) {
+                DynaQueryBatchResult failure = this.failureOf(e);
+                task.ids.forEach(x -> results.put(x, failure));
+            }
+        } finally {
+            task.token = null;
+        }
+    }
+
+    // Messages of DynaQuery's own exceptions are meant for the client, anything else is logged and not exposed.
+    private DynaQueryBatchResult failureOf(RuntimeException e) {
+        if (e.getClass().getPackage().equals(AbstractDynaQueryException.class.getPackage())) {
+            return DynaQueryBatchResult.failed(DynaQueryBatchResult.Status.FAILED, e.getMessage());
+        }
+
+        logger.warn("Query of a batch failed", e);
+        return DynaQueryBatchResult.failed(DynaQueryBatchResult.Status.FAILED, "Failed to execute query");
+    }
+
+    private void validate(List<DynaQueryBatchItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new InvalidBatchRequestException("no query");
+        }
+
+        if (items.size() > this.maximumSize) {
+            throw new InvalidBatchRequestException(String.format("%d queries, at most %d are allowed", items.size(), this.maximumSize));
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (DynaQueryBatchItem item : items) {
+            if (item.getId() == null || item.getId().isEmpty()) {
+                throw new InvalidBatchRequestException("query without id");
+            }
+            if (!ids.add(item.getId())) {
+                throw new InvalidBatchRequestException("duplicate id " + item.getId());
+            }
+            if (item.getQuery() == null) {
+                throw new InvalidBatchRequestException("query " + item.getId() + " is empty");
+            }
+            if ((item.getPageNumber() == null) != (item.getPageSize() == null)) {
+                throw new InvalidBatchRequestException("query " + item.getId() + " needs both page number and page size, or neither");
+            }
+            if (item.getPageNumber() != null && (item.getPageNumber() < 0 || item.getPageSize() < 1)) {
+                throw new InvalidBatchRequestException("query " + item.getId() + " has an invalid page");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.threadPool.shutdownNow();
+    }
+
+    // A query and the ids of the items asking for it, with the token it runs for, for the deadline to cancel.
+    private static class BatchTask {
+        private final BatchQuery query;
+        private final List<String> ids;
+        private volatile DynaQueryCancellationToken token;
+        private volatile boolean cancelled;
+
+        BatchTask(BatchQuery query, List<String> ids) {
+            this.query = query;
+            this.ids = ids;
+        }
+    }
+
+    // Equal when they run the same statements: same query, page and count strategy.
+    private static class BatchQuery {
+        private final DynaQueryBatchItem item;
+        private final DynaQuery dynaQuery;
+
+        BatchQuery(DynaQueryBatchItem item, DynaQuery dynaQuery) {
+            this.item = item;
+            this.dynaQuery = dynaQuery;
+        }
+
+        public DynaQueryRequest getRequest() {
+            return this.item.getQuery();
+        }
+
+        public DynaQuery getDynaQuery() {
+            return this.dynaQuery;
+        }
+
+        public Pageable getPageable() {
+            return this.item.getPageNumber() == null ? Pageable.unpaged() : PageRequest.of(this.item.getPageNumber(), this.item.getPageSize());
+        }
+
+        public CountStrategy getCountStrategy() {
+            return this.item.getCountStrategy() == null ? CountStrategy.EXACT : this.item.getCountStrategy();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BatchQuery)) {
+                return false;
+            }
+            BatchQuery that = (BatchQuery) o;
+            return this.dynaQuery.equals(that.dynaQuery) && this.getPageable().equals(that.getPageable()) && this.getCountStrategy() == that.getCountStrategy();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.dynaQuery, this.getPageable(), this.getCountStrategy());
+        }
+    }
+}
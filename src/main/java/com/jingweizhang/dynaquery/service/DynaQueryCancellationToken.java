@@ -0,0 +1,33 @@
+package com.jingweizhang.dynaquery.service;
+
+/**
+ * @Description
+ * The request queries run for, so that cancelling it cancels statements of that request only. A thread goes on to run
+ * other requests once done with one, a late cancel of the previous request finds no statement of its token to cancel.
+ * Queries run on a thread without an open token can't be cancelled.
+ */
+public final class DynaQueryCancellationToken implements AutoCloseable {
+    private static final ThreadLocal<DynaQueryCancellationToken> CURRENT = new ThreadLocal<>();
+
+    private DynaQueryCancellationToken() {
+    }
+
+    // Queries the calling thread runs are cancelled by the token until it is closed, on the same thread.
+    public static DynaQueryCancellationToken open() {
+        DynaQueryCancellationToken token = new DynaQueryCancellationToken();
+        CURRENT.set(token);
+        return token;
+    }
+
+    // Null when the calling thread has no open token
+    static DynaQueryCancellationToken current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public void close() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+}
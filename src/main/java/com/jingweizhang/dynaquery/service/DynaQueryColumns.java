@@ -0,0 +1,96 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryColumnarPage;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+
+import java.util.*;
+
+/**
+ * @Description
+ * The columns of the rows a query returns, read by position straight off the rows:
+ * values of an Object[] (or the value itself for a single selection), getters of an entity, or entries of a map.
+ * Rows are either mapped to one map each, or encoded column by column without any map, see encode.
+ */
+final class DynaQueryColumns {
+    // A string column is dictionary encoded when it has at most one distinct value in every DICTIONARY_RATIO rows.
+    private static final int DICTIONARY_RATIO = 2;
+
+    private final String[] names;
+    private final Class<?>[] types;
+    private final ColumnReader reader;
+
+    private DynaQueryColumns(String[] names, Class<?>[] types, ColumnReader reader) {
+        this.names = names;
+        this.types = types;
+        this.reader = reader;
+    }
+
+    // Columns selected one by one, a row of a single selection is the value itself, of more selections an Object[].
+    public static DynaQueryColumns ofSelections(String[] names) {
+        return new DynaQueryColumns(names, new Class<?>[names.length],
+                (row, column) -> row instanceof Object[] ? ((Object[]) row)[column] : row);
+    }
+
+    public static DynaQueryColumns ofEntity(ViewEntityColumn[] columns) {
+        return new DynaQueryColumns(
+                Arrays.stream(columns).map(ViewEntityColumn::getName).toArray(String[]::new),
+                Arrays.stream(columns).map(ViewEntityColumn::getType).toArray(Class<?>[]::new),
+                (row, column) -> columns[column].valueOf(row));
+    }
+
+    public static DynaQueryColumns ofMaps(String[] names) {
+        return new DynaQueryColumns(names, new Class<?>[names.length], (row, column) -> ((Map<?, ?>) row).get(names[column]));
+    }
+
+    public Map<String, Object> toMap(Object row) {
+        Map<String, Object> record = new LinkedHashMap<>(capacityOf(this.names.length));
+        for (int i = 0; i < this.names.length; i++) {
+            record.put(this.names[i], this.reader.valueOf(row, i));
+        }
+        return record;
+    }
+
+    public DynaQueryColumnarPage encode(Slice<?> page) {
+        List<?> rows = page.getContent();
+        List<DynaQueryColumnarPage.Column> columns = new ArrayList<>(this.names.length);
+        for (int i = 0; i < this.names.length; i++) {
+            List<Object> values = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                values.add(this.reader.valueOf(row, i));
+            }
+            columns.add(this.encode(i, values));
+        }
+
+        return new DynaQueryColumnarPage(columns, rows.size(), page.getNumber(), page.getSize(),
+                page instanceof Page ? ((Page<?>) page).getTotalElements() : null, page.hasNext());
+    }
+
+    private DynaQueryColumnarPage.Column encode(int column, List<Object> values) {
+        // Type of the field, or of the values when the column is computed, e.g. an aggregator
+        Class<?> type = this.types[column] != null ? this.types[column] : values.stream().filter(Objects::nonNull).findFirst().map(Object::getClass).orElse(null);
+        String typeName = type == null ? null : type.getSimpleName();
+
+        Map<Object, Integer> dictionary = new LinkedHashMap<>();
+        List<Object> indexes = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value != null && !(value instanceof String)) {
+                return new DynaQueryColumnarPage.Column(this.names[column], typeName, null, values);
+            }
+            indexes.add(value == null ? null : dictionary.computeIfAbsent(value, x -> dictionary.size()));
+        }
+
+        return !values.isEmpty() && dictionary.size() * DICTIONARY_RATIO <= values.size() ?
+                new DynaQueryColumnarPage.Column(this.names[column], typeName, new ArrayList<>(dictionary.keySet()), indexes) :
+                new DynaQueryColumnarPage.Column(this.names[column], typeName, null, values);
+    }
+
+    private static int capacityOf(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader {
+        Object valueOf(Object row, int column);
+    }
+}
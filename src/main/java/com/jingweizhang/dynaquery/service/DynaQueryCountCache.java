@@ -0,0 +1,38 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * @Description
+ * Exact counts kept for a while, keyed by view, filter and group by with their values.
+ * Projections and orders don't change a count, so queries differ only in those share the entry.
+ */
+public class DynaQueryCountCache {
+    private final Cache<List<Object>, Long> counts;
+
+    public DynaQueryCountCache(long maximumSize, long ttlSeconds) {
+        this.counts = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    public long get(DynaQuery dynaQuery, Supplier<Long> counter) {
+        DynaQuery countQuery = new DynaQuery(null, dynaQuery.getFilter(), dynaQuery.getGroupBy(), null);
+        countQuery.setTargetView(dynaQuery.getTargetView());
+
+        DynaQueryFingerprint fingerprint = DynaQueryFingerprint.of(countQuery);
+        return this.counts.get(Arrays.asList(fingerprint.getShape(), fingerprint.getParameters()), key -> counter.get());
+    }
+
+    public void clear() {
+        this.counts.invalidateAll();
+    }
+}
@@ -1,24 +1,48 @@
 package com.jingweizhang.dynaquery.service;
 
+import com.jingweizhang.dynaquery.dto.DynaQueryColumnarPage;
+import com.jingweizhang.dynaquery.dto.DynaQueryKeysetPage;
 import com.jingweizhang.dynaquery.exception.DynaQueryGrammarException;
+import com.jingweizhang.dynaquery.exception.FailedToFindFieldInViewEntityClassException;
+import com.jingweizhang.dynaquery.exception.QueryCostExceededException;
+import com.jingweizhang.dynaquery.exception.QueryTimeoutExceededException;
+import com.jingweizhang.dynaquery.exception.UnsupportedAggregateOperatorException;
+import com.jingweizhang.dynaquery.exception.UnsupportedKeysetPaginationException;
 import com.jingweizhang.dynaquery.extension.ViewEntity;
 import com.jingweizhang.dynaquery.model.*;
 import com.jingweizhang.dynaquery.model.OrderBy;
+import org.hibernate.NullPrecedence;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.QueryHints;
 import org.hibernate.exception.SQLGrammarException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.util.ClassUtils;
 
 import javax.persistence.*;
 import javax.persistence.criteria.*;
 import javax.persistence.metamodel.Attribute;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Array;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @Description
@@ -26,24 +50,236 @@ import java.util.stream.Collectors;
  *
  * @Author rocky.zhang on 2023/4/3
  */
-class DynaQueryExecutor {
+public class DynaQueryExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryExecutor.class);
+
+    // Owners whose collections are fetched by one query, well below the bind parameter limit of any database.
+    private static final int COLLECTION_FETCH_BATCH_SIZE = 500;
+
     private final EntityManager entityManager;
     private final ViewEntityRegistry viewEntityRegistry;
-    public DynaQueryExecutor(EntityManager entityManager, ViewEntityRegistry viewEntityRegistry) {
+    private final DynaQueryPlanCache dynaQueryPlanCache;
+    private final DynaQueryCountCache dynaQueryCountCache;
+    private final DynaQueryExplainer dynaQueryExplainer;
+    // Null when exact counts run after the content query
+    private final DynaQueryParallelCounter dynaQueryParallelCounter;
+    private final DynaQueryLimits dynaQueryLimits;
+    private final DynaQueryMetrics dynaQueryMetrics;
+    private final DynaQuerySlowQueryLog dynaQuerySlowQueryLog;
+    // Whether the database groups by grouping sets itself, asked on the first query with grouping sets
+    private volatile Boolean groupingSetsSupported;
+    // Lists longer than this are bound as an array where the database has arrays, 0 to bind them value by value
+    private final int arrayThreshold;
+    // Whether the database takes lists as arrays, asked on the first query
+    private volatile Boolean arraysSupported;
+    // Whether the database searches text itself, asked on the first query
+    private volatile Boolean textSearchSupported;
+    // Whether the database compares row values, asked on the first query
+    private volatile Boolean rowValuesSupported;
+    // Sorting directions putting nulls first, asked on the first query
+    private volatile Set<SortingOperator> nullsFirst;
+    // Sessions of the requests running a query, by their token, so that another thread can cancel their statement.
+    private final Map<DynaQueryCancellationToken, Session> sessionsByToken = new ConcurrentHashMap<>();
+    public DynaQueryExecutor(EntityManager entityManager, ViewEntityRegistry viewEntityRegistry, DynaQueryPlanCache dynaQueryPlanCache, DynaQueryCountCache dynaQueryCountCache) {
+        this(entityManager, viewEntityRegistry, dynaQueryPlanCache, dynaQueryCountCache, null, DynaQueryLimits.NONE, DynaQueryMetrics.DISABLED, DynaQuerySlowQueryLog.DISABLED, 0);
+    }
+
+    public DynaQueryExecutor(EntityManager entityManager, ViewEntityRegistry viewEntityRegistry, DynaQueryPlanCache dynaQueryPlanCache, DynaQueryCountCache dynaQueryCountCache, DynaQueryParallelCounter dynaQueryParallelCounter, DynaQueryLimits dynaQueryLimits, DynaQueryMetrics dynaQueryMetrics, DynaQuerySlowQueryLog dynaQuerySlowQueryLog, int arrayThreshold) {
+        this.arrayThreshold = arrayThreshold;
+        this.dynaQueryParallelCounter = dynaQueryParallelCounter;
+        this.dynaQueryLimits = dynaQueryLimits;
+        this.dynaQueryMetrics = dynaQueryMetrics;
+        this.dynaQuerySlowQueryLog = dynaQuerySlowQueryLog;
         this.entityManager = entityManager;
         this.viewEntityRegistry = viewEntityRegistry;
+        this.dynaQueryPlanCache = dynaQueryPlanCache;
+        this.dynaQueryCountCache = dynaQueryCountCache;
+        this.dynaQueryExplainer = new DynaQueryExplainer(entityManager);
+    }
+
+    // The query is normalized, so its view is always registered.
+    private ViewEntityDescriptor descriptorOf(DynaQuery dynaQuery) {
+        return this.viewEntityRegistry.getDescriptor(dynaQuery.getTargetView());
+    }
+
+    private DynaQueryFingerprint fingerprintOf(DynaQuery dynaQuery) {
+        return DynaQueryFingerprint.of(dynaQuery, this.arrayThresholdOf());
+    }
+
+    // PostgreSQL and H2 compare with any of an array. The database is asked for its name, as for grouping sets.
+    private int arrayThresholdOf() {
+        if (this.arrayThreshold <= 0) {
+            return 0;
+        }
+
+        if (this.arraysSupported == null) {
+            Session session = this.entityManager.unwrap(Session.class);
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+            String databaseProductName = session.doReturningWork(x -> x.getMetaData().getDatabaseProductName());
+            this.arraysSupported = sessionFactory.getSqlFunctionRegistry().findSQLFunction(DynaQueryAnyFunction.ANY) != null &&
+                    ("PostgreSQL".equals(databaseProductName) || "H2".equals(databaseProductName));
+        }
+
+        return this.arraysSupported ? this.arrayThreshold : 0;
+    }
+
+    // Full text search of PostgreSQL, elsewhere TEXT_SEARCH finds the text as a substring, ignoring case, and RELEVANCE doesn't order.
+    private boolean isTextSearchSupported() {
+        if (this.textSearchSupported == null) {
+            Session session = this.entityManager.unwrap(Session.class);
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+            this.textSearchSupported = sessionFactory.getSqlFunctionRegistry().findSQLFunction(DynaQueryTextSearchFunction.TEXT_SEARCH) != null &&
+                    "PostgreSQL".equals(session.doReturningWork(x -> x.getMetaData().getDatabaseProductName()));
+        }
+
+        return this.textSearchSupported;
+    }
+
+    // PostgreSQL and H2 compare row values with an index, others are given the comparison key by key.
+    private boolean isRowValueSupported() {
+        if (this.rowValuesSupported == null) {
+            Session session = this.entityManager.unwrap(Session.class);
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+            String databaseProductName = session.doReturningWork(x -> x.getMetaData().getDatabaseProductName());
+            this.rowValuesSupported = sessionFactory.getSqlFunctionRegistry().findSQLFunction(DynaQueryRowValueFunction.GREATER) != null &&
+                    ("PostgreSQL".equals(databaseProductName) || "H2".equals(databaseProductName));
+        }
+
+        return this.rowValuesSupported;
+    }
+
+    // Where ORDER BY puts nulls, as configured for Hibernate, or else where the database does: PostgreSQL sorts them high, H2 low.
+    private Set<SortingOperator> nullsFirst() {
+        if (this.nullsFirst == null) {
+            Session session = this.entityManager.unwrap(Session.class);
+            NullPrecedence nullPrecedence = ((SessionFactoryImplementor) session.getSessionFactory()).getSessionFactoryOptions().getDefaultNullPrecedence();
+            if (nullPrecedence == NullPrecedence.FIRST) {
+                this.nullsFirst = EnumSet.of(SortingOperator.ASC, SortingOperator.DESC);
+            } else if (nullPrecedence == NullPrecedence.LAST) {
+                this.nullsFirst = EnumSet.noneOf(SortingOperator.class);
+            } else {
+                boolean high = session.doReturningWork(x -> x.getMetaData().nullsAreSortedHigh());
+                this.nullsFirst = EnumSet.of(high ? SortingOperator.DESC : SortingOperator.ASC);
+            }
+        }
+
+        return this.nullsFirst;
+    }
+
+    // Look up the compiled plan of the query's shape, compile it on a miss.
+    private <R> DynaQueryPlan<R> planOf(Class<R> resultClazz, DynaQuery dynaQuery, DynaQueryFingerprint fingerprint) {
+        return this.dynaQueryPlanCache.get(resultClazz, fingerprint, key -> this.dynaQueryMetrics.stage("convert", dynaQuery.getTargetView(), () -> {
+            Class<? extends ViewEntity> entityClazz = this.descriptorOf(dynaQuery).getEntityClazz();
+            CriteriaQueryConverter<? extends ViewEntity> criteriaQueryConverter = CriteriaQueryConverter.of(this.entityManager.getCriteriaBuilder(), entityClazz, this.arrayThresholdOf(), this.isTextSearchSupported(),
+                    fingerprint.isSeek() && this.isRowValueSupported(), fingerprint.isSeek() ? this.nullsFirst() : Collections.emptySet());
+
+            CriteriaQuery<R> contentQuery = fingerprint.isSeek() ?
+                    criteriaQueryConverter.toSeekQuery(dynaQuery, resultClazz) :
+                    criteriaQueryConverter.toContentQuery(dynaQuery, resultClazz);
+            // Count query takes the same parameters, except for the seek values it doesn't need.
+            // Grouping sets are counted set by set, there is no count query of them all.
+            List<Class<?>> parameterTypes = new ArrayList<>(criteriaQueryConverter.getParameterTypes());
+            CriteriaQuery<Long> countQuery = this.hasGroupingSets(dynaQuery) ? null : criteriaQueryConverter.toCountQuery(dynaQuery);
+
+            return new DynaQueryPlan<>(contentQuery, countQuery, parameterTypes);
+        }));
+    }
+
+    // Nothing loaded here is ever written back, so entities are read-only and Hibernate keeps no snapshot to dirty check.
+    private <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery, String viewEntityName) {
+        return this.withTimeout(this.entityManager.createQuery(criteriaQuery).setHint(QueryHints.HINT_READONLY, true), viewEntityName);
+    }
+
+    // The database cancels a statement running longer than the timeout of its view, Hibernate rounds it to whole seconds.
+    private <T> TypedQuery<T> withTimeout(TypedQuery<T> query, String viewEntityName) {
+        Duration timeout = this.dynaQueryLimits.getTimeout(viewEntityName);
+        return timeout.isZero() ? query : query.setHint(QueryHints.SPEC_HINT_TIMEOUT, (int) timeout.toMillis());
+    }
+
+    // Explain the query before running it when its view has a maximum cost. Databases that can't explain run it unchecked.
+    private void checkCost(String viewEntityName, TypedQuery<?> query) {
+        double maximumCost = this.dynaQueryLimits.getMaximumCost(viewEntityName);
+        if (maximumCost <= 0) {
+            return;
+        }
+
+        OptionalDouble cost = this.dynaQueryExplainer.estimateCost(query);
+        if (cost.isPresent() && cost.getAsDouble() > maximumCost) {
+            throw new QueryCostExceededException(viewEntityName, cost.getAsDouble(), maximumCost);
+        }
+    }
+
+    // Run the statement of a query, measured and recorded if slow.
+    private <T> T execute(DynaQuery dynaQuery, TypedQuery<?> query, Supplier<T> execution) {
+        return this.dynaQueryMetrics.stage("execute", dynaQuery.getTargetView(), () -> this.dynaQuerySlowQueryLog.execute(dynaQuery, query, execution));
+    }
+
+    // A statement cancelled for its timeout, or by cancel(), fails as a timeout, others as a grammar exception when they are one.
+    private RuntimeException failureOf(String viewEntityName, PersistenceException e) {
+        if (e instanceof QueryTimeoutException) {
+            return new QueryTimeoutExceededException(viewEntityName, this.dynaQueryLimits.getTimeout(viewEntityName).toMillis());
+        }
+        if (e.getCause() instanceof SQLGrammarException) {
+            SQLGrammarException ex = (SQLGrammarException)e.getCause();
+            return new DynaQueryGrammarException(ex.getSQLState());
+        }
+
+        return e;
+    }
+
+    // Register the session under the token of the calling thread for the duration of the query, a nested call keeps the registration.
+    // The session itself, not the shared entity manager, which another thread would resolve to a session of its own.
+    private <T> T cancellable(Supplier<T> query) {
+        DynaQueryCancellationToken token = DynaQueryCancellationToken.current();
+        if (token == null) {
+            return query.get();
+        }
+
+        Session previous = this.sessionsByToken.put(token, (Session) this.entityManager.getDelegate());
+        try {
+            return query.get();
+        } finally {
+            if (previous != null) {
+                this.sessionsByToken.put(token, previous);
+            } else {
+                this.sessionsByToken.remove(token);
+            }
+        }
+    }
+
+    // Cancel the statement running for the token, e.g. when the client of its request went away. No effect if it runs none,
+    // even when the thread that ran its queries is running queries of another token by now.
+    public void cancel(DynaQueryCancellationToken token) {
+        Session session = this.sessionsByToken.get(token);
+        if (session == null) {
+            return;
+        }
+
+        try {
+            // The only method of a session safe to call from another thread.
+            session.cancelQuery();
+        } catch (RuntimeException e) {
+            logger.debug("Failed to cancel query", e);
+        }
     }
 
     private <R> R doQueryOne(Class<R> returnClazz, DynaQuery dynaQuery) {
-        Class<? extends ViewEntity> entityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQuery.getTargetView());
-        CriteriaQuery<R> contentQuery = CriteriaQueryConverter.of(this.entityManager.getCriteriaBuilder(), entityClazz).toContentQuery(dynaQuery, returnClazz);
-        TypedQuery<R> query = entityManager.createQuery(contentQuery);
-        return query.getSingleResult();
+        DynaQueryFingerprint fingerprint = this.fingerprintOf(dynaQuery);
+        DynaQueryPlan<R> plan = this.planOf(returnClazz, dynaQuery, fingerprint);
+        TypedQuery<R> query = plan.bind(this.createQuery(plan.getContentQuery(), dynaQuery.getTargetView()), fingerprint.getParameters());
+        this.checkCost(dynaQuery.getTargetView(), query);
+        try {
+            return this.execute(dynaQuery, query, query::getSingleResult);
+        } catch (PersistenceException e) {
+            throw this.failureOf(dynaQuery.getTargetView(), e);
+        }
     }
 
     protected Optional<?> queryOneToEntity(DynaQuery dynaQuery) {
-        Class<?> entityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQuery.getTargetView());
-        return Optional.of(this.doQueryOne(entityClazz, dynaQuery));
+        ViewEntityDescriptor descriptor = this.descriptorOf(dynaQuery);
+        Object entity = this.doQueryOne(descriptor.getEntityClazz(), dynaQuery);
+        this.fetchCollections(descriptor.getEntityClazz(), this.collectionsOf(descriptor, dynaQuery), Collections.singletonList(entity));
+        return Optional.of(entity);
     }
 
     protected <T extends ViewEntity> Optional<Object[]> queryOneToRaw(DynaQuery dynaQuery) {
@@ -51,112 +287,466 @@ class DynaQueryExecutor {
     }
 
     protected <T extends ViewEntity> Optional<Map<String, Object>> queryOneToMap(DynaQuery dynaQuery) {
-        return Optional.of(this.toMap(dynaQuery, this.doQueryOne(Object[].class, dynaQuery)));
+        Object row = this.doQueryOne(Object.class, dynaQuery);
+        return Optional.of(this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> this.rowMapperOf(dynaQuery).apply(row)));
     }
 
     public Optional<Map<String, Object>> queryOne(DynaQuery dynaQuery) {
-        return dynaQuery.getGroupBy() != null ?
-                this.queryOneToMap(dynaQuery) :
-                this.queryOneToEntity(dynaQuery).map(entity -> this.toMap(dynaQuery, entity));
+        return this.dynaQueryMetrics.operation("queryOne", dynaQuery.getTargetView(), () -> this.cancellable(() -> {
+            if (DynaQueryOptimizer.isEmpty(dynaQuery)) {
+                return Optional.<Map<String, Object>>empty();
+            }
+            if (this.isGroupingSetsEmulated(dynaQuery)) {
+                return this.queryOneByGroupingSets(dynaQuery);
+            }
+            if (dynaQuery.getGroupBy() != null || this.isProjected(dynaQuery)) {
+                return this.queryOneToMap(dynaQuery);
+            }
+            Optional<?> entity = this.queryOneToEntity(dynaQuery);
+            return this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> entity.map(this.rowMapperOf(dynaQuery)));
+        }), x -> x.isPresent() ? 1 : 0);
     }
 
-    private <R> Page<R> doQueryAll(Class<R> resultClazz, DynaQuery dynaQuery, Pageable pageable) {
-        Class<? extends ViewEntity> entityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQuery.getTargetView());
-        CriteriaQueryConverter<? extends ViewEntity> criteriaQueryConverter = CriteriaQueryConverter.of(this.entityManager.getCriteriaBuilder(), entityClazz);
+    private <R> Slice<R> doQueryAll(Class<R> resultClazz, DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        DynaQueryFingerprint fingerprint = this.fingerprintOf(dynaQuery);
+        DynaQueryPlan<R> plan = this.planOf(resultClazz, dynaQuery, fingerprint);
 
-        CriteriaQuery<R> contentQuery = criteriaQueryConverter.toContentQuery(dynaQuery, resultClazz);
-        TypedQuery<R> contentTypeQuery = entityManager.createQuery(contentQuery).setFirstResult((int)pageable.getOffset()).setMaxResults(pageable.getPageSize());
+        boolean skipCount = countStrategy == CountStrategy.SKIP && pageable.isPaged();
+        TypedQuery<R> contentTypeQuery = plan.bind(this.createQuery(plan.getContentQuery(), dynaQuery.getTargetView()), fingerprint.getParameters());
+        this.checkCost(dynaQuery.getTargetView(), contentTypeQuery);
+        if (pageable.isPaged()) {
+            // Without a count, one more row than asked tells whether there is a next page.
+            contentTypeQuery.setFirstResult((int)pageable.getOffset()).setMaxResults(skipCount ? pageable.getPageSize() + 1 : pageable.getPageSize());
+        }
 
-        CriteriaQuery<Long> countQuery = criteriaQueryConverter.toCountQuery(dynaQuery);
-        TypedQuery<Long> countTypeQuery = entityManager.createQuery(countQuery);
+        // An exact count of a page may start on a second connection before the content query.
+        DynaQueryParallelCounter.PendingCount pendingCount = this.dynaQueryParallelCounter != null && countStrategy == CountStrategy.EXACT && pageable.isPaged() ?
+                this.dynaQueryParallelCounter.start(() -> this.exactCountOf(plan, dynaQuery, fingerprint)) :
+                null;
 
-        Page<R> page;
+        Slice<R> page;
         try {
-            List<R> contents = contentTypeQuery.getResultList();
-            page = contents.isEmpty() ? Page.empty() : PageableExecutionUtils.getPage(contents, pageable, countTypeQuery::getSingleResult);
-        } catch (PersistenceException e) {
-            if (e.getCause() instanceof SQLGrammarException) {
-                SQLGrammarException ex = (SQLGrammarException)e.getCause();
-                throw new DynaQueryGrammarException(ex.getSQLState());
+            List<R> contents = this.execute(dynaQuery, contentTypeQuery, contentTypeQuery::getResultList);
+            if (skipCount) {
+                boolean hasNext = contents.size() > pageable.getPageSize();
+                return new SliceImpl<>(hasNext ? contents.subList(0, pageable.getPageSize()) : contents, pageable, hasNext);
             }
 
-            throw e;
+            // An estimated or cached count may be behind, but never less than the rows already seen.
+            // So may a parallel count, it sees the view as of its own transaction.
+            page = contents.isEmpty() ? Page.empty() : PageableExecutionUtils.getPage(contents, pageable,
+                    () -> Math.max(pendingCount != null ?
+                            pendingCount.join(() -> this.exactCountOf(plan, dynaQuery, fingerprint)) :
+                            this.countOf(plan, dynaQuery, fingerprint, countStrategy, contentTypeQuery), pageable.getOffset() + contents.size()));
+        } catch (PersistenceException e) {
+            throw this.failureOf(dynaQuery.getTargetView(), e);
+        } finally {
+            // The count is not needed when the content alone tells the total, or when the content query failed.
+            if (pendingCount != null) {
+                pendingCount.cancel();
+            }
         }
 
         return page;
     }
 
+    private <R> long countOf(DynaQueryPlan<R> plan, DynaQuery dynaQuery, DynaQueryFingerprint fingerprint, CountStrategy countStrategy, TypedQuery<R> contentTypeQuery) {
+        switch (countStrategy) {
+            case ESTIMATED:
+                OptionalLong estimate = this.dynaQueryExplainer.estimateRows(contentTypeQuery);
+                // Count exactly where the database gives no estimate.
+                return estimate.isPresent() ? estimate.getAsLong() : this.exactCountOf(plan, dynaQuery, fingerprint);
+            case CACHED:
+                return this.dynaQueryCountCache.get(dynaQuery, () -> this.exactCountOf(plan, dynaQuery, fingerprint));
+            default:
+                return this.exactCountOf(plan, dynaQuery, fingerprint);
+        }
+    }
+
+    private <R> long exactCountOf(DynaQueryPlan<R> plan, DynaQuery dynaQuery, DynaQueryFingerprint fingerprint) {
+        if (plan.getCountQuery() == null) {
+            long count = 0;
+            for (DynaQuery groupingSetQuery : this.groupingSetsOf(dynaQuery)) {
+                DynaQueryFingerprint groupingSetFingerprint = this.fingerprintOf(groupingSetQuery);
+                count += this.exactCountOf(this.planOf(Object.class, groupingSetQuery, groupingSetFingerprint), groupingSetQuery, groupingSetFingerprint);
+            }
+            return count;
+        }
+
+        TypedQuery<Long> query = plan.bind(this.withTimeout(this.entityManager.createQuery(plan.getCountQuery()), dynaQuery.getTargetView()), fingerprint.getParameters());
+        return this.dynaQueryMetrics.stage("execute", dynaQuery.getTargetView(), "count",
+                () -> this.dynaQuerySlowQueryLog.execute(dynaQuery, query, query::getSingleResult));
+    }
+
     // Return a list of entities as of entityClazz in parameter
-    protected Page<?> queryAllToEntity(DynaQuery dynaQuery, Pageable pageable) {
-        Class<? extends ViewEntity> entityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQuery.getTargetView());
-        return this.doQueryAll(entityClazz, dynaQuery, pageable);
+    protected Slice<?> queryAllToEntity(DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        ViewEntityDescriptor descriptor = this.descriptorOf(dynaQuery);
+        Slice<? extends ViewEntity> page = this.doQueryAll(descriptor.getEntityClazz(), dynaQuery, pageable, countStrategy);
+        this.fetchCollections(descriptor.getEntityClazz(), this.collectionsOf(descriptor, dynaQuery), page.getContent());
+        return page;
     }
 
     // Return a list of raw object[] which requires the client to map each to its the field(column) it belongs to.
-    protected Page<Object[]> queryAllToRaw(DynaQuery dynaQuery, Pageable pageable) {
-        return this.doQueryAll(Object[].class, dynaQuery, pageable);
+    protected Slice<Object[]> queryAllToRaw(DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        return this.doQueryAll(Object[].class, dynaQuery, pageable, countStrategy);
     }
 
     // Return a list of map which helps to identify field/column each value belongs to.
-    protected Page<Map<String, Object>> queryAllToMap(DynaQuery dynaQuery, Pageable pageable) {
-        return this.doQueryAll(Object[].class, dynaQuery, pageable).map(content -> this.toMap(dynaQuery, content));
+    protected Slice<Map<String, Object>> queryAllToMap(DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        Slice<Object> page = this.doQueryAll(Object.class, dynaQuery, pageable, countStrategy);
+        return this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> page.map(this.rowMapperOf(dynaQuery)::apply));
     }
 
-    // queryAll is the entrance of all query with more than one returns.
     public Page<Map<String, Object>> queryAll(DynaQuery dynaQuery, Pageable pageable) {
-        return dynaQuery.getGroupBy() != null ?
+        // Every strategy but SKIP comes with a total, so the slice is a page.
+        return (Page<Map<String, Object>>) this.queryAll(dynaQuery, pageable, CountStrategy.EXACT);
+    }
+
+    // queryAll is the entrance of all query with more than one returns.
+    public Slice<Map<String, Object>> queryAll(DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        return this.dynaQueryMetrics.operation("queryAll", dynaQuery.getTargetView(), () -> this.cancellable(() -> {
+            // A filter that never holds needs no statement, nor a count.
+            if (DynaQueryOptimizer.isEmpty(dynaQuery)) {
+                return new PageImpl<Map<String, Object>>(Collections.emptyList(), pageable, 0);
+            }
+            if (this.isGroupingSetsEmulated(dynaQuery)) {
+                return this.queryAllByGroupingSets(dynaQuery, pageable);
+            }
             // For query with group by, queryAllToMap is the only supported Method.
             // JPA association is not yet supported in this case.
-            this.queryAllToMap(dynaQuery, pageable) :
+            // Projected columns are selected as they are, no entity is hydrated or managed by the persistence context.
+            if (dynaQuery.getGroupBy() != null || this.isProjected(dynaQuery)) {
+                return this.queryAllToMap(dynaQuery, pageable, countStrategy);
+            }
             // queryAllToEntity is the default method for queryAll when groupby is not presented.
             // For Entity with JPA association, queryAllToEntity is the only supported Method.
-            this.queryAllToEntity(dynaQuery, pageable).map(entity -> this.toMap(dynaQuery, entity));
+            Slice<?> page = this.queryAllToEntity(dynaQuery, pageable, countStrategy);
+            return this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> page.map(this.rowMapperOf(dynaQuery)::apply));
+        }), Slice::getNumberOfElements);
     }
 
-    private <R> Map<String, Object> toMap(DynaQuery dynaQuery, R content) {
-        List<String> fieldNames = new ArrayList<>();
-        //if there is group by, then use group by fields. Projection over group by fields will make result seems wrong.
-        if (dynaQuery.getGroupBy() != null) {
-            fieldNames = dynaQuery.getGroupBy().getFields();
-            fieldNames.add(dynaQuery.getGroupBy().getAggregator().getAlias());
-        } else if (dynaQuery.getProjectBys() != null && !dynaQuery.getProjectBys().isEmpty()) {
-            fieldNames = dynaQuery.getProjectBys().stream().map(ProjectBy::getField).collect(Collectors.toList());
-        } else {
-            List<Class<? extends Annotation>> tableAnnotations = Arrays.asList(Column.class, OneToMany.class, ManyToOne.class, OneToOne.class, ManyToMany.class);
+    // Same rows as queryAll, encoded column by column straight from the rows read, no map is made per row.
+    public DynaQueryColumnarPage queryAllToColumns(DynaQuery dynaQuery, Pageable pageable, CountStrategy countStrategy) {
+        return this.dynaQueryMetrics.operation("queryAll", dynaQuery.getTargetView(), () -> this.cancellable(() -> {
+            if (DynaQueryOptimizer.isEmpty(dynaQuery)) {
+                return this.columnsOf(dynaQuery).encode(new PageImpl<>(Collections.emptyList(), pageable, 0));
+            }
+            if (this.isGroupingSetsEmulated(dynaQuery)) {
+                Page<Map<String, Object>> page = this.queryAllByGroupingSets(dynaQuery, pageable);
+                return this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> this.widenedColumnsOf(dynaQuery).encode(page));
+            }
+
+            Slice<?> page = dynaQuery.getGroupBy() != null || this.isProjected(dynaQuery) ?
+                    this.doQueryAll(Object.class, dynaQuery, pageable, countStrategy) :
+                    this.queryAllToEntity(dynaQuery, pageable, countStrategy);
+            return this.dynaQueryMetrics.stage("map", dynaQuery.getTargetView(), () -> this.columnsOf(dynaQuery).encode(page));
+        }), DynaQueryColumnarPage::getRowCount);
+    }
 
-            Class<?> entityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQuery.getTargetView());
-            for (Field field : entityClazz.getDeclaredFields()) {
-                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()) &&
-                        tableAnnotations.stream().anyMatch(field::isAnnotationPresent)) {
-                    fieldNames.add(field.getName());
+    // streamAll hands rows to the consumer as soon as they are fetched, fetchSize rows per round trip.
+    // Rows already handed over are detached, so memory stays flat however large the result is.
+    public void streamAll(DynaQuery dynaQuery, int fetchSize, Consumer<Map<String, Object>> consumer) {
+        Class<?> resultClazz = dynaQuery.getGroupBy() != null || this.isProjected(dynaQuery) ?
+                Object.class :
+                this.descriptorOf(dynaQuery).getEntityClazz();
+        this.dynaQueryMetrics.operation("stream", dynaQuery.getTargetView(), () -> this.cancellable(() -> {
+            if (DynaQueryOptimizer.isEmpty(dynaQuery)) {
+                return 0;
+            }
+            if (this.isGroupingSetsEmulated(dynaQuery)) {
+                int count = 0;
+                for (DynaQuery groupingSetQuery : this.groupingSetsOf(dynaQuery)) {
+                    Function<Map<String, Object>, Map<String, Object>> widener = this.widenerOf(dynaQuery);
+                    count += this.doStreamAll(resultClazz, groupingSetQuery, fetchSize, x -> consumer.accept(widener.apply(x)));
                 }
+                return count;
             }
+            return this.doStreamAll(resultClazz, dynaQuery, fetchSize, consumer);
+        }), x -> x);
+    }
+
+    // Number of rows handed over
+    private <R> int doStreamAll(Class<R> resultClazz, DynaQuery dynaQuery, int fetchSize, Consumer<Map<String, Object>> consumer) {
+        DynaQueryFingerprint fingerprint = this.fingerprintOf(dynaQuery);
+        DynaQueryPlan<R> plan = this.planOf(resultClazz, dynaQuery, fingerprint);
+
+        TypedQuery<R> query = plan.bind(this.createQuery(plan.getContentQuery(), dynaQuery.getTargetView()), fingerprint.getParameters())
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize);
+        this.checkCost(dynaQuery.getTargetView(), query);
+
+        Function<Object, Map<String, Object>> rowMapper = this.rowMapperOf(dynaQuery);
+        List<String> collections = ViewEntity.class.isAssignableFrom(resultClazz) ? this.collectionsOf(this.descriptorOf(dynaQuery), dynaQuery) : Collections.emptyList();
+        // Recorded if slow over the whole stream, rows are fetched while earlier ones are handed over.
+        try {
+            return this.dynaQuerySlowQueryLog.execute(dynaQuery, query, () -> {
+                try (Stream<R> rows = query.getResultStream()) {
+                    // Rows are handed over a batch at a time, so collections are fetched for the batch, not row by row.
+                    List<R> batch = new ArrayList<>(fetchSize);
+                    int count = 0;
+                    for (Iterator<R> iterator = rows.iterator(); iterator.hasNext(); count++) {
+                        batch.add(iterator.next());
+                        if (batch.size() == fetchSize) {
+                            this.handOver(resultClazz, collections, batch, rowMapper, consumer);
+                        }
+                    }
+                    this.handOver(resultClazz, collections, batch, rowMapper, consumer);
+                    return count;
+                }
+            });
+        } catch (PersistenceException e) {
+            throw this.failureOf(dynaQuery.getTargetView(), e);
         }
+    }
 
-        Map<String, Object> record = new HashMap<>();
-        for (int i = 0; i < fieldNames.size(); i++) {
-            if (content instanceof Object[]) {
-                record.put(fieldNames.get(i), ((Object[])content)[i]);
-            } else if (ViewEntity.class.isAssignableFrom(content.getClass())) {
-                record.put(fieldNames.get(i), getFieldValue(((ViewEntity)content).getClass(), fieldNames.get(i), content));
-            } else {
-                throw new RuntimeException("Not support type: " + content.getClass());
-            }
+    private <R> void handOver(Class<R> resultClazz, List<String> collections, List<R> batch, Function<Object, Map<String, Object>> rowMapper, Consumer<Map<String, Object>> consumer) {
+        this.fetchCollections(resultClazz, collections, batch);
+        batch.forEach(x -> consumer.accept(rowMapper.apply(x)));
+        batch.clear();
+        this.entityManager.clear();
+    }
+
+    private boolean hasGroupingSets(DynaQuery dynaQuery) {
+        return dynaQuery.getGroupBy() != null && dynaQuery.getGroupBy().getGroupingSets() != null;
+    }
+
+    // PostgreSQL groups by all grouping sets in a single statement, other databases have each set queried on its own.
+    // The database is asked for its name, the configured dialect may be PostgreSQL's for a database only compatible with it.
+    private boolean isGroupingSetsEmulated(DynaQuery dynaQuery) {
+        if (!this.hasGroupingSets(dynaQuery)) {
+            return false;
         }
 
-        return record;
+        if (this.groupingSetsSupported == null) {
+            Session session = this.entityManager.unwrap(Session.class);
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+            this.groupingSetsSupported = sessionFactory.getSqlFunctionRegistry().findSQLFunction(DynaQueryGroupingSetsFunction.GROUPING_SETS) != null &&
+                    "PostgreSQL".equals(session.doReturningWork(x -> x.getMetaData().getDatabaseProductName()));
+        }
+
+        return !this.groupingSetsSupported;
+    }
+
+    // A plain group by of each grouping set, ordered by the orders on fields of the set.
+    private List<DynaQuery> groupingSetsOf(DynaQuery dynaQuery) {
+        GroupBy groupBy = dynaQuery.getGroupBy();
+        return groupBy.getGroupingSets().stream().map(x -> {
+            List<OrderBy> orderBys = dynaQuery.getOrderBys() == null ? null :
+                    dynaQuery.getOrderBys().stream().filter(orderBy -> x.contains(orderBy.getField())).collect(Collectors.toList());
+            DynaQuery groupingSetQuery = new DynaQuery(null, dynaQuery.getFilter(), GroupBy.of(x, groupBy.getAggregators(), groupBy.getHaving(), null), orderBys);
+            groupingSetQuery.setTargetView(dynaQuery.getTargetView());
+            return groupingSetQuery;
+        }).collect(Collectors.toList());
+    }
+
+    // Lay a row of a grouping set out as a row of all group fields, those out of the set are null as PostgreSQL has them.
+    private Function<Map<String, Object>, Map<String, Object>> widenerOf(DynaQuery dynaQuery) {
+        return this.widenedColumnsOf(dynaQuery)::toMap;
+    }
+
+    private DynaQueryColumns widenedColumnsOf(DynaQuery dynaQuery) {
+        List<String> fieldNames = new ArrayList<>(dynaQuery.getGroupBy().getFields());
+        dynaQuery.getGroupBy().getAggregators().forEach(x -> fieldNames.add(x.getAlias()));
+        return DynaQueryColumns.ofMaps(fieldNames.toArray(new String[0]));
+    }
+
+    // Rows of each grouping set in turn. They are aggregates, few enough to cut the page out of all of them.
+    private Page<Map<String, Object>> queryAllByGroupingSets(DynaQuery dynaQuery, Pageable pageable) {
+        Function<Map<String, Object>, Map<String, Object>> widener = this.widenerOf(dynaQuery);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (DynaQuery groupingSetQuery : this.groupingSetsOf(dynaQuery)) {
+            this.queryAllToMap(groupingSetQuery, Pageable.unpaged(), CountStrategy.EXACT).forEach(x -> rows.add(widener.apply(x)));
+        }
+
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(rows);
+        }
+
+        int from = (int) Math.min(pageable.getOffset(), rows.size());
+        return new PageImpl<>(rows.subList(from, Math.min(rows.size(), from + pageable.getPageSize())), pageable, rows.size());
+    }
+
+    // Same as a single statement would be, exactly one row or a failure.
+    private Optional<Map<String, Object>> queryOneByGroupingSets(DynaQuery dynaQuery) {
+        List<Map<String, Object>> rows = this.queryAllByGroupingSets(dynaQuery, Pageable.unpaged()).getContent();
+        if (rows.isEmpty()) {
+            throw new NoResultException("No row found for query");
+        }
+        if (rows.size() > 1) {
+            throw new NonUniqueResultException(String.format("Query returned %d rows, one expected", rows.size()));
+        }
+
+        return Optional.of(rows.get(0));
     }
 
-    public static <T extends ViewEntity> Object getFieldValue(Class<T> entityClazz, String fieldName, Object instance) {
+    // queryAllByKeyset pages by seeking past the sort keys of the previous page's last row instead of skipping rows by offset.
+    // The view entity's id is appended to the orders as tiebreaker so the sort keys are unique.
+    public DynaQueryKeysetPage<Map<String, Object>> queryAllByKeyset(DynaQuery dynaQuery, int pageSize, String continuation) {
+        return this.dynaQueryMetrics.operation("keyset", dynaQuery.getTargetView(),
+                () -> this.cancellable(() -> this.doQueryAllByKeyset(dynaQuery, pageSize, continuation)), x -> x.getContent().size());
+    }
+
+    private DynaQueryKeysetPage<Map<String, Object>> doQueryAllByKeyset(DynaQuery dynaQuery, int pageSize, String continuation) {
+        if (dynaQuery.getGroupBy() != null) {
+            throw new UnsupportedKeysetPaginationException("query has group by");
+        }
+
+        ViewEntityDescriptor descriptor = this.descriptorOf(dynaQuery);
+        Class<? extends ViewEntity> entityClazz = descriptor.getEntityClazz();
+        List<OrderBy> keys = this.keysetOf(descriptor, dynaQuery.getOrderBys());
+        if (DynaQueryOptimizer.isEmpty(dynaQuery)) {
+            return new DynaQueryKeysetPage<>(Collections.emptyList(), pageSize, false, null);
+        }
+
+        DynaQuery keysetQuery = new DynaQuery(dynaQuery.getProjectBys(), dynaQuery.getFilter(), null, keys);
+        keysetQuery.setTargetView(dynaQuery.getTargetView());
+
+        List<Object> seekValues = continuation == null || continuation.isEmpty() ? null :
+                KeysetCursor.decode(continuation, keys, descriptor);
+        DynaQueryFingerprint fingerprint = DynaQueryFingerprint.of(keysetQuery, seekValues, this.arrayThresholdOf());
+        DynaQueryPlan<? extends ViewEntity> plan = this.planOf(entityClazz, keysetQuery, fingerprint);
+
+        List<? extends ViewEntity> contents;
         try {
-            Method method = entityClazz.getDeclaredMethod("get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1));
-            method.setAccessible(true);
-            Object result = method.invoke(instance);
+            // Fetch one more row than asked to know whether there is a next page without counting.
+            TypedQuery<? extends ViewEntity> query = plan.bind(this.createQuery(plan.getContentQuery(), dynaQuery.getTargetView()), fingerprint.getParameters())
+                    .setMaxResults(pageSize + 1);
+            this.checkCost(dynaQuery.getTargetView(), query);
+            contents = this.execute(dynaQuery, query, query::getResultList);
+        } catch (PersistenceException e) {
+            throw this.failureOf(dynaQuery.getTargetView(), e);
+        }
+
+        boolean hasNext = contents.size() > pageSize;
+        if (hasNext) {
+            contents = contents.subList(0, pageSize);
+        }
+
+        this.fetchCollections(entityClazz, this.collectionsOf(descriptor, dynaQuery), contents);
+
+        String nextContinuation = null;
+        if (hasNext) {
+            BeanWrapper lastRow = PropertyAccessorFactory.forBeanPropertyAccess(contents.get(contents.size() - 1));
+            nextContinuation = KeysetCursor.encode(keys, keys.stream().map(x -> lastRow.getPropertyValue(x.getField())).collect(Collectors.toList()));
+        }
+
+        return new DynaQueryKeysetPage<>(
+                contents.stream().map(this.rowMapperOf(dynaQuery)).collect(Collectors.toList()),
+                pageSize,
+                hasNext,
+                nextContinuation);
+    }
 
-            return result instanceof Collection ? new ArrayList<>((Collection<?>) result) : result;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private List<OrderBy> keysetOf(ViewEntityDescriptor descriptor, List<OrderBy> orderBys) {
+        List<OrderBy> keys = new ArrayList<>(orderBys == null ? Collections.emptyList() : orderBys);
+        keys.sort(Comparator.comparingInt(OrderBy::getSequence));
+
+        String idField = descriptor.getIdField();
+        if (idField == null) {
+            throw new UnsupportedKeysetPaginationException(descriptor.getName() + " has no @Id field as tiebreaker");
+        }
+        // The rank of a row is no value of it to continue after
+        if (keys.stream().anyMatch(x -> x.getOperator() == SortingOperator.RELEVANCE)) {
+            throw new UnsupportedKeysetPaginationException("query is ordered by relevance");
+        }
+
+        if (keys.stream().noneMatch(x -> x.getField().equals(idField))) {
+            int sequence = keys.isEmpty() ? 0 : keys.get(keys.size() - 1).getSequence() + 1;
+            keys.add(OrderBy.of(idField, SortingOperator.ASC, sequence));
+        }
+
+        return keys;
+    }
+
+    // Projections are pushed down to SQL unless one of them is an association, which only an entity can carry.
+    private boolean isProjected(DynaQuery dynaQuery) {
+        if (dynaQuery.getGroupBy() != null || dynaQuery.getProjectBys() == null || dynaQuery.getProjectBys().isEmpty()) {
+            return false;
         }
+
+        EntityType<?> entityType = this.entityTypeOf(this.descriptorOf(dynaQuery));
+        return dynaQuery.getProjectBys().stream()
+                .map(x -> entityType.getAttribute(x.getField()))
+                .noneMatch(x -> x.isAssociation() || x.isCollection());
+    }
+
+    // Registries built without a metamodel leave the entity type to the entity manager.
+    private EntityType<?> entityTypeOf(ViewEntityDescriptor descriptor) {
+        return descriptor.getEntityType() != null ? descriptor.getEntityType() : this.entityManager.getMetamodel().entity(descriptor.getEntityClazz());
+    }
+
+    // To-many collections of the view entity that end up in the rows, the content query doesn't join them.
+    private List<String> collectionsOf(ViewEntityDescriptor descriptor, DynaQuery dynaQuery) {
+        Set<String> columns = dynaQuery.getProjectBys() != null && !dynaQuery.getProjectBys().isEmpty() ?
+                dynaQuery.getProjectBys().stream().map(ProjectBy::getField).collect(Collectors.toSet()) :
+                descriptor.getColumns().stream().map(ViewEntityColumn::getName).collect(Collectors.toSet());
+
+        return this.entityTypeOf(descriptor).getPluralAttributes().stream()
+                .map(Attribute::getName)
+                .filter(columns::contains)
+                .collect(Collectors.toList());
+    }
+
+    // Load a collection of many entities with one query per batch, instead of one lazy load per entity.
+    // Entities are managed, so the fetch join initializes the very instances the rows are mapped from.
+    private <E> void fetchCollections(Class<E> entityClazz, List<String> collections, List<?> entities) {
+        if (collections.isEmpty() || entities.isEmpty()) {
+            return;
+        }
+
+        String viewEntityName = this.viewEntityRegistry.getDescriptor(entityClazz).getName();
+        CriteriaBuilder criteriaBuilder = this.entityManager.getCriteriaBuilder();
+        this.dynaQueryMetrics.stage("fetch", viewEntityName, () -> {
+            for (String collection : collections) {
+                CriteriaQuery<E> criteriaQuery = criteriaBuilder.createQuery(entityClazz);
+                Root<E> root = criteriaQuery.from(entityClazz);
+                root.fetch(collection, JoinType.LEFT);
+                ParameterExpression<Collection> owners = criteriaBuilder.parameter(Collection.class, "owners");
+                criteriaQuery.select(root).where(root.in(owners));
+
+                for (int from = 0; from < entities.size(); from += COLLECTION_FETCH_BATCH_SIZE) {
+                    this.createQuery(criteriaQuery, viewEntityName)
+                            .setParameter(owners, entities.subList(from, Math.min(entities.size(), from + COLLECTION_FETCH_BATCH_SIZE)))
+                            .getResultList();
+                }
+            }
+            return null;
+        });
+    }
+
+    // Resolve the layout of a row once per query, so that each row is mapped with no lookup at all.
+    Function<Object, Map<String, Object>> rowMapperOf(DynaQuery dynaQuery) {
+        return this.columnsOf(dynaQuery)::toMap;
+    }
+
+    private DynaQueryColumns columnsOf(DynaQuery dynaQuery) {
+        //if there is group by, then use group by fields. Projection over group by fields will make result seems wrong.
+        if (dynaQuery.getGroupBy() != null || this.isProjected(dynaQuery)) {
+            List<String> fieldNames;
+            if (dynaQuery.getGroupBy() != null) {
+                fieldNames = new ArrayList<>(dynaQuery.getGroupBy().getFields());
+                dynaQuery.getGroupBy().getAggregators().forEach(x -> fieldNames.add(x.getAlias()));
+            } else {
+                fieldNames = dynaQuery.getProjectBys().stream().map(ProjectBy::getField).collect(Collectors.toList());
+            }
+            // Columns selected after these only serve DISTINCT and ORDER BY, they are left out.
+            return DynaQueryColumns.ofSelections(fieldNames.toArray(new String[0]));
+        }
+
+        ViewEntityDescriptor descriptor = this.descriptorOf(dynaQuery);
+        ViewEntityColumn[] columns;
+        if (dynaQuery.getProjectBys() != null && !dynaQuery.getProjectBys().isEmpty()) {
+            columns = dynaQuery.getProjectBys().stream().map(x -> {
+                ViewEntityColumn column = descriptor.getField(x.getField());
+                if (column == null) {
+                    throw new FailedToFindFieldInViewEntityClassException(descriptor.getName(), x.getField());
+                }
+                return column;
+            }).toArray(ViewEntityColumn[]::new);
+        } else {
+            columns = descriptor.getColumns().toArray(new ViewEntityColumn[0]);
+        }
+
+        return DynaQueryColumns.ofEntity(columns);
     }
 
     /**
@@ -166,20 +756,61 @@ class DynaQueryExecutor {
      * @Author rocky.zhang on 2023/3/14
      */
     public static class CriteriaQueryConverter<E> {
+        private static final String PARAMETER_PREFIX = "p";
+        // Escape of the patterns of STARTS_WITH, ENDS_WITH and CONTAINS, LIKE takes the value as a pattern.
+        // Bound like any value, a literal would be bound by Hibernate itself, under a name a shared plan doesn't know.
+        private static final char LIKE_ESCAPE = '\\';
+
         private Root<?> root;
         private final Class<?> entityClazz;
         private final CriteriaBuilder criteriaBuilder;
+        // Java type of each parameter created for the query being converted, in creation order
+        private List<Class<?>> parameterTypes = new ArrayList<>();
+        // Joins of the query being converted, one per association path it refers to
+        private Map<String, From<?, ?>> joins = new HashMap<>();
+        private boolean toManyJoined;
+        // IN lists longer than this are compared with any of one array parameter, 0 to never do so
+        private final int arrayThreshold;
+        // Whether TEXT_SEARCH is a full text search, see DynaQueryTextSearchFunction, or a substring match
+        private final boolean textSearch;
+        // Search text parameter of the first TEXT_SEARCH of each field of the query being converted, ranked by RELEVANCE
+        private Map<String, ParameterExpression<String>> textSearchParameters = new HashMap<>();
+        // Whether a seek compares all keys at once, see DynaQueryRowValueFunction, or key by key
+        private final boolean rowValues;
+        // Sorting directions putting nulls first, for a seek to place rows of null keys as ORDER BY does
+        private final Set<SortingOperator> nullsFirst;
         public CriteriaQueryConverter(CriteriaBuilder criteriaBuilder, Class<E> entityClazz) {
+            this(criteriaBuilder, entityClazz, 0, false, false, EnumSet.of(SortingOperator.DESC));
+        }
+
+        public CriteriaQueryConverter(CriteriaBuilder criteriaBuilder, Class<E> entityClazz, int arrayThreshold, boolean textSearch,
+                                      boolean rowValues, Set<SortingOperator> nullsFirst) {
             this.criteriaBuilder = criteriaBuilder;
             this.entityClazz = entityClazz;
+            this.arrayThreshold = arrayThreshold;
+            this.textSearch = textSearch;
+            this.rowValues = rowValues;
+            this.nullsFirst = nullsFirst;
         }
 
         public static <E> CriteriaQueryConverter<E> of(CriteriaBuilder criteriaBuilder, Class<E> entityClazz) {
+            return of(criteriaBuilder, entityClazz, 0, false, false, EnumSet.of(SortingOperator.DESC));
+        }
+
+        public static <E> CriteriaQueryConverter<E> of(CriteriaBuilder criteriaBuilder, Class<E> entityClazz, int arrayThreshold, boolean textSearch,
+                                                       boolean rowValues, Set<SortingOperator> nullsFirst) {
             if (entityClazz == null) {
                 throw new IllegalArgumentException("entityClazz must not be null");
             }
 
-            return new CriteriaQueryConverter<>(criteriaBuilder, entityClazz);
+            return new CriteriaQueryConverter<>(criteriaBuilder, entityClazz, arrayThreshold, textSearch, rowValues, nullsFirst);
+        }
+
+        // Long lists make a statement per length and flood the plan caches, one array keeps a single statement.
+        static boolean isArrayBound(SimpleFilter simpleFilter, int arrayThreshold) {
+            FilterOperator filterOperator = simpleFilter.getFilterOperator();
+            return arrayThreshold > 0 && (filterOperator == FilterOperator.IN || filterOperator == FilterOperator.NOTIN) &&
+                    simpleFilter.getValues() != null && simpleFilter.getValues().size() > arrayThreshold;
         }
 
         public <R> CriteriaQuery<R> toContentQuery(DynaQuery dynaQuery, Class<R> resultClazz) {
@@ -188,6 +819,23 @@ class DynaQueryExecutor {
             this.filterBy(dynaQuery.getFilter(), criteriaQuery);
             this.groupBy(dynaQuery.getGroupBy(), criteriaQuery);
             this.orderBy(dynaQuery.getOrderBys(), criteriaQuery);
+            this.distinctBy(criteriaQuery);
+            // Project by is only valid when there is no group by, which selects its own columns. Even one of no field.
+            if (dynaQuery.getGroupBy() == null) {
+                this.projectBy(dynaQuery.getProjectBys(), criteriaQuery);
+            }
+
+            return criteriaQuery;
+        }
+
+        // Content query that only returns rows after the seek values, in the order of dynaQuery's orders.
+        public <R> CriteriaQuery<R> toSeekQuery(DynaQuery dynaQuery, Class<R> resultClazz) {
+            CriteriaQuery<R> criteriaQuery = this.initialQuery(resultClazz);
+
+            this.filterBy(dynaQuery.getFilter(), criteriaQuery);
+            this.seekBy(dynaQuery.getOrderBys(), criteriaQuery);
+            this.orderBy(dynaQuery.getOrderBys(), criteriaQuery);
+            this.distinctBy(criteriaQuery);
             this.projectBy(dynaQuery.getProjectBys(), criteriaQuery);
 
             return criteriaQuery;
@@ -196,28 +844,82 @@ class DynaQueryExecutor {
         public CriteriaQuery<Long> toCountQuery(DynaQuery dynaQuery) {
             CriteriaQuery<Long> criteriaQuery = this.initialQuery(Long.class);
 
+            if (dynaQuery.getGroupBy() != null && root.getModel().hasSingleIdAttribute()) {
+                this.countGroupsBy(dynaQuery.getFilter(), dynaQuery.getGroupBy(), criteriaQuery);
+                return criteriaQuery;
+            }
+
+            // A grouped view of a composite id has no least id, its count only holds for a single group.
             this.filterBy(dynaQuery.getFilter(), criteriaQuery);
             this.groupBy(dynaQuery.getGroupBy(), criteriaQuery);
+            this.distinctBy(criteriaQuery);
             this.countBy(dynaQuery.getProjectBys(), criteriaQuery);
 
             return criteriaQuery;
         }
 
+        public List<Class<?>> getParameterTypes() {
+            return Collections.unmodifiableList(this.parameterTypes);
+        }
+
+        public static String parameterName(int index) {
+            return PARAMETER_PREFIX + index;
+        }
+
+        // Values bound to the parameters created for a filter, see doExpressionFilter for the parameters each operator takes.
+        public static List<Object> toParameterValues(FilterOperator filterOperator, List<Object> values) {
+            switch (filterOperator) {
+                case ISNULL:
+                case NOTNULL:
+                    return Collections.emptyList();
+                case LIKE:
+                case NOTLIKE:
+                    return Collections.singletonList(addPercentSign(values.stream().findFirst().orElse("").toString()));
+                case STARTS_WITH:
+                case ENDS_WITH:
+                case CONTAINS:
+                case STARTS_WITH_IGNORE_CASE:
+                case ENDS_WITH_IGNORE_CASE:
+                case CONTAINS_IGNORE_CASE:
+                    return Arrays.asList(patternOf(filterOperator, values.stream().findFirst().orElse("").toString()), LIKE_ESCAPE);
+                case IN:
+                case NOTIN:
+                    return Collections.singletonList(new ArrayList<>(values));
+                case BETWEEN:
+                    return Arrays.asList(values.get(0), values.get(1));
+                default:
+                    return Collections.singletonList(values.stream().findFirst().orElse(null));
+            }
+        }
+
+        // Literals are never inlined, every value is bound to a named parameter so the query can be reused for other values.
+        private <T> ParameterExpression<T> parameter(Class<T> type, Class<?> valueType) {
+            ParameterExpression<T> parameter = this.criteriaBuilder.parameter(type, parameterName(this.parameterTypes.size()));
+            this.parameterTypes.add(ClassUtils.resolvePrimitiveIfNecessary(valueType));
+            return parameter;
+        }
+
+        private <T> ParameterExpression<T> parameter(Class<T> type) {
+            return this.parameter(type, type);
+        }
+
         private <R> CriteriaQuery<R> initialQuery(Class<R> resultClazz) {
             CriteriaQuery<R> criteriaQuery = this.criteriaBuilder.createQuery(resultClazz);
+            this.parameterTypes = new ArrayList<>();
+            this.joins = new HashMap<>();
+            this.textSearchParameters = new HashMap<>();
+            this.toManyJoined = false;
             this.root = criteriaQuery.from(this.entityClazz);
-            this.root.getModel().getAttributes().forEach(x -> {
-                if (x.isAssociation()) {
-                    //TODO: maybe we can support groupby query result to support association with SingularAttribute?
-                    if (Arrays.asList(Attribute.PersistentAttributeType.ONE_TO_MANY, Attribute.PersistentAttributeType.MANY_TO_MANY).contains(x.getPersistentAttributeType())) {
-                        root.join(x.getName(), JoinType.LEFT);
-                    } else if (Arrays.asList(Attribute.PersistentAttributeType.MANY_TO_ONE, Attribute.PersistentAttributeType.ONE_TO_ONE).contains(x.getPersistentAttributeType())) {
-                        root.join(x.getName(), JoinType.INNER);
-                    }
-                }
-            });
+            // Name the root explicitly, Hibernate would otherwise assign an alias on first rendering of a shared plan.
+            this.root.alias("root");
 
-            return criteriaQuery.distinct(true);
+            // Associations are joined on demand by getPath, only when the query refers to them.
+            return criteriaQuery;
+        }
+
+        // Rows are only multiplied by a to-many join, so DISTINCT is only needed then.
+        private <R> void distinctBy(CriteriaQuery<R> criteriaQuery) {
+            criteriaQuery.distinct(this.toManyJoined);
         }
 
         private void countBy(List<ProjectBy> projectBys, CriteriaQuery<Long> criteriaQuery) {
@@ -243,17 +945,69 @@ class DynaQueryExecutor {
             }
         }
 
+        // A grouped query returns a row per group, not per entity, and JPQL has no subquery in FROM to count those rows.
+        // So count the entities having the least id of their group instead, there is exactly one of each group.
+        private void countGroupsBy(Filter filter, GroupBy groupBy, CriteriaQuery<Long> criteriaQuery) {
+            Root<?> outer = this.root;
+            Map<String, From<?, ?>> outerJoins = this.joins;
+            SingularAttribute<?, ?> id = outer.getModel().getSingularAttributes().stream()
+                    .filter(SingularAttribute::isId)
+                    .findFirst()
+                    .orElseThrow(IllegalStateException::new);
+
+            Subquery groups = criteriaQuery.subquery(id.getJavaType());
+            // Filter and having refer to the root of the query being converted, which is the subquery's while it is built.
+            this.root = groups.from(this.entityClazz);
+            this.root.alias("grouped");
+            this.joins = new HashMap<>();
+            try {
+                groups.select(criteriaBuilder.least((Expression) this.root.get(id.getName())));
+                if (filter != null) {
+                    groups.where(this.doFilter(filter));
+                }
+                groups.groupBy(groupBy.getFields().stream().map(x -> this.getPath(root, x)).collect(Collectors.toList()));
+                if (groupBy.getHaving() != null) {
+                    groups.having(this.doFilter(groupBy.getHaving()));
+                }
+            } finally {
+                this.root = outer;
+                this.joins = outerJoins;
+            }
+
+            criteriaQuery.select(criteriaBuilder.count(outer)).where(outer.get(id.getName()).in(groups));
+        }
+
         private <R> void projectBy(List<ProjectBy> projectBys, CriteriaQuery<R> criteriaQuery) {
-            // Project by is only valid when there is no group by
-            if (criteriaQuery.getGroupList().isEmpty()) {
+            // Projections are selected as columns only when asked for plain rows, entities are selected otherwise.
+            if (projectBys != null && !projectBys.isEmpty() && !criteriaQuery.getResultType().equals(this.entityClazz)) {
+                this.doProjectBy(projectBys, criteriaQuery);
+            } else {
                 criteriaQuery.select((Selection<R>) root);
             }
         }
 
         private <R> void doProjectBy(List<ProjectBy> projectBys, CriteriaQuery<R> criteriaQuery) {
             List<Selection<?>> projections = new ArrayList<>();
+            Set<String> fields = new HashSet<>();
             for (ProjectBy project : projectBys) {
-                projections.add(root.get(project.getField()).alias(project.getField()));
+                projections.add(this.getPath(root, project.getField()));
+                fields.add(project.getField());
+            }
+
+            // SELECT DISTINCT of the projections alone would merge different rows having the same values,
+            // and the database only allows ordering by selected columns. So the id and order fields are selected as well.
+            if (criteriaQuery.isDistinct()) {
+                root.getModel().getSingularAttributes().stream()
+                        .filter(SingularAttribute::isId)
+                        .filter(x -> fields.add(x.getName()))
+                        .forEach(x -> projections.add(root.get(x.getName())));
+                for (Order order : criteriaQuery.getOrderList()) {
+                    Expression<?> expression = order.getExpression();
+                    Object model = expression instanceof Path ? ((Path<?>) expression).getModel() : null;
+                    if (!(model instanceof Attribute) || fields.add(((Attribute<?, ?>) model).getName())) {
+                        projections.add(expression);
+                    }
+                }
             }
 
             criteriaQuery.multiselect(projections);
@@ -266,6 +1020,79 @@ class DynaQueryExecutor {
             }
         }
 
+        // Row value comparison (k1, k2) > (v1, v2), where the database has it and all keys are sorted in one direction and never null.
+        // Otherwise expanded as k1 > v1 OR (k1 = v1 AND k2 > v2), which also works with mixed sorting directions,
+        // a nullable key being equal to a null value and before or after it as ORDER BY places nulls.
+        private <R> void seekBy(List<OrderBy> keys, CriteriaQuery<R> criteriaQuery) {
+            List<OrderBy> orderBys = new ArrayList<>(keys);
+            orderBys.sort(Comparator.comparingInt(OrderBy::getSequence));
+
+            List<Expression> paths = new ArrayList<>();
+            List<Expression> parameters = new ArrayList<>();
+            List<Boolean> nullables = new ArrayList<>();
+            for (OrderBy orderBy : orderBys) {
+                Path path = this.getPath(root, orderBy.getField());
+                paths.add(path);
+                parameters.add(this.parameter((Class<Comparable>) ClassUtils.resolvePrimitiveIfNecessary(path.getJavaType())));
+                nullables.add(this.isNullable(path));
+            }
+
+            SortingOperator direction = orderBys.get(0).getOperator();
+            Predicate seek;
+            if (this.rowValues && !nullables.contains(true) && orderBys.stream().allMatch(x -> x.getOperator() == direction)) {
+                List<Expression> arguments = new ArrayList<>(paths);
+                arguments.addAll(parameters);
+                seek = criteriaBuilder.isTrue(criteriaBuilder.function(direction == SortingOperator.ASC ? DynaQueryRowValueFunction.GREATER : DynaQueryRowValueFunction.LESS,
+                        Boolean.class, arguments.toArray(new Expression[0])));
+            } else {
+                List<Predicate> branches = new ArrayList<>();
+                for (int i = 0; i < orderBys.size(); i++) {
+                    List<Predicate> predicates = new ArrayList<>();
+                    for (int j = 0; j < i; j++) {
+                        predicates.add(this.seekEqual(paths.get(j), parameters.get(j), nullables.get(j)));
+                    }
+                    predicates.add(this.seekAfter(paths.get(i), parameters.get(i), nullables.get(i), orderBys.get(i).getOperator()));
+                    branches.add(criteriaBuilder.and(predicates.toArray(new Predicate[0])));
+                }
+                seek = criteriaBuilder.or(branches.toArray(new Predicate[0]));
+            }
+
+            criteriaQuery.where(criteriaQuery.getRestriction() == null ? seek : criteriaBuilder.and(criteriaQuery.getRestriction(), seek));
+        }
+
+        private Predicate seekEqual(Expression path, Expression parameter, boolean nullable) {
+            Predicate equal = criteriaBuilder.equal(path, parameter);
+            return nullable ? criteriaBuilder.or(equal, criteriaBuilder.and(criteriaBuilder.isNull(path), criteriaBuilder.isNull(parameter))) : equal;
+        }
+
+        // A null sorts before every value where nulls come first, after every value otherwise.
+        private Predicate seekAfter(Expression path, Expression parameter, boolean nullable, SortingOperator operator) {
+            Predicate after = operator == SortingOperator.ASC ? criteriaBuilder.greaterThan(path, parameter) : criteriaBuilder.lessThan(path, parameter);
+            if (!nullable) {
+                return after;
+            }
+
+            return this.nullsFirst.contains(operator) ?
+                    criteriaBuilder.or(after, criteriaBuilder.and(criteriaBuilder.isNotNull(path), criteriaBuilder.isNull(parameter))) :
+                    criteriaBuilder.or(after, criteriaBuilder.and(criteriaBuilder.isNull(path), criteriaBuilder.isNotNull(parameter)));
+        }
+
+        // Ids and primitives are never null, nor are fields mapped not optional, unless reached by an outer join.
+        private boolean isNullable(Path<?> path) {
+            Path<?> parent = path.getParentPath();
+            if (parent instanceof Join && ((Join<?, ?>) parent).getJoinType() != JoinType.INNER) {
+                return true;
+            }
+
+            Object model = path.getModel();
+            if (!(model instanceof SingularAttribute)) {
+                return true;
+            }
+
+            SingularAttribute<?, ?> attribute = (SingularAttribute<?, ?>) model;
+            return !attribute.isId() && attribute.isOptional() && !attribute.getJavaType().isPrimitive();
+        }
+
         private Predicate doFilter(Filter filter) {
             Predicate predicate;
             if (filter instanceof SimpleFilter) {
@@ -284,76 +1111,108 @@ class DynaQueryExecutor {
         private Predicate doAggregatorFilter(AggregatorFilter aggregatorFilter) {
             Predicate predicate = null;
             if (aggregatorFilter != null) {
-                Expression exp = this.getPath(root, aggregatorFilter.getAggregator().getField());
-
-                switch (aggregatorFilter.getAggregator().getOperator()) {
-                    case SUM:
-                        exp = criteriaBuilder.sum(exp);
-                        break;
-                    case AVG:
-                        exp = criteriaBuilder.avg(exp);
-                        break;
-                    case MIN:
-                        exp = criteriaBuilder.min(exp);
-                        break;
-                    case MAX:
-                        exp = criteriaBuilder.max(exp);
-                        break;
-                    case COUNT:
-                        exp = criteriaBuilder.count(exp);
-                        break;
-                }
-                predicate =  this.doExpressionFilter(exp, aggregatorFilter.getFilterOperator(), aggregatorFilter.getValues());
+                predicate =  this.doExpressionFilter(this.aggregate(aggregatorFilter.getAggregator()), aggregatorFilter.getFilterOperator());
             }
 
             return predicate;
         }
 
+        private Expression<?> aggregate(Aggregator aggregator) {
+            Expression exp = this.getPath(root, aggregator.getField());
+
+            switch (aggregator.getOperator()) {
+                case SUM:
+                    return criteriaBuilder.sum(exp);
+                case AVG:
+                    return criteriaBuilder.avg(exp);
+                case MIN:
+                    return criteriaBuilder.min(exp);
+                case MAX:
+                    return criteriaBuilder.max(exp);
+                case COUNT:
+                    return criteriaBuilder.count(exp);
+                case COUNT_DISTINCT:
+                    return criteriaBuilder.countDistinct(exp);
+                default:
+                    throw new UnsupportedAggregateOperatorException(String.format("Unsupported aggregation operator %s on field %s.", aggregator.getOperator(), aggregator.getField()));
+            }
+        }
+
         private Predicate doSimpleFilter(SimpleFilter simpleFilter) {
             Path<?> path = this.getPath(root, simpleFilter.getField());
-            return this.doExpressionFilter(path, simpleFilter.getFilterOperator(), simpleFilter.getValues());
+            Class<?> javaType = ClassUtils.resolvePrimitiveIfNecessary(path.getJavaType());
+            if (isArrayBound(simpleFilter, this.arrayThreshold) && DynaQueryPlan.isArrayBindable(javaType)) {
+                return this.doArrayFilter(path, javaType, simpleFilter.getFilterOperator());
+            }
+            if (simpleFilter.getFilterOperator() == FilterOperator.TEXT_SEARCH) {
+                return this.doTextSearchFilter(simpleFilter.getField(), (Expression<String>) path);
+            }
+
+            return this.doExpressionFilter(path, simpleFilter.getFilterOperator());
         }
 
-        private Predicate doExpressionFilter(Expression exp, FilterOperator filterOperator, List<Object> values) {
+        // x = any(?) with the whole list bound as one array, see DynaQueryAnyFunction.
+        private Predicate doArrayFilter(Expression<?> exp, Class<?> javaType, FilterOperator filterOperator) {
+            Class<?> arrayType = Array.newInstance(javaType, 0).getClass();
+            Expression<Boolean> any = this.criteriaBuilder.function(DynaQueryAnyFunction.ANY, Boolean.class, exp, this.parameter(arrayType));
+            return filterOperator == FilterOperator.IN ? this.criteriaBuilder.isTrue(any) : this.criteriaBuilder.isFalse(any);
+        }
+
+        // The search text is a single parameter, a RELEVANCE order of the field ranks by the same one.
+        private Predicate doTextSearchFilter(String field, Expression<String> exp) {
+            ParameterExpression<String> text = this.parameter(String.class);
+            this.textSearchParameters.putIfAbsent(field, text);
+            if (this.textSearch) {
+                return this.criteriaBuilder.isTrue(this.criteriaBuilder.function(DynaQueryTextSearchFunction.TEXT_SEARCH, Boolean.class, exp, text));
+            }
+
+            return this.criteriaBuilder.greaterThan(this.criteriaBuilder.locate(this.criteriaBuilder.lower(exp), this.criteriaBuilder.lower(text)), 0);
+        }
+
+        private Predicate doExpressionFilter(Expression exp, FilterOperator filterOperator) {
             Predicate predicate;
+            Class<?> javaType = ClassUtils.resolvePrimitiveIfNecessary(exp.getJavaType());
 
             switch (filterOperator) {
                     case EQ:
-                        predicate = criteriaBuilder.equal(exp, values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.equal(exp, this.parameter(javaType));
                         break;
                     case NE:
-                        predicate = criteriaBuilder.notEqual(exp, values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.notEqual(exp, this.parameter(javaType));
                         break;
                     case LIKE:
-                        predicate = criteriaBuilder.like(exp, this.addPercentSign(
-                                values.stream().findFirst().orElse("").toString()));
+                        predicate = criteriaBuilder.like(exp, this.parameter(String.class));
                         break;
                     case NOTLIKE:
-                        predicate = criteriaBuilder.notLike(exp, this.addPercentSign(
-                                values.stream().findFirst().orElse("").toString()));
+                        predicate = criteriaBuilder.notLike(exp, this.parameter(String.class));
+                        break;
+                    case STARTS_WITH:
+                    case ENDS_WITH:
+                    case CONTAINS:
+                        predicate = criteriaBuilder.like(exp, this.parameter(String.class), this.parameter(Character.class));
+                        break;
+                    case STARTS_WITH_IGNORE_CASE:
+                    case ENDS_WITH_IGNORE_CASE:
+                    case CONTAINS_IGNORE_CASE:
+                        predicate = criteriaBuilder.like(criteriaBuilder.lower(exp), this.parameter(String.class), this.parameter(Character.class));
                         break;
                     case IN:
-                        predicate = criteriaBuilder.and(exp.in(values.toArray()));
+                        predicate = criteriaBuilder.and(exp.in(this.parameter(Collection.class, javaType)));
                         break;
                     case NOTIN:
-                        predicate = criteriaBuilder.and(criteriaBuilder.not(exp.in(values.toArray())));
+                        predicate = criteriaBuilder.and(criteriaBuilder.not(exp.in(this.parameter(Collection.class, javaType))));
                         break;
                     case GT:
-                        predicate = criteriaBuilder.greaterThan(exp,
-                                (Comparable) values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.greaterThan(exp, this.parameter((Class<Comparable>) javaType));
                         break;
                     case LT:
-                        predicate = criteriaBuilder.lessThan(exp,
-                                (Comparable) values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.lessThan(exp, this.parameter((Class<Comparable>) javaType));
                         break;
                     case GE:
-                        predicate = criteriaBuilder.greaterThanOrEqualTo(
-                                exp,
-                                (Comparable) values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.greaterThanOrEqualTo(exp, this.parameter((Class<Comparable>) javaType));
                         break;
                     case LE:
-                        predicate = criteriaBuilder.lessThanOrEqualTo(exp,
-                                (Comparable) values.stream().findFirst().orElse(null));
+                        predicate = criteriaBuilder.lessThanOrEqualTo(exp, this.parameter((Class<Comparable>) javaType));
                         break;
                     case ISNULL:
                         predicate = criteriaBuilder.isNull(exp);
@@ -363,8 +1222,8 @@ class DynaQueryExecutor {
                         break;
                     case BETWEEN:
                         predicate = criteriaBuilder.between(exp,
-                                (Comparable) values.get(0),
-                                (Comparable) values.get(1));
+                                this.parameter((Class<Comparable>) javaType),
+                                this.parameter((Class<Comparable>) javaType));
                         break;
                     default:
                         throw new RuntimeException("Unsupported Filter Operator");
@@ -378,12 +1237,7 @@ class DynaQueryExecutor {
 
             if (compositeFilter != null) {
                 for (Filter filter : compositeFilter.getFilters()) {
-                    Predicate predicate;
-                    if (filter instanceof SimpleFilter) {
-                        predicate = this.doSimpleFilter((SimpleFilter) filter);
-                    } else {
-                        predicate = this.doCompositeFilter((CompositeFilter) filter);
-                    }
+                    Predicate predicate = this.doFilter(filter);
 
                     if (predicate != null) {
                         predicates.add(predicate);
@@ -396,18 +1250,48 @@ class DynaQueryExecutor {
                     criteriaBuilder.or(predicates.toArray(new Predicate[0]));
         }
 
-        private String addPercentSign(String param) {
+        private static String addPercentSign(String param) {
             Pattern paramLike = Pattern.compile("(^%.*)|(.*%$)");
             return param == null ? param : paramLike.matcher(param).matches() ? param : "%" + param + "%";
         }
 
+        // The value escaped, so its own % and _ match literally, with a wildcard where the operator leaves the string open.
+        // A prefix pattern uses a b-tree index of text_pattern_ops, of lower(field) ignoring case, the others a trigram index.
+        private static String patternOf(FilterOperator filterOperator, String value) {
+            boolean ignoreCase = filterOperator == FilterOperator.STARTS_WITH_IGNORE_CASE || filterOperator == FilterOperator.ENDS_WITH_IGNORE_CASE ||
+                    filterOperator == FilterOperator.CONTAINS_IGNORE_CASE;
+            String escaped = (ignoreCase ? value.toLowerCase(Locale.ROOT) : value).replace(String.valueOf(LIKE_ESCAPE), LIKE_ESCAPE + String.valueOf(LIKE_ESCAPE))
+                    .replace("%", LIKE_ESCAPE + "%")
+                    .replace("_", LIKE_ESCAPE + "_");
+
+            switch (filterOperator) {
+                case STARTS_WITH:
+                case STARTS_WITH_IGNORE_CASE:
+                    return escaped + "%";
+                case ENDS_WITH:
+                case ENDS_WITH_IGNORE_CASE:
+                    return "%" + escaped;
+                default:
+                    return "%" + escaped + "%";
+            }
+        }
+
         private <R> void orderBy(List<OrderBy> orderBys, CriteriaQuery<R> criteriaQuery) {
             if (orderBys != null && !orderBys.isEmpty()) {
-                orderBys.sort(Comparator.comparingInt(OrderBy::getSequence));
+                List<OrderBy> sorted = new ArrayList<>(orderBys);
+                sorted.sort(Comparator.comparingInt(OrderBy::getSequence));
                 List<Order> orders = new ArrayList<>();
 
                 Order order;
-                for (OrderBy orderBy : orderBys) {
+                for (OrderBy orderBy : sorted) {
+                    if (orderBy.getOperator() == SortingOperator.RELEVANCE) {
+                        ParameterExpression<String> text = this.textSearchParameters.get(orderBy.getField());
+                        if (this.textSearch && text != null) {
+                            orders.add(this.criteriaBuilder.desc(this.criteriaBuilder.function(DynaQueryTextSearchFunction.TEXT_RANK, Float.class, this.getPath(root, orderBy.getField()), text)));
+                        }
+                        continue;
+                    }
+
                     order = orderBy.getOperator() == SortingOperator.ASC ?
                             this.criteriaBuilder.asc(this.getPath(root, orderBy.getField())) :
                             this.criteriaBuilder.desc(this.getPath(root, orderBy.getField()));
@@ -431,47 +1315,57 @@ class DynaQueryExecutor {
             String[] paths = field.split("\\.");
 
             Path<?> path = root;
-            for (String p : paths) {
-                path = path.get(p);
+            for (int i = 0; i < paths.length; i++) {
+                Path<?> next = path.get(paths[i]);
+                // Step through an association by joining it, so a path shared by filters, orders and projections is joined once.
+                if (i < paths.length - 1 && path instanceof From && next.getModel() instanceof Attribute && ((Attribute<?, ?>) next.getModel()).isAssociation()) {
+                    next = this.joinOf((From<?, ?>) path, (Attribute<?, ?>) next.getModel(), String.join(".", Arrays.copyOfRange(paths, 0, i + 1)));
+                }
+                path = next;
             }
 
             return path;
         }
 
+        private From<?, ?> joinOf(From<?, ?> from, Attribute<?, ?> attribute, String path) {
+            From<?, ?> join = this.joins.get(path);
+            if (join == null) {
+                boolean toMany = attribute.isCollection();
+                join = from.join(attribute.getName(), toMany ? JoinType.LEFT : JoinType.INNER);
+                join.alias(path.replace('.', '_'));
+                this.joins.put(path, join);
+                this.toManyJoined |= toMany;
+            }
+
+            return join;
+        }
+
         private <R> void groupBy(GroupBy groupBy, CriteriaQuery<R> criteriaQuery) {
             if (groupBy != null) {
-                Selection<?> selection;
-                Path<Number> fieldPath = root.get(groupBy.getAggregator().getField());
-                switch (groupBy.getAggregator().getOperator()) {
-                    case SUM:
-                        selection = criteriaBuilder.sum(fieldPath).alias(groupBy.getAggregator().getAlias());
-                        break;
-                    case AVG:
-                        selection = criteriaBuilder.avg(fieldPath).alias(groupBy.getAggregator().getAlias());
-                        break;
-                    case MAX:
-                        selection = criteriaBuilder.max(fieldPath).alias(groupBy.getAggregator().getAlias());
-                        break;
-                    case MIN:
-                        selection = criteriaBuilder.min(fieldPath).alias(groupBy.getAggregator().getAlias());
-                        break;
-                    case COUNT:
-                        selection = criteriaBuilder.count(fieldPath).alias(groupBy.getAggregator().getAlias());
-                        break;
-                    default:
-                        return;
+                List<Expression<?>> expressions = groupBy.getFields().stream().map(x->this.getPath(root, x)).collect(Collectors.toList());
+                // Rows are mapped by position, group fields need no alias, which a dotted path couldn't be anyway.
+                List<Selection<?>> selections = new ArrayList<>(expressions);
+                for (Aggregator aggregator : groupBy.getAggregators()) {
+                    selections.add(this.aggregate(aggregator).alias(aggregator.getAlias()));
                 }
 
-                List<Expression<?>> expressions = groupBy.getFields().stream().map(x->root.get(x)).collect(Collectors.toList());
-                List<Selection<?>> selections = groupBy.getFields().stream().map(x->root.get(x).alias(x)).collect(Collectors.toList());
-                selections.add(selection);
-
-                criteriaQuery.multiselect(selections).groupBy(expressions);
+                criteriaQuery.multiselect(selections).groupBy(groupBy.getGroupingSets() == null ?
+                        expressions :
+                        Collections.singletonList(this.groupingSets(groupBy.getGroupingSets())));
 
                 if (groupBy.getHaving() != null) {
                     criteriaQuery.having(this.doFilter(groupBy.getHaving()));
                 }
             }
         }
+
+        // JPQL has no GROUPING SETS, DynaQueryGroupingSetsFunction renders it from nested function calls.
+        private Expression<?> groupingSets(List<List<String>> groupingSets) {
+            Expression<?>[] sets = groupingSets.stream()
+                    .map(x -> criteriaBuilder.function(DynaQueryGroupingSetsFunction.GROUPING_SET, Integer.class,
+                            x.stream().map(field -> this.getPath(root, field)).toArray(Expression[]::new)))
+                    .toArray(Expression[]::new);
+            return criteriaBuilder.function(DynaQueryGroupingSetsFunction.GROUPING_SETS, Integer.class, sets);
+        }
     }
 }
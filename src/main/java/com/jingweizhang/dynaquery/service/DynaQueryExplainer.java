@@ -0,0 +1,183 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.NamedParameterInformation;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Runs EXPLAIN of PostgreSQL on the SQL Hibernate generates for a bound query.
+ * The SQL is translated from the query's JPQL the same way Hibernate does, and each value is bound with
+ * the Hibernate type of its parameter, so the planner sees exactly the statement that would be executed.
+ * Databases other than PostgreSQL are never explained.
+ */
+class DynaQueryExplainer {
+    private static final Pattern NAMED_PARAMETER = Pattern.compile(":(\\w+)");
+
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public DynaQueryExplainer(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    public boolean isSupported() {
+        SessionFactoryImplementor sessionFactory = this.entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        return sessionFactory.getJdbcServices().getDialect() instanceof PostgreSQL81Dialect;
+    }
+
+    // Number of rows the planner expects the query to return, empty if it can't be explained.
+    public OptionalLong estimateRows(TypedQuery<?> query) {
+        Optional<JsonNode> plan = this.explain(query, "FORMAT JSON");
+        JsonNode rows = plan.map(x -> x.path(0).path("Plan").path("Plan Rows")).orElse(null);
+        return rows != null && rows.isNumber() ? OptionalLong.of(rows.asLong()) : OptionalLong.empty();
+    }
+
+    // Total cost the planner expects of the query, in its own arbitrary units, empty if it can't be explained.
+    public OptionalDouble estimateCost(TypedQuery<?> query) {
+        Optional<JsonNode> plan = this.explain(query, "FORMAT JSON");
+        JsonNode cost = plan.map(x -> x.path(0).path("Plan").path("Total Cost")).orElse(null);
+        return cost != null && cost.isNumber() ? OptionalDouble.of(cost.asDouble()) : OptionalDouble.empty();
+    }
+
+    // options go into EXPLAIN (...) as they are, e.g. "FORMAT JSON" or "ANALYZE, BUFFERS, FORMAT JSON".
+    public Optional<JsonNode> explain(TypedQuery<?> query, String options) {
+        if (!this.isSupported()) {
+            return Optional.empty();
+        }
+
+        return this.translate(query).flatMap(x -> this.explain(x, options));
+    }
+
+    // The SQL of the query with its values in the order of their placeholders, empty if it doesn't translate to a single statement.
+    public Optional<TranslatedQuery> translate(TypedQuery<?> query) {
+        SessionImplementor session = this.entityManager.unwrap(SessionImplementor.class);
+        String jpql = query.unwrap(org.hibernate.query.Query.class).getQueryString();
+
+        // List values are expanded to one parameter per element, as Hibernate does before translating.
+        Map<String, Object> values = new HashMap<>();
+        StringBuffer expanded = new StringBuffer();
+        Matcher matcher = NAMED_PARAMETER.matcher(jpql);
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            Object value = query.getParameterValue(name);
+            if (value instanceof Collection) {
+                StringJoiner names = new StringJoiner(", ");
+                int i = 0;
+                for (Object element : (Collection<?>) value) {
+                    names.add(":" + name + "_" + i);
+                    values.put(name + "_" + i++, element);
+                }
+                matcher.appendReplacement(expanded, Matcher.quoteReplacement(names.toString()));
+            } else {
+                values.put(name, value);
+                matcher.appendReplacement(expanded, Matcher.quoteReplacement(matcher.group()));
+            }
+        }
+        matcher.appendTail(expanded);
+
+        HQLQueryPlan plan = session.getFactory().getQueryPlanCache().getHQLQueryPlan(expanded.toString(), false, Collections.emptyMap());
+        if (plan.getTranslators().length != 1) {
+            return Optional.empty();
+        }
+        QueryTranslator translator = plan.getTranslators()[0];
+
+        SortedMap<Integer, Bind> binds = new TreeMap<>();
+        for (Map.Entry<String, NamedParameterInformation> entry : translator.getParameterTranslations().getNamedParameterInformationMap().entrySet()) {
+            // Arguments of functions expect no type, an array is bound by the type of its elements' array.
+            Type type = entry.getValue().getExpectedType();
+            if (type == null && values.get(entry.getKey()) != null && values.get(entry.getKey()).getClass().isArray()) {
+                type = DynaQueryPlan.arrayTypeOf(values.get(entry.getKey()).getClass().getComponentType());
+            }
+            Bind bind = new Bind(type, values.get(entry.getKey()));
+            for (int location : entry.getValue().getSourceLocations()) {
+                binds.put(location, bind);
+            }
+        }
+        return Optional.of(new TranslatedQuery(translator.getSQLString(), new ArrayList<>(binds.values())));
+    }
+
+    // Explain a translated query, on the connection of the calling thread's transaction.
+    public Optional<JsonNode> explain(TranslatedQuery query, String options) {
+        if (!this.isSupported()) {
+            return Optional.empty();
+        }
+
+        SessionImplementor session = this.entityManager.unwrap(SessionImplementor.class);
+        return session.doReturningWork(connection -> {
+            // A failed statement aborts the whole transaction of PostgreSQL, so roll back to a savepoint on failure.
+            Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN (" + options + ") " + query.getSql())) {
+                for (int i = 0; i < query.getBinds().size(); i++) {
+                    Bind bind = query.getBinds().get(i);
+                    if (bind.type != null) {
+                        bind.type.nullSafeSet(statement, bind.value, i + 1, session);
+                    } else {
+                        statement.setObject(i + 1, bind.value);
+                    }
+                }
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? Optional.of(this.objectMapper.readTree(resultSet.getString(1))) : Optional.<JsonNode>empty();
+                }
+            } catch (SQLException | IOException e) {
+                if (savepoint != null) {
+                    connection.rollback(savepoint);
+                }
+                return Optional.empty();
+            } finally {
+                if (savepoint != null) {
+                    connection.releaseSavepoint(savepoint);
+                }
+            }
+        });
+    }
+
+    static class TranslatedQuery {
+        private final String sql;
+        private final List<Bind> binds;
+
+        TranslatedQuery(String sql, List<Bind> binds) {
+            this.sql = sql;
+            this.binds = binds;
+        }
+
+        public String getSql() {
+            return this.sql;
+        }
+
+        public List<Bind> getBinds() {
+            return this.binds;
+        }
+
+        public List<Object> getValues() {
+            return this.binds.stream().map(x -> x.value).collect(Collectors.toList());
+        }
+    }
+
+    // A value, with the Hibernate type it is bound by, null when Hibernate infers none.
+    static class Bind {
+        private final Type type;
+        private final Object value;
+
+        Bind(Type type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
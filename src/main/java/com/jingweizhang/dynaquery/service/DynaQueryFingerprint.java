@@ -0,0 +1,140 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @Description
+ * Fingerprint of a normalized DynaQuery.
+ * The shape is the query with all literal values stripped, so queries differ only in their values share the same shape.
+ * The parameters are the stripped values in the order CriteriaQueryConverter creates its parameters:
+ * filter first in pre-order, then the keyset seek values if any, then having in pre-order.
+ */
+final class DynaQueryFingerprint {
+    private final String shape;
+    private final List<Object> parameters;
+    private final boolean seek;
+
+    private DynaQueryFingerprint(String shape, List<Object> parameters, boolean seek) {
+        this.shape = shape;
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.seek = seek;
+    }
+
+    public static DynaQueryFingerprint of(DynaQuery dynaQuery) {
+        return of(dynaQuery, null, 0);
+    }
+
+    public static DynaQueryFingerprint of(DynaQuery dynaQuery, int arrayThreshold) {
+        return of(dynaQuery, null, arrayThreshold);
+    }
+
+    // seekValues are the sort key values to continue after in keyset pagination, null for an ordinary query.
+    // Lists longer than arrayThreshold are bound as an array, which is another statement, 0 if they never are.
+    public static DynaQueryFingerprint of(DynaQuery dynaQuery, List<Object> seekValues, int arrayThreshold) {
+        StringBuilder shape = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+
+        token(shape, dynaQuery.getTargetView());
+
+        shape.append("|P");
+        if (dynaQuery.getProjectBys() != null) {
+            dynaQuery.getProjectBys().forEach(x -> token(shape, x.getField()));
+        }
+
+        shape.append("|F");
+        appendFilter(shape, parameters, dynaQuery.getFilter(), arrayThreshold);
+
+        shape.append("|K");
+        if (seekValues != null) {
+            shape.append(seekValues.size());
+            parameters.addAll(seekValues);
+        }
+
+        shape.append("|G");
+        GroupBy groupBy = dynaQuery.getGroupBy();
+        if (groupBy != null) {
+            groupBy.getFields().forEach(x -> token(shape, x));
+            groupBy.getAggregators().forEach(x -> appendAggregator(shape, x));
+            appendFilter(shape, parameters, groupBy.getHaving(), arrayThreshold);
+            if (groupBy.getGroupingSets() != null) {
+                shape.append('S');
+                for (List<String> groupingSet : groupBy.getGroupingSets()) {
+                    shape.append('(');
+                    groupingSet.forEach(x -> token(shape, x));
+                    shape.append(')');
+                }
+            }
+        }
+
+        shape.append("|O");
+        if (dynaQuery.getOrderBys() != null) {
+            List<OrderBy> orderBys = new ArrayList<>(dynaQuery.getOrderBys());
+            orderBys.sort(Comparator.comparingInt(OrderBy::getSequence));
+            for (OrderBy orderBy : orderBys) {
+                token(shape, orderBy.getField());
+                shape.append(orderBy.getOperator());
+            }
+        }
+
+        return new DynaQueryFingerprint(shape.toString(), parameters, seekValues != null);
+    }
+
+    private static void appendFilter(StringBuilder shape, List<Object> parameters, Filter filter, int arrayThreshold) {
+        if (filter == null) {
+            shape.append('-');
+        } else if (filter instanceof CompositeFilter) {
+            CompositeFilter compositeFilter = (CompositeFilter) filter;
+            shape.append('(').append(compositeFilter.getConnector());
+            for (Filter child : compositeFilter.getFilters()) {
+                appendFilter(shape, parameters, child, arrayThreshold);
+            }
+            shape.append(')');
+        } else if (filter instanceof SimpleFilter) {
+            SimpleFilter simpleFilter = (SimpleFilter) filter;
+            shape.append('[');
+            token(shape, simpleFilter.getField());
+            shape.append(simpleFilter.getFilterOperator());
+            if (DynaQueryExecutor.CriteriaQueryConverter.isArrayBound(simpleFilter, arrayThreshold)) {
+                shape.append('*');
+            }
+            shape.append(']');
+            parameters.addAll(DynaQueryExecutor.CriteriaQueryConverter.toParameterValues(simpleFilter.getFilterOperator(), simpleFilter.getValues()));
+        } else if (filter instanceof AggregatorFilter) {
+            AggregatorFilter aggregatorFilter = (AggregatorFilter) filter;
+            shape.append('[');
+            appendAggregator(shape, aggregatorFilter.getAggregator());
+            shape.append(aggregatorFilter.getFilterOperator()).append(']');
+            parameters.addAll(DynaQueryExecutor.CriteriaQueryConverter.toParameterValues(aggregatorFilter.getFilterOperator(), aggregatorFilter.getValues()));
+        } else {
+            throw new IllegalArgumentException("Unknown filter type: " + filter.getClass());
+        }
+    }
+
+    private static void appendAggregator(StringBuilder shape, Aggregator aggregator) {
+        token(shape, aggregator.getField());
+        shape.append(aggregator.getOperator());
+        token(shape, aggregator.getAlias());
+    }
+
+    // Length prefixed, so a user supplied alias can't forge the shape of another query
+    private static void token(StringBuilder shape, String value) {
+        shape.append(value == null ? -1 : value.length()).append(':').append(value).append(',');
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    public boolean isSeek() {
+        return seek;
+    }
+}
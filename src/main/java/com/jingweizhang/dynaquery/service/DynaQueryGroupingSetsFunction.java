@@ -0,0 +1,56 @@
+package com.jingweizhang.dynaquery.service;
+
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import java.util.List;
+
+/**
+ * @Description
+ * Renders GROUPING SETS of PostgreSQL, which JPQL has no syntax for, from nested function calls:
+ * dq_grouping_sets(dq_grouping_set(a, b), dq_grouping_set(a), dq_grouping_set()) is GROUPING SETS ((a, b), (a), ()).
+ * Only valid as the single item of a GROUP BY. Databases without grouping sets have each set queried on its own instead.
+ */
+public class DynaQueryGroupingSetsFunction implements SQLFunction {
+    public static final String GROUPING_SETS = "dq_grouping_sets";
+    public static final String GROUPING_SET = "dq_grouping_set";
+
+    private final String keyword;
+
+    private DynaQueryGroupingSetsFunction(String keyword) {
+        this.keyword = keyword;
+    }
+
+    // Registers both functions, as a MetadataBuilderContributor.
+    public static void contribute(MetadataBuilder metadataBuilder) {
+        metadataBuilder.applySqlFunction(GROUPING_SETS, new DynaQueryGroupingSetsFunction("grouping sets "));
+        metadataBuilder.applySqlFunction(GROUPING_SET, new DynaQueryGroupingSetsFunction(""));
+    }
+
+    @Override
+    public boolean hasArguments() {
+        return true;
+    }
+
+    @Override
+    public boolean hasParenthesesIfNoArguments() {
+        return true;
+    }
+
+    // Never selected, the type is only there for Hibernate to resolve the expression.
+    @Override
+    public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+        return StandardBasicTypes.INTEGER;
+    }
+
+    // Arguments arrive rendered, a nested set is already "(a, b)".
+    @Override
+    public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory) throws QueryException {
+        return this.keyword + "(" + String.join(", ", (List<String>) arguments) + ")";
+    }
+}
@@ -0,0 +1,33 @@
+package com.jingweizhang.dynaquery.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @Description
+ * What a query on a view may take: the time its statements may run, and the planner's cost it may be estimated at.
+ * Zero stands for no limit. Limits are looked up once per view.
+ */
+public class DynaQueryLimits {
+    public static final DynaQueryLimits NONE = new DynaQueryLimits(view -> Duration.ZERO, view -> 0d);
+
+    private final Function<String, Duration> timeoutOfView;
+    private final Function<String, Double> maximumCostOfView;
+    private final Map<String, Duration> timeouts = new ConcurrentHashMap<>();
+    private final Map<String, Double> maximumCosts = new ConcurrentHashMap<>();
+
+    public DynaQueryLimits(Function<String, Duration> timeoutOfView, Function<String, Double> maximumCostOfView) {
+        this.timeoutOfView = timeoutOfView;
+        this.maximumCostOfView = maximumCostOfView;
+    }
+
+    public Duration getTimeout(String viewEntityName) {
+        return this.timeouts.computeIfAbsent(viewEntityName, this.timeoutOfView);
+    }
+
+    public double getMaximumCost(String viewEntityName) {
+        return this.maximumCosts.computeIfAbsent(viewEntityName, this.maximumCostOfView);
+    }
+}
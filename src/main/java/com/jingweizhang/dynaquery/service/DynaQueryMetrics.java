@@ -0,0 +1,101 @@
+package com.jingweizhang.dynaquery.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * @Description
+ * Micrometer meters of the pipeline, tagged by view, operation and outcome:
+ * dynaquery.query times a whole operation, dynaquery.stage each stage of it (normalize, convert, execute, fetch, map),
+ * dynaquery.rows counts the rows returned and dynaquery.result.size is a histogram of the rows per result.
+ * The operation is that of the outermost call on the thread, e.g. a saved query is queryAll inside saved, and counted as saved.
+ * Disabled, every method runs the action as it is and nothing is measured.
+ */
+public class DynaQueryMetrics {
+    public static final DynaQueryMetrics DISABLED = new DynaQueryMetrics(null);
+
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    private final MeterRegistry meterRegistry;
+    private final ThreadLocal<String> currentOperation = new ThreadLocal<>();
+
+    public DynaQueryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Time a whole operation on a view, and record the rows it returns.
+    public <T> T operation(String operation, String view, Supplier<T> action, ToIntFunction<T> rowsOf) {
+        if (this.meterRegistry == null || this.currentOperation.get() != null) {
+            return action.get();
+        }
+
+        this.currentOperation.set(operation);
+        long start = this.meterRegistry.config().clock().monotonicTime();
+        String outcome = FAILURE;
+        try {
+            T result = action.get();
+            int rows = rowsOf.applyAsInt(result);
+            Counter.builder("dynaquery.rows")
+                    .description("Rows returned")
+                    .tags("view", view, "operation", operation)
+                    .register(this.meterRegistry)
+                    .increment(rows);
+            DistributionSummary.builder("dynaquery.result.size")
+                    .description("Rows per result")
+                    .baseUnit("rows")
+                    .tags("view", view, "operation", operation)
+                    .publishPercentileHistogram()
+                    .register(this.meterRegistry)
+                    .record(rows);
+            outcome = SUCCESS;
+            return result;
+        } finally {
+            this.currentOperation.remove();
+            this.record("dynaquery.query", "Time of a query", null, view, operation, outcome, start);
+        }
+    }
+
+    // Time a stage of the current operation.
+    public <T> T stage(String stage, String view, Supplier<T> action) {
+        if (this.meterRegistry == null) {
+            return action.get();
+        }
+
+        String operation = this.currentOperation.get();
+        return this.stage(stage, view, operation != null ? operation : "none", action);
+    }
+
+    // Time a stage of the given operation, e.g. normalizing before the operation starts, or counting on another thread.
+    public <T> T stage(String stage, String view, String operation, Supplier<T> action) {
+        if (this.meterRegistry == null) {
+            return action.get();
+        }
+
+        long start = this.meterRegistry.config().clock().monotonicTime();
+        String outcome = FAILURE;
+        try {
+            T result = action.get();
+            outcome = SUCCESS;
+            return result;
+        } finally {
+            this.record("dynaquery.stage", "Time of a stage of a query", stage, view, operation, outcome, start);
+        }
+    }
+
+    private void record(String name, String description, String stage, String view, String operation, String outcome, long start) {
+        Timer.Builder timer = Timer.builder(name)
+                .description(description)
+                .tags("view", view, "operation", operation, "outcome", outcome);
+        if (stage != null) {
+            timer.tag("stage", stage);
+        }
+        timer.register(this.meterRegistry).record(this.meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -2,283 +2,423 @@ package com.jingweizhang.dynaquery.service;
 
 import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
 import com.jingweizhang.dynaquery.exception.*;
-import com.jingweizhang.dynaquery.extension.ViewEntity;
 import com.jingweizhang.dynaquery.model.*;
+import org.springframework.util.ClassUtils;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.net.URI;
-import java.net.URL;
 import java.time.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 /**
  * @Description
- * User to validate the query and convert parameters for its data type
+ * Compiles a query request into a DynaQuery in a single pass: every part is validated while it is converted,
+ * and filter values are parsed by the converters the registry resolved for each field of the view.
+ * All errors of the request are collected on the way, one alone is thrown as it is, more as an InvalidDynaQueryException.
+ * Lists of the compiled query are unmodifiable, so it can be shared by the plan, count and result caches as it is.
  *
  * @Author rocky.zhang on 2023/4/3
  */
-class DynaQueryNormalizer {
+public class DynaQueryNormalizer {
+    private static final Function<String, Object> LONG_CONVERTER = converterOf(Long.class);
+    private static final Function<String, Object> DOUBLE_CONVERTER = converterOf(Double.class);
+    // Operators only string fields take
+    private static final Set<FilterOperator> STRING_OPERATORS = EnumSet.of(FilterOperator.TEXT_SEARCH,
+            FilterOperator.STARTS_WITH, FilterOperator.ENDS_WITH, FilterOperator.CONTAINS,
+            FilterOperator.STARTS_WITH_IGNORE_CASE, FilterOperator.ENDS_WITH_IGNORE_CASE, FilterOperator.CONTAINS_IGNORE_CASE);
+
     private final ViewEntityRegistry viewEntityRegistry;
+    private final DynaQueryMetrics dynaQueryMetrics;
     public DynaQueryNormalizer(ViewEntityRegistry viewEntityRegistry) {
-        this.viewEntityRegistry = viewEntityRegistry;
+        this(viewEntityRegistry, DynaQueryMetrics.DISABLED);
     }
 
-    public DynaQuery normalize(DynaQueryRequest dynaQueryRequest) {
-
+    public DynaQueryNormalizer(ViewEntityRegistry viewEntityRegistry, DynaQueryMetrics dynaQueryMetrics) {
+        this.viewEntityRegistry = viewEntityRegistry;
+        this.dynaQueryMetrics = dynaQueryMetrics;
+    }
 
-        Class<?> viewEntityClazz = this.viewEntityRegistry.getViewEntityClass(dynaQueryRequest.getTargetView());
+    // Normalize timed as a stage of the operation. A view not registered is tagged unknown, not by whatever name the client sent.
+    public DynaQuery normalize(DynaQueryRequest dynaQueryRequest, String operation) {
+        String view = this.viewEntityRegistry.getDescriptor(dynaQueryRequest.getTargetView()) != null ? dynaQueryRequest.getTargetView() : "unknown";
+        return this.dynaQueryMetrics.stage("normalize", view, operation, () -> this.normalize(dynaQueryRequest));
+    }
 
-        this.validate(dynaQueryRequest);
+    public DynaQuery normalize(DynaQueryRequest dynaQueryRequest) {
+        // The view is looked up once, everything below works on its descriptor. Without a view there is nothing to check against.
+        ViewEntityDescriptor descriptor = this.normalizeTargetView(dynaQueryRequest.getTargetView());
+        List<AbstractDynaQueryException> errors = new ArrayList<>();
 
         DynaQuery query = new DynaQuery();
-        query.setTargetView(this.normalizeTargetView(dynaQueryRequest.getTargetView()));
-        query.setProjectBys(this.normalizeProjectBy(viewEntityClazz, dynaQueryRequest.getProjections()));
-        query.setFilter(this.normalizeFilter(viewEntityClazz, dynaQueryRequest.getFilter()));
-        query.setGroupBy(this.normalizeGroupBy(viewEntityClazz, dynaQueryRequest.getGroup()));
-        query.setOrderBys(this.normalizeOrderBy(viewEntityClazz, dynaQueryRequest.getOrders()));
+        query.setTargetView(descriptor.getName());
+        query.setProjectBys(this.normalizeProjectBy(descriptor, dynaQueryRequest.getProjections(), errors));
+        query.setFilter(this.normalizeFilter(descriptor, dynaQueryRequest.getFilter(), errors));
+        query.setGroupBy(this.normalizeGroupBy(descriptor, dynaQueryRequest.getGroup(), errors));
+        query.setOrderBys(this.normalizeOrderBy(descriptor, dynaQueryRequest.getOrders(), errors));
+
+        // Relevance is the rank of a text search of the field, of rows not grouped.
+        for (OrderBy orderBy : query.getOrderBys()) {
+            if (orderBy.getOperator() == SortingOperator.RELEVANCE && (query.getGroupBy() != null || !isTextSearched(query.getFilter(), orderBy.getField()))) {
+                errors.add(new UnsupportedSortingOperatorException(orderBy.getField(), orderBy.getOperator().name()));
+            }
+        }
+
+        if (errors.size() == 1) {
+            throw errors.get(0);
+        }
+        if (!errors.isEmpty()) {
+            throw new InvalidDynaQueryException(errors);
+        }
 
         return query;
     }
 
-    private String normalizeTargetView(String targetView) {
+    private ViewEntityDescriptor normalizeTargetView(String targetView) {
         if (targetView == null || targetView.isEmpty()) {
             throw new InvalidViewEntityException("Target view is null or empty string");
         }
 
-        if (!this.viewEntityRegistry.isSupported(targetView)) {
-            throw new InvalidViewEntityException(targetView + " is not a valid view entity");
+        ViewEntityDescriptor descriptor = this.viewEntityRegistry.getDescriptor(targetView);
+        if (descriptor == null) {
+            throw new InvalidViewEntityException(targetView);
         }
 
-        return targetView;
+        return descriptor;
     }
 
-    private List<ProjectBy> normalizeProjectBy(Class<?> viewEntityClazz, List<DynaQueryRequest.ProjectBy> projectBys) {
+    private List<ProjectBy> normalizeProjectBy(ViewEntityDescriptor descriptor, List<DynaQueryRequest.ProjectBy> projectBys, List<AbstractDynaQueryException> errors) {
         if (projectBys == null || projectBys.isEmpty()) {
             return Collections.emptyList();
         }
 
-        return projectBys.stream().map((x) -> com.jingweizhang.dynaquery.model.ProjectBy.of(x.getField(), x.isVisible())).collect(Collectors.toList());
+        List<ProjectBy> projections = new ArrayList<>(projectBys.size());
+        for (DynaQueryRequest.ProjectBy projectBy : projectBys) {
+            if (this.isField(descriptor, projectBy.getField(), errors)) {
+                projections.add(ProjectBy.of(projectBy.getField(), projectBy.isVisible()));
+            }
+        }
+
+        return Collections.unmodifiableList(projections);
     }
 
     /**
-     * Validate the sourceFilter of query request
-     * @param viewEntityClazz
+     * Validate the sourceFilter of query request and convert its values to the data types of their fields
+     * @param descriptor
      *          view entity to validate against
      * @param sourceFilter
      *          sourceFilter to validate
+     * @param errors
+     *          errors found so far, those of this filter are added
      * syntheticField
      *     synthetic fields are fields created by query itself rather than a field existed in view entity.
      *     Thus, there is no need to validate them.
      *     e.g. select sum(amount) as totalSum from order where id > 5.
      *     The field totalSum is a synthetic field created by query itself.
-     * @return Filter
+     * @return Filter, null if the filter has errors
      */
-    private Filter normalizeFilter(Class<?> viewEntityClazz, DynaQueryRequest.Filter sourceFilter) {
+    private Filter normalizeFilter(ViewEntityDescriptor descriptor, DynaQueryRequest.Filter sourceFilter, List<AbstractDynaQueryException> errors) {
         if (sourceFilter == null) return null;
 
         if (sourceFilter instanceof DynaQueryRequest.CompositeFilter) {
             DynaQueryRequest.CompositeFilter compositeFilter = (DynaQueryRequest.CompositeFilter) sourceFilter;
+            List<DynaQueryRequest.Filter> sourceFilters = compositeFilter.getFilters() == null ? Collections.emptyList() : compositeFilter.getFilters();
 
-            List<Filter> filters = new ArrayList<>();
-            for (DynaQueryRequest.Filter filter : compositeFilter.getFilters()) {
-                filters.add(this.normalizeFilter(viewEntityClazz, filter));
+            List<Filter> filters = new ArrayList<>(sourceFilters.size());
+            for (DynaQueryRequest.Filter filter : sourceFilters) {
+                filters.add(this.normalizeFilter(descriptor, filter, errors));
             }
 
-            return CompositeFilter.of(filters, compositeFilter.getConnector());
+            return CompositeFilter.of(Collections.unmodifiableList(filters), compositeFilter.getConnector());
         } else if (sourceFilter instanceof DynaQueryRequest.SimpleFilter) {
             DynaQueryRequest.SimpleFilter simpleFilter = (DynaQueryRequest.SimpleFilter) sourceFilter;
 
-            List<Object> values;
-            Map<String, Class<?>> entityMeta = this.viewEntityRegistry.getEntityMetaData(viewEntityClazz);
-            Class<?> fieldDataType = entityMeta.get(simpleFilter.getField());
-            try {
-                values = simpleFilter.getValues().stream().map(x -> this.convert(fieldDataType, x)).collect(Collectors.toList());
-            } catch (Exception ex) {
-                throw new FailedToConvertFilterValuesToFieldDataTypeException(simpleFilter.getField(), fieldDataType.getName());
+            boolean isField = this.isField(descriptor, simpleFilter.getField(), errors);
+            FilterOperator operator = filterOperatorOf(simpleFilter.getField(), simpleFilter.getOperator(), errors);
+            if (!isField) {
+                return null;
+            }
+            if ((operator == FilterOperator.TEXT_SEARCH && !descriptor.isTextSearchField(simpleFilter.getField())) ||
+                    (STRING_OPERATORS.contains(operator) && descriptor.getPaths().get(simpleFilter.getField()) != String.class)) {
+                errors.add(new UnsupportedFilterOperatorException(simpleFilter.getField(), simpleFilter.getOperator()));
+                return null;
+            }
+
+            List<Object> values = convert(simpleFilter.getValues(), descriptor.getConverter(simpleFilter.getField()));
+            if (values == null) {
+                errors.add(new FailedToConvertFilterValuesToFieldDataTypeException(simpleFilter.getField(), descriptor.getPaths().get(simpleFilter.getField()).getName()));
+                return null;
             }
 
-            return SimpleFilter.of(simpleFilter.getField(), FilterOperator.valueOf(simpleFilter.getOperator()), values);
+            return operator == null ? null : SimpleFilter.of(simpleFilter.getField(), operator, values);
         } else if (sourceFilter instanceof DynaQueryRequest.GroupBy.AggregatorFilter) {
             // AggregatorFilter is a special filter type that is only used in group by clause
             // There is no need to validate its field type as it is a synthetic field
-            // We only need to convert its value to be a number type that fits all.
+            // Its values are converted to the type of the aggregate, see aggregateTypeOf.
             DynaQueryRequest.GroupBy.AggregatorFilter aggregatorFilter = (DynaQueryRequest.GroupBy.AggregatorFilter) sourceFilter;
 
-            return AggregatorFilter.of(
-                        Aggregator.of(
-                                aggregatorFilter.getAggregator().getField(),
-                                AggregateOperator.valueOf(aggregatorFilter.getAggregator().getOperator()),
-                                aggregatorFilter.getAggregator().getAlias()
-                        ),
-                        FilterOperator.valueOf(aggregatorFilter.getOperator()),
-                        aggregatorFilter.getValues().stream().map(x -> this.convert(Long.class, x)).collect(Collectors.toList())
-            );
+            Aggregator aggregator = this.normalizeAggregator(descriptor, aggregatorFilter.getAggregator(), errors);
+            FilterOperator operator = filterOperatorOf(aggregatorFilter.getAggregator().getAlias(), aggregatorFilter.getOperator(), errors);
+            if (STRING_OPERATORS.contains(operator)) {
+                errors.add(new UnsupportedFilterOperatorException(aggregatorFilter.getAggregator().getAlias(), aggregatorFilter.getOperator()));
+                operator = null;
+            }
+            if (aggregator == null) {
+                return null;
+            }
+
+            Class<?> type = this.aggregateTypeOf(descriptor, aggregator);
+            List<Object> values = convert(aggregatorFilter.getValues(), type == Long.class ? LONG_CONVERTER :
+                    type == Double.class ? DOUBLE_CONVERTER : descriptor.getConverter(aggregator.getField()));
+            if (values == null) {
+                errors.add(new FailedToConvertFilterValuesToFieldDataTypeException(aggregator.getAlias(), type.getName()));
+                return null;
+            }
+
+            return operator == null ? null : AggregatorFilter.of(aggregator, operator, values);
         } else {
-            throw new InvalidFilterException("Invalid filter type");
+            errors.add(new InvalidFilterException(sourceFilter.getClass().getSimpleName()));
+            return null;
+        }
+    }
+
+    // Whether the filter holds a TEXT_SEARCH of the field
+    private static boolean isTextSearched(Filter filter, String field) {
+        if (filter instanceof CompositeFilter) {
+            return ((CompositeFilter) filter).getFilters().stream().anyMatch(x -> isTextSearched(x, field));
+        }
+
+        return filter instanceof SimpleFilter && ((SimpleFilter) filter).getFilterOperator() == FilterOperator.TEXT_SEARCH &&
+                ((SimpleFilter) filter).getField().equals(field);
+    }
+
+    private static FilterOperator filterOperatorOf(String field, String operator, List<AbstractDynaQueryException> errors) {
+        try {
+            return FilterOperator.valueOf(operator);
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            errors.add(new UnsupportedFilterOperatorException(field, operator));
+            return null;
+        }
+    }
+
+    // Null if a value fails to convert. A filter without values, e.g. ISNULL, has none to convert.
+    private static List<Object> convert(List<String> values, Function<String, Object> converter) {
+        if (values == null) {
+            return Collections.emptyList();
+        }
+
+        List<Object> converted = new ArrayList<>(values.size());
+        try {
+            for (String value : values) {
+                converted.add(converter.apply(value));
+            }
+        } catch (RuntimeException ex) {
+            return null;
         }
+
+        return Collections.unmodifiableList(converted);
     }
 
-    private Object convert(Class<?> clazz, String value) {
-        if (value == null) return null;
+    // Resolves the parsing of a type once, ViewEntityRegistry keeps one converter per field.
+    static Function<String, Object> converterOf(Class<?> fieldType) {
+        Class<?> clazz = ClassUtils.resolvePrimitiveIfNecessary(fieldType);
 
-        if (clazz == String.class) {
-            return value;
-        } else if (clazz == Long.class) {
-            return Long.parseLong(value);
+        Function<String, Object> converter;
+        if (clazz == Long.class) {
+            converter = Long::parseLong;
         } else if (clazz == Boolean.class) {
-            return Boolean.parseBoolean(value);
+            converter = Boolean::parseBoolean;
         } else if (clazz == Byte.class) {
-            return Byte.parseByte(value);
+            converter = Byte::parseByte;
         } else if (clazz == Character.class) {
-            return value.charAt(0);
+            converter = x -> x.charAt(0);
         } else if (clazz == Short.class) {
-            return Short.parseShort(value);
+            converter = Short::parseShort;
         } else if (clazz == Integer.class) {
-            return Integer.parseInt(value);
+            converter = Integer::parseInt;
         } else if (clazz == Float.class) {
-            return Float.parseFloat(value);
+            converter = Float::parseFloat;
         } else if (clazz == Double.class) {
-            return Double.parseDouble(value);
+            converter = Double::parseDouble;
         } else if (clazz == Instant.class) {
-            return Instant.parse(value);
+            converter = Instant::parse;
         } else if (clazz == LocalDate.class) {
-            return LocalDate.parse(value);
+            converter = LocalDate::parse;
         } else if (clazz == LocalDateTime.class) {
-            return LocalDateTime.parse(value);
+            converter = LocalDateTime::parse;
         } else if (clazz == LocalTime.class) {
-            return LocalTime.parse(value);
+            converter = LocalTime::parse;
         } else if (clazz == BigDecimal.class) {
-            return new BigDecimal(value);
+            converter = BigDecimal::new;
         } else if (clazz == BigInteger.class) {
-            return new BigInteger(value);
+            converter = BigInteger::new;
         } else if (Enum.class.isAssignableFrom(clazz)) {
-            return Enum.valueOf((Class<Enum>) clazz, value);
+            converter = x -> Enum.valueOf((Class<Enum>) clazz, x);
         } else {
-            return value;
+            // String and anything else is taken as it is
+            converter = x -> x;
         }
-    }
 
-    private GroupBy normalizeGroupBy(Class<?> viewEntityClazz, DynaQueryRequest.GroupBy groupBy) {
-        return groupBy == null ? null :
-            GroupBy.of(
-                groupBy.getFields(),
-                Aggregator.of(
-                        groupBy.getAggregator().getField(),
-                        AggregateOperator.valueOf(groupBy.getAggregator().getOperator()),
-                        groupBy.getAggregator().getAlias()
-                ),
-                this.normalizeFilter(viewEntityClazz, groupBy.getHaving())
-            );
+        return value -> value == null ? null : converter.apply(value);
     }
 
-    private List<OrderBy> normalizeOrderBy(Class<?> viewEntityClazz, List<DynaQueryRequest.OrderBy> orderBys) {
-        List<OrderBy> orders = new ArrayList<>();
-        if (orderBys == null || orderBys.isEmpty()) return orders;
-
-        for (DynaQueryRequest.OrderBy orderBy : orderBys) {
-            OrderBy order = OrderBy.of(orderBy.getField(), SortingOperator.valueOf(orderBy.getOperator()), orderBy.getSequence());
-            orders.add(order);
-        }
+    private GroupBy normalizeGroupBy(ViewEntityDescriptor descriptor, DynaQueryRequest.GroupBy groupBy, List<AbstractDynaQueryException> errors) {
+        if (groupBy == null) return null;
 
-        return orders;
-    }
+        List<String> fields = groupBy.getFields() == null ? Collections.emptyList() : groupBy.getFields();
+        fields.forEach(x -> this.isField(descriptor, x, errors));
 
-    private void validate(DynaQueryRequest dynaQueryRequest) {
-        String targetView = dynaQueryRequest.getTargetView();
-        if (!this.viewEntityRegistry.isSupported(targetView)) {
-            throw new InvalidViewEntityException(targetView);
+        List<DynaQueryRequest.GroupBy.Aggregator> sourceAggregators = aggregatorsOf(groupBy);
+        if (sourceAggregators.isEmpty()) {
+            errors.add(new UnsupportedAggregateOperatorException("Group by needs at least one aggregator."));
         }
 
-        Class<? extends ViewEntity> viewEntityClazz = this.viewEntityRegistry.getViewEntityClass(targetView);
-        this.validateFilter(viewEntityClazz, dynaQueryRequest.getFilter());
-        this.validateGroupBy(viewEntityClazz, dynaQueryRequest.getGroup());
-        this.validateOrderBys(viewEntityClazz, dynaQueryRequest.getOrders());
-        this.validateProjectBys(viewEntityClazz, dynaQueryRequest.getProjections());
-    }
-
-    private void validateFilter(Class<?> viewEntityClazz, DynaQueryRequest.Filter sourcefilter) {
-        if (sourcefilter == null) return;
-
-        if (sourcefilter instanceof DynaQueryRequest.CompositeFilter) {
-            for (DynaQueryRequest.Filter filter : ((DynaQueryRequest.CompositeFilter) sourcefilter).getFilters()) {
-                this.validateFilter(viewEntityClazz, filter);
+        // Aliases name the columns of a row next to the group fields, so they must all differ.
+        Set<String> columns = new HashSet<>(fields);
+        List<Aggregator> aggregators = new ArrayList<>(sourceAggregators.size());
+        for (DynaQueryRequest.GroupBy.Aggregator sourceAggregator : sourceAggregators) {
+            Aggregator aggregator = this.normalizeAggregator(descriptor, sourceAggregator, errors);
+            if (aggregator != null && !columns.add(aggregator.getAlias())) {
+                errors.add(new InvalidFieldAliasException(aggregator.getAlias(), "is already taken by another column"));
             }
-        } else {
-            DynaQueryRequest.SimpleFilter simpleFilter = (DynaQueryRequest.SimpleFilter)sourcefilter;
-            this.validateFieldName(viewEntityClazz, simpleFilter.getField());
+            aggregators.add(aggregator);
+        }
 
-            try {
-                FilterOperator.valueOf(simpleFilter.getOperator());
-            } catch (IllegalArgumentException ex) {
-                throw new UnsupportedFilterOperatorException(simpleFilter.getField(), simpleFilter.getOperator());
-            }
+        return GroupBy.of(
+                Collections.unmodifiableList(new ArrayList<>(fields)),
+                Collections.unmodifiableList(aggregators),
+                this.normalizeFilter(descriptor, groupBy.getHaving(), errors),
+                groupingSetsOf(groupBy, fields, errors)
+        );
+    }
 
-            //TODO: Validate allowed Operator for different data type. e.g. LT, GT are only allowed on numbers.
+    private static List<DynaQueryRequest.GroupBy.Aggregator> aggregatorsOf(DynaQueryRequest.GroupBy groupBy) {
+        List<DynaQueryRequest.GroupBy.Aggregator> aggregators = new ArrayList<>();
+        if (groupBy.getAggregator() != null) {
+            aggregators.add(groupBy.getAggregator());
+        }
+        if (groupBy.getAggregators() != null) {
+            aggregators.addAll(groupBy.getAggregators());
         }
-    }
 
-    private void validateGroupBy(Class<?> viewEntityClazz, DynaQueryRequest.GroupBy groupBy) {
-        if (groupBy == null) return;
+        return aggregators;
+    }
 
-        groupBy.getFields().forEach(x -> this.validateFieldName(viewEntityClazz, x));
+    // Null if the aggregator has errors
+    private Aggregator normalizeAggregator(ViewEntityDescriptor descriptor, DynaQueryRequest.GroupBy.Aggregator aggregator, List<AbstractDynaQueryException> errors) {
+        boolean isField = this.isField(descriptor, aggregator.getField(), errors);
 
         AggregateOperator operator;
         try {
-            operator = AggregateOperator.valueOf(groupBy.getAggregator().getOperator());
-        } catch (IllegalArgumentException ex) {
+            operator = AggregateOperator.valueOf(aggregator.getOperator());
+        } catch (IllegalArgumentException | NullPointerException ex) {
             String message = "Unsupported aggregation operator %s on field %s.";
-            throw new UnsupportedAggregateOperatorException(String.format(message, groupBy.getAggregator().getOperator(), groupBy.getAggregator().getField()));
+            errors.add(new UnsupportedAggregateOperatorException(String.format(message, aggregator.getOperator(), aggregator.getField())));
+            operator = null;
         }
 
-        if (groupBy.getAggregator().getAlias() == null || groupBy.getAggregator().getAlias().isEmpty()) {
-            throw new InvalidFieldAliasException(groupBy.getAggregator().getField());
+        boolean hasAlias = aggregator.getAlias() != null && !aggregator.getAlias().isEmpty();
+        if (!hasAlias) {
+            errors.add(new InvalidFieldAliasException(aggregator.getField()));
         }
 
-        if (operator.equals(AggregateOperator.COUNT)) return;
+        if (!isField || operator == null || !hasAlias) {
+            return null;
+        }
 
-        // Can't do aggregate on field with a data type other than number.
-        if (!this.isNumber(this.viewEntityRegistry.getEntityMetaData(viewEntityClazz).get(groupBy.getAggregator().getField()))) {
+        // Counting works on values of any data type. Can't do aggregate on field with a data type other than number otherwise.
+        if (operator != AggregateOperator.COUNT && operator != AggregateOperator.COUNT_DISTINCT && !this.isNumber(descriptor.getPaths().get(aggregator.getField()))) {
             String message = "Can't do aggregation on field %s with data type other than Number";
-            throw new UnsupportedAggregateOperatorException(String.format(message, groupBy.getAggregator().getField()));
+            errors.add(new UnsupportedAggregateOperatorException(String.format(message, aggregator.getField())));
+            return null;
         }
+
+        return Aggregator.of(aggregator.getField(), operator, aggregator.getAlias());
     }
 
-    private boolean isNumber(Class<?> clazz) {
-        List<Class<?>> numericTypes = Arrays.asList(byte.class, short.class, int.class, long.class, float.class, double.class);
-        return Number.class.isAssignableFrom(clazz) || numericTypes.contains(clazz);
+    // Counts are whole numbers and averages fractions whatever they are of, a sum, minimum or maximum is of the type of its field.
+    private Class<?> aggregateTypeOf(ViewEntityDescriptor descriptor, Aggregator aggregator) {
+        switch (aggregator.getOperator()) {
+            case COUNT:
+            case COUNT_DISTINCT:
+                return Long.class;
+            case AVG:
+                return Double.class;
+            default:
+                return ClassUtils.resolvePrimitiveIfNecessary(descriptor.getPaths().get(aggregator.getField()));
+        }
     }
 
-    private void validateOrderBys(Class<?> viewEntityClazz, List<DynaQueryRequest.OrderBy> orderBys) {
-        if (orderBys == null || orderBys.isEmpty()) return;
+    // Rollup of fields a, b is grouping sets (a, b), (a), ().
+    // Every set takes its fields from the group fields, and every group field is in some set, the database refuses to select it otherwise.
+    private static List<List<String>> groupingSetsOf(DynaQueryRequest.GroupBy groupBy, List<String> fields, List<AbstractDynaQueryException> errors) {
+        if (groupBy.isRollup()) {
+            List<List<String>> groupingSets = new ArrayList<>();
+            for (int i = fields.size(); i >= 0; i--) {
+                groupingSets.add(List.copyOf(fields.subList(0, i)));
+            }
+            return Collections.unmodifiableList(groupingSets);
+        }
 
-        for (DynaQueryRequest.OrderBy order : orderBys) {
-            this.validateFieldName(viewEntityClazz, order.getField());
+        if (groupBy.getGroupingSets() == null) {
+            return null;
+        }
+        if (groupBy.getGroupingSets().isEmpty()) {
+            errors.add(new InvalidGroupingSetsException("no grouping set is given"));
+            return null;
+        }
 
-            try {
-                SortingOperator.valueOf(order.getOperator());
-            } catch (IllegalArgumentException ex) {
-                throw new UnsupportedSortingOperatorException(order.getField(), order.getOperator());
+        Set<String> grouped = new HashSet<>();
+        List<List<String>> groupingSets = new ArrayList<>();
+        for (List<String> groupingSet : groupBy.getGroupingSets()) {
+            for (String field : groupingSet) {
+                if (!fields.contains(field)) {
+                    errors.add(new InvalidGroupingSetsException(String.format("%s is not one of the group fields", field)));
+                }
+                grouped.add(field);
             }
+            groupingSets.add(Collections.unmodifiableList(new ArrayList<>(groupingSet)));
         }
+
+        fields.stream().filter(x -> !grouped.contains(x)).findFirst().ifPresent(x ->
+            errors.add(new InvalidGroupingSetsException(String.format("%s is in no grouping set", x))));
+
+        return Collections.unmodifiableList(groupingSets);
     }
 
-    private void validateProjectBys(Class<?> viewEntityClazz, List<DynaQueryRequest.ProjectBy> projectBIES) {
-        if (projectBIES == null || projectBIES.isEmpty()) return;
+    private List<OrderBy> normalizeOrderBy(ViewEntityDescriptor descriptor, List<DynaQueryRequest.OrderBy> orderBys, List<AbstractDynaQueryException> errors) {
+        if (orderBys == null || orderBys.isEmpty()) return Collections.emptyList();
 
-        for (DynaQueryRequest.ProjectBy project : projectBIES) {
-            this.validateFieldName(viewEntityClazz, project.getField());
+        List<OrderBy> orders = new ArrayList<>(orderBys.size());
+        for (DynaQueryRequest.OrderBy orderBy : orderBys) {
+            boolean isField = this.isField(descriptor, orderBy.getField(), errors);
+
+            try {
+                SortingOperator operator = SortingOperator.valueOf(orderBy.getOperator());
+                if (isField) {
+                    orders.add(OrderBy.of(orderBy.getField(), operator, orderBy.getSequence()));
+                }
+            } catch (IllegalArgumentException | NullPointerException ex) {
+                errors.add(new UnsupportedSortingOperatorException(orderBy.getField(), orderBy.getOperator()));
+            }
         }
+
+        // In the order they apply
+        orders.sort(Comparator.comparingInt(OrderBy::getSequence));
+        return Collections.unmodifiableList(orders);
     }
 
-    private void validateFieldName(Class<?> viewEntityClazz, String fieldName) {
-        if (!this.viewEntityRegistry.isRegistered(viewEntityClazz)) {
-            throw new InvalidViewEntityException(viewEntityClazz.getSimpleName());
-        }
+    private boolean isNumber(Class<?> clazz) {
+        List<Class<?>> numericTypes = Arrays.asList(byte.class, short.class, int.class, long.class, float.class, double.class);
+        return Number.class.isAssignableFrom(clazz) || numericTypes.contains(clazz);
+    }
 
-        if (!this.viewEntityRegistry.getEntityMetaData(viewEntityClazz).containsKey(fieldName)) {
-            throw new FailedToFindFieldInViewEntityClassException(viewEntityClazz.getSimpleName(), fieldName);
+    private boolean isField(ViewEntityDescriptor descriptor, String fieldName, List<AbstractDynaQueryException> errors) {
+        if (!descriptor.getPaths().containsKey(fieldName)) {
+            errors.add(new FailedToFindFieldInViewEntityClassException(descriptor.getName(), fieldName));
+            return false;
         }
+
+        return true;
     }
 }
@@ -0,0 +1,361 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.model.*;
+
+import java.time.temporal.Temporal;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Simplifies the filters of a normalized query before it is converted, so that equivalent filters share a plan
+ * and the database gets fewer predicates to plan:
+ * composites are flattened and deduplicated, EQs and INs of a field under an OR merge into one IN,
+ * predicates of a field under an AND merge into the tightest range (a BETWEEN when both bounds are inclusive),
+ * and predicates are sorted, so their order in the request doesn't matter.
+ * TRUE is an AND of nothing and FALSE an OR of nothing, the same as the criteria builder takes them.
+ * A query whose filter is FALSE is answered without a statement, see isEmpty.
+ */
+public class DynaQueryOptimizer {
+    private static final CompositeFilter TRUE = CompositeFilter.of(Collections.emptyList(), FilterConnector.AND);
+    private static final CompositeFilter FALSE = CompositeFilter.of(Collections.emptyList(), FilterConnector.OR);
+
+    private static final Set<FilterOperator> LOWER_BOUNDS = EnumSet.of(FilterOperator.GT, FilterOperator.GE, FilterOperator.BETWEEN);
+    private static final Set<FilterOperator> UPPER_BOUNDS = EnumSet.of(FilterOperator.LT, FilterOperator.LE, FilterOperator.BETWEEN);
+
+    private final DynaQueryMetrics dynaQueryMetrics;
+    public DynaQueryOptimizer(DynaQueryMetrics dynaQueryMetrics) {
+        this.dynaQueryMetrics = dynaQueryMetrics;
+    }
+
+    // Optimize timed as a stage of the operation. The query given is left as it is, it may be a saved query managed by JPA.
+    public DynaQuery optimize(DynaQuery dynaQuery, String operation) {
+        GroupBy groupBy = dynaQuery.getGroupBy();
+        if (dynaQuery.getFilter() == null && (groupBy == null || groupBy.getHaving() == null)) {
+            return dynaQuery;
+        }
+
+        return this.dynaQueryMetrics.stage("optimize", dynaQuery.getTargetView(), operation, () -> {
+            DynaQuery optimized = new DynaQuery(dynaQuery.getProjectBys(), optimize(dynaQuery.getFilter()),
+                    groupBy == null ? null : GroupBy.of(groupBy.getFields(), groupBy.getAggregators(), optimize(groupBy.getHaving()), groupBy.getGroupingSets()),
+                    dynaQuery.getOrderBys());
+            optimized.setId(dynaQuery.getId());
+            optimized.setName(dynaQuery.getName());
+            optimized.setTargetView(dynaQuery.getTargetView());
+            optimized.setIsDefault(dynaQuery.getIsDefault());
+            return optimized;
+        });
+    }
+
+    // Null when the filter always holds
+    static Filter optimize(Filter filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        Filter optimized = simplify(filter);
+        return isTrue(optimized) ? null : optimized;
+    }
+
+    // A query selecting no row at all. A grand total is still a row when there is nothing to aggregate, so is left to the database.
+    static boolean isEmpty(DynaQuery dynaQuery) {
+        GroupBy groupBy = dynaQuery.getGroupBy();
+        return isFalse(dynaQuery.getFilter()) &&
+                (groupBy == null || groupBy.getGroupingSets() == null || groupBy.getGroupingSets().stream().noneMatch(List::isEmpty));
+    }
+
+    private static boolean isTrue(Filter filter) {
+        return filter instanceof CompositeFilter && ((CompositeFilter) filter).getFilters().isEmpty() && ((CompositeFilter) filter).getConnector() == FilterConnector.AND;
+    }
+
+    // Any connector but AND is converted to an OR
+    private static boolean isFalse(Filter filter) {
+        return filter instanceof CompositeFilter && ((CompositeFilter) filter).getFilters().isEmpty() && ((CompositeFilter) filter).getConnector() != FilterConnector.AND;
+    }
+
+    private static Filter simplify(Filter filter) {
+        if (filter instanceof SimpleFilter) {
+            return simplify((SimpleFilter) filter);
+        } else if (filter instanceof CompositeFilter) {
+            return simplify((CompositeFilter) filter);
+        }
+
+        // Aggregator filters are kept as they are
+        return filter;
+    }
+
+    private static Filter simplify(SimpleFilter simpleFilter) {
+        List<Object> values = simpleFilter.getValues();
+        switch (simpleFilter.getFilterOperator()) {
+            case IN:
+            case NOTIN:
+                boolean in = simpleFilter.getFilterOperator() == FilterOperator.IN;
+                Collection<Object> distinct = valueSetOf(values);
+                if (distinct.isEmpty()) {
+                    return in ? FALSE : TRUE;
+                }
+                return leafOf(simpleFilter.getField(), in ? FilterOperator.IN : FilterOperator.NOTIN, in ? FilterOperator.EQ : FilterOperator.NE, distinct);
+            case BETWEEN:
+                if (values != null && values.size() == 2 && isOrdered(values.get(0), values.get(1)) && compare(values.get(0), values.get(1)) > 0) {
+                    return FALSE;
+                }
+                return simpleFilter;
+            default:
+                return simpleFilter;
+        }
+    }
+
+    private static Filter simplify(CompositeFilter compositeFilter) {
+        FilterConnector connector = compositeFilter.getConnector() == FilterConnector.AND ? FilterConnector.AND : FilterConnector.OR;
+
+        // An AND of ANDs is one AND, so is an OR of ORs. TRUE in an AND and FALSE in an OR are composites of nothing, so they go too.
+        List<Filter> filters = new ArrayList<>();
+        for (Filter child : compositeFilter.getFilters()) {
+            Filter simplified = simplify(child);
+            if (simplified instanceof CompositeFilter && ((CompositeFilter) simplified).getConnector() == connector) {
+                filters.addAll(((CompositeFilter) simplified).getFilters());
+            } else if (connector == FilterConnector.AND ? isFalse(simplified) : isTrue(simplified)) {
+                return simplified;
+            } else {
+                filters.add(simplified);
+            }
+        }
+
+        filters = new ArrayList<>(new LinkedHashSet<>(filters));
+        filters = connector == FilterConnector.AND ? mergeBounds(filters) : mergeEquals(filters);
+        if (filters == null) {
+            return FALSE;
+        }
+
+        filters = new ArrayList<>(new LinkedHashSet<>(filters));
+        filters.sort(Comparator.comparing(DynaQueryOptimizer::sortKeyOf));
+        return filters.size() == 1 ? filters.get(0) : CompositeFilter.of(filters, connector);
+    }
+
+    // EQs and INs of a field under an OR are one IN of all their values
+    private static List<Filter> mergeEquals(List<Filter> filters) {
+        Map<String, List<SimpleFilter>> equalsByField = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            if (isEquals(filter)) {
+                equalsByField.computeIfAbsent(((SimpleFilter) filter).getField(), x -> new ArrayList<>()).add((SimpleFilter) filter);
+            }
+        }
+
+        List<Filter> merged = new ArrayList<>();
+        for (Filter filter : filters) {
+            if (!isEquals(filter)) {
+                merged.add(filter);
+                continue;
+            }
+
+            // In place of the first of them
+            List<SimpleFilter> equals = equalsByField.remove(((SimpleFilter) filter).getField());
+            if (equals != null) {
+                List<Object> values = equals.stream().flatMap(x -> x.getValues().stream()).collect(Collectors.toList());
+                merged.add(leafOf(((SimpleFilter) filter).getField(), FilterOperator.IN, FilterOperator.EQ, valueSetOf(values)));
+            }
+        }
+
+        return merged;
+    }
+
+    // Predicates of a field under an AND are intersected. Null when they contradict each other.
+    private static List<Filter> mergeBounds(List<Filter> filters) {
+        Map<String, List<SimpleFilter>> mergeableByField = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            if (isMergeable(filter)) {
+                mergeableByField.computeIfAbsent(((SimpleFilter) filter).getField(), x -> new ArrayList<>()).add((SimpleFilter) filter);
+            }
+        }
+
+        List<Filter> merged = new ArrayList<>();
+        for (Filter filter : filters) {
+            if (!isMergeable(filter)) {
+                merged.add(filter);
+                continue;
+            }
+
+            // In place of the first of them
+            List<SimpleFilter> mergeable = mergeableByField.remove(((SimpleFilter) filter).getField());
+            if (mergeable == null) {
+                continue;
+            }
+            if (mergeable.size() == 1) {
+                merged.add(filter);
+                continue;
+            }
+            List<Filter> intersection = intersect(((SimpleFilter) filter).getField(), mergeable);
+            if (intersection == null) {
+                return null;
+            }
+            merged.addAll(intersection);
+        }
+
+        return merged;
+    }
+
+    private static List<Filter> intersect(String field, List<SimpleFilter> filters) {
+        Collection<Object> allowed = null;
+        List<Object> excluded = new ArrayList<>();
+        Object lower = null, upper = null;
+        boolean lowerInclusive = true, upperInclusive = true;
+        for (SimpleFilter filter : filters) {
+            FilterOperator operator = filter.getFilterOperator();
+            if (isEquals(filter)) {
+                Collection<Object> values = valueSetOf(filter.getValues());
+                if (allowed == null) {
+                    allowed = values;
+                } else {
+                    allowed.retainAll(values);
+                }
+                continue;
+            }
+            if (isExcluding(filter)) {
+                excluded.addAll(filter.getValues());
+                continue;
+            }
+
+            // The larger lower bound, exclusive over inclusive when they are equal
+            if (LOWER_BOUNDS.contains(operator)) {
+                Object value = filter.getValues().get(0);
+                int comparison = lower == null ? 1 : compare(value, lower);
+                if (comparison > 0 || (comparison == 0 && operator == FilterOperator.GT)) {
+                    lower = value;
+                    lowerInclusive = operator != FilterOperator.GT;
+                }
+            }
+            if (UPPER_BOUNDS.contains(operator)) {
+                Object value = filter.getValues().get(operator == FilterOperator.BETWEEN ? 1 : 0);
+                int comparison = upper == null ? -1 : compare(value, upper);
+                if (comparison < 0 || (comparison == 0 && operator == FilterOperator.LT)) {
+                    upper = value;
+                    upperInclusive = operator != FilterOperator.LT;
+                }
+            }
+        }
+
+        // Values to pick from, those out of the bounds or excluded are dropped
+        if (allowed != null) {
+            allowed.removeAll(excluded);
+            Object lowerBound = lower, upperBound = upper;
+            boolean lowerBoundInclusive = lowerInclusive, upperBoundInclusive = upperInclusive;
+            allowed.removeIf(x -> (lowerBound != null && (lowerBoundInclusive ? compare(x, lowerBound) < 0 : compare(x, lowerBound) <= 0)) ||
+                    (upperBound != null && (upperBoundInclusive ? compare(x, upperBound) > 0 : compare(x, upperBound) >= 0)));
+            return allowed.isEmpty() ? null : Collections.singletonList(leafOf(field, FilterOperator.IN, FilterOperator.EQ, allowed));
+        }
+
+        List<Filter> merged = filters.stream().filter(DynaQueryOptimizer::isExcluding).collect(Collectors.toList());
+        if (lower != null && upper != null) {
+            int comparison = compare(lower, upper);
+            if (comparison > 0 || (comparison == 0 && !(lowerInclusive && upperInclusive))) {
+                return null;
+            }
+            if (comparison == 0) {
+                merged.add(SimpleFilter.of(field, FilterOperator.EQ, Collections.singletonList(lower)));
+                return merged;
+            }
+            if (lowerInclusive && upperInclusive) {
+                merged.add(SimpleFilter.of(field, FilterOperator.BETWEEN, Arrays.asList(lower, upper)));
+                return merged;
+            }
+        }
+        if (lower != null) {
+            merged.add(SimpleFilter.of(field, lowerInclusive ? FilterOperator.GE : FilterOperator.GT, Collections.singletonList(lower)));
+        }
+        if (upper != null) {
+            merged.add(SimpleFilter.of(field, upperInclusive ? FilterOperator.LE : FilterOperator.LT, Collections.singletonList(upper)));
+        }
+
+        return merged;
+    }
+
+    private static boolean isMergeable(Filter filter) {
+        return isEquals(filter) || isExcluding(filter) || isBound(filter);
+    }
+
+    // EQ or IN of values a field can equal, null never equals anything
+    private static boolean isEquals(Filter filter) {
+        return filter instanceof SimpleFilter && hasValues((SimpleFilter) filter, FilterOperator.EQ, FilterOperator.IN) &&
+                ((SimpleFilter) filter).getValues().stream().allMatch(Objects::nonNull);
+    }
+
+    private static boolean isExcluding(Filter filter) {
+        return filter instanceof SimpleFilter && hasValues((SimpleFilter) filter, FilterOperator.NE, FilterOperator.NOTIN) &&
+                ((SimpleFilter) filter).getValues().stream().allMatch(Objects::nonNull);
+    }
+
+    // Only numbers and dates are compared, the database may order strings by a collation of its own.
+    private static boolean isBound(Filter filter) {
+        if (!(filter instanceof SimpleFilter)) {
+            return false;
+        }
+
+        SimpleFilter simpleFilter = (SimpleFilter) filter;
+        if (simpleFilter.getFilterOperator() == FilterOperator.BETWEEN) {
+            return hasValues(simpleFilter, FilterOperator.BETWEEN) && simpleFilter.getValues().size() == 2 &&
+                    isOrdered(simpleFilter.getValues().get(0), simpleFilter.getValues().get(1));
+        }
+
+        return (LOWER_BOUNDS.contains(simpleFilter.getFilterOperator()) || UPPER_BOUNDS.contains(simpleFilter.getFilterOperator())) &&
+                hasValues(simpleFilter, simpleFilter.getFilterOperator()) && isOrdered(simpleFilter.getValues().get(0));
+    }
+
+    private static boolean hasValues(SimpleFilter simpleFilter, FilterOperator... operators) {
+        return Arrays.asList(operators).contains(simpleFilter.getFilterOperator()) && simpleFilter.getValues() != null && !simpleFilter.getValues().isEmpty();
+    }
+
+    private static boolean isOrdered(Object... values) {
+        Class<?> clazz = values[0] == null ? null : values[0].getClass();
+        return Arrays.stream(values).allMatch(x -> (x instanceof Number || x instanceof Temporal) && x instanceof Comparable && x.getClass() == clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object other) {
+        return ((Comparable<Object>) value).compareTo(other);
+    }
+
+    // Distinct values, sorted when they can be. Sorted values compare by compareTo, so 1.0 and 1.00 are the same decimal.
+    private static Collection<Object> valueSetOf(List<Object> values) {
+        if (values == null) {
+            return new LinkedHashSet<>();
+        }
+
+        Class<?> clazz = values.isEmpty() || values.get(0) == null ? null : values.get(0).getClass();
+        boolean sortable = values.stream().allMatch(x -> x instanceof Comparable && x.getClass() == clazz);
+        Collection<Object> valueSet = sortable ? new TreeSet<>() : new LinkedHashSet<>();
+        valueSet.addAll(values);
+        return valueSet;
+    }
+
+    // An IN of a single value is an EQ, a NOT IN of one a NE.
+    private static SimpleFilter leafOf(String field, FilterOperator operator, FilterOperator singleOperator, Collection<Object> values) {
+        return values.size() == 1 ?
+                SimpleFilter.of(field, singleOperator, new ArrayList<>(values)) :
+                SimpleFilter.of(field, operator, new ArrayList<>(values));
+    }
+
+    // Sorted by shape first, so that filters differ only in their values keep the same order and share a plan.
+    private static String sortKeyOf(Filter filter) {
+        StringBuilder shape = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        appendSortKey(shape, values, filter);
+        return shape.append('|').append(values).toString();
+    }
+
+    private static void appendSortKey(StringBuilder shape, StringBuilder values, Filter filter) {
+        if (filter instanceof CompositeFilter) {
+            shape.append('(').append(((CompositeFilter) filter).getConnector());
+            ((CompositeFilter) filter).getFilters().forEach(x -> appendSortKey(shape, values, x));
+            shape.append(')');
+        } else if (filter instanceof SimpleFilter) {
+            SimpleFilter simpleFilter = (SimpleFilter) filter;
+            shape.append('[').append(simpleFilter.getField()).append(' ').append(simpleFilter.getFilterOperator()).append(']');
+            values.append(simpleFilter.getValues()).append(',');
+        } else if (filter instanceof AggregatorFilter) {
+            AggregatorFilter aggregatorFilter = (AggregatorFilter) filter;
+            Aggregator aggregator = aggregatorFilter.getAggregator();
+            shape.append('[').append(aggregator.getOperator()).append(' ').append(aggregator.getField()).append(' ').append(aggregatorFilter.getFilterOperator()).append(']');
+            values.append(aggregatorFilter.getValues()).append(',');
+        }
+    }
+}
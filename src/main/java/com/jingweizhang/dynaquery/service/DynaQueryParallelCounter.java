@@ -0,0 +1,172 @@
+package com.jingweizhang.dynaquery.service;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * @Description
+ * Counts on a second connection, in a read-only transaction of its own, while the content query runs on the caller's,
+ * so a page takes as long as the slower of the two instead of both. The count is cancelled on the database
+ * when the content turns out to tell the total by itself, an empty or a last page.
+ * No thread waits for a free one of the pool, a count finding none is counted after the content as usual.
+ */
+public class DynaQueryParallelCounter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryParallelCounter.class);
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ThreadPoolExecutor threadPool;
+    // Repeats the cancel of counts no longer needed, until they stop
+    private final ScheduledExecutorService canceller;
+
+    public DynaQueryParallelCounter(EntityManager entityManager, TransactionTemplate readOnlyTransaction, int threads) {
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = readOnlyTransaction;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "dyna-query-count-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.threadPool.allowCoreThreadTimeOut(true);
+
+        this.canceller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dyna-query-count-canceller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // The count must query by the shared entity manager, which is bound to the transaction of the counting thread.
+    // Null when every thread is busy.
+    public PendingCount start(LongSupplier count) {
+        PendingCount pendingCount = new PendingCount(this.canceller);
+        FutureTask<Long> task = new FutureTask<>(() -> {
+            // Claimed by the caller already, counting by itself or no longer needing the count.
+            if (!pendingCount.state.compareAndSet(PendingCount.NOT_STARTED, PendingCount.RUNNING)) {
+                return null;
+            }
+
+            try {
+                return this.readOnlyTransaction.execute(status -> {
+                    // The session itself, the shared entity manager would resolve to the session of the cancelling thread.
+                    pendingCount.session.set((Session) this.entityManager.getDelegate());
+                    // Cancelled before the session was seen, the count is not started at all.
+                    if (pendingCount.cancelled) {
+                        return null;
+                    }
+                    return count.getAsLong();
+                });
+            } finally {
+                pendingCount.session.set(null);
+                pendingCount.state.set(PendingCount.DONE);
+                pendingCount.stopCancelling();
+            }
+        });
+        pendingCount.future = task;
+
+        try {
+            this.threadPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return pendingCount;
+    }
+
+    @Override
+    public void close() {
+        this.threadPool.shutdownNow();
+        this.canceller.shutdownNow();
+    }
+
+    static class PendingCount {
+        private static final int NOT_STARTED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final long CANCEL_INTERVAL_MILLIS = 20;
+
+        // Set to running by the counting thread only, to done by whichever of it and the caller is the last to touch the count.
+        private final AtomicInteger state = new AtomicInteger(NOT_STARTED);
+        private final AtomicReference<Session> session = new AtomicReference<>();
+        private final ScheduledExecutorService canceller;
+        private volatile boolean cancelled;
+        private volatile Future<?> cancelling;
+        private Future<Long> future;
+
+        PendingCount(ScheduledExecutorService canceller) {
+            this.canceller = canceller;
+        }
+
+        // A count not yet started by now is counted by the caller, instead of waiting for it to start.
+        // A running one is waited for, so the count is never run twice.
+        public long join(LongSupplier count) {
+            if (this.state.compareAndSet(NOT_STARTED, DONE)) {
+                return count.getAsLong();
+            }
+
+            try {
+                return this.future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel();
+                throw new IllegalStateException("Interrupted while counting", e);
+            }
+        }
+
+        // Without effect once the count is done. Does not wait for a running count to stop.
+        // A database cancels a statement only while it executes, so one about to start would miss a single cancel,
+        // the cancel is repeated until the count is done.
+        public void cancel() {
+            this.cancelled = true;
+            if (this.state.compareAndSet(NOT_STARTED, DONE) || this.state.get() != RUNNING) {
+                return;
+            }
+
+            this.cancelQuery();
+            try {
+                this.cancelling = this.canceller.scheduleWithFixedDelay(this::cancelQuery, CANCEL_INTERVAL_MILLIS, CANCEL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closing
+            }
+        }
+
+        private void cancelQuery() {
+            if (this.state.get() != RUNNING) {
+                this.stopCancelling();
+                return;
+            }
+
+            // Null until the counting thread has its session, it then sees the flag and does not count.
+            Session session = this.session.get();
+            if (session != null) {
+                try {
+                    // The only method of a session safe to call from another thread, it cancels the running statement.
+                    session.cancelQuery();
+                } catch (RuntimeException e) {
+                    logger.debug("Failed to cancel count", e);
+                }
+            }
+        }
+
+        private void stopCancelling() {
+            Future<?> cancelling = this.cancelling;
+            if (cancelling != null) {
+                cancelling.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.vladmihalcea.hibernate.type.array.*;
+import org.hibernate.type.Type;
+import org.springframework.util.NumberUtils;
+
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * A compiled, parameterized DynaQuery.
+ * Criteria queries held here carry no literal, so they can be shared by every DynaQuery of the same shape.
+ * And Hibernate renders them to the same JPQL, which lets its own query plan cache skip parsing as well.
+ * A parameter of an array type takes a list of values as a single SQL array, see DynaQueryAnyFunction.
+ */
+class DynaQueryPlan<R> {
+    private static final Map<Class<?>, Type> ARRAY_TYPES = Map.of(
+            String.class, StringArrayType.INSTANCE,
+            Long.class, LongArrayType.INSTANCE,
+            Integer.class, IntArrayType.INSTANCE,
+            Double.class, DoubleArrayType.INSTANCE,
+            BigDecimal.class, DecimalArrayType.INSTANCE,
+            Boolean.class, BooleanArrayType.INSTANCE,
+            UUID.class, UUIDArrayType.INSTANCE,
+            LocalDate.class, LocalDateArrayType.INSTANCE,
+            LocalDateTime.class, LocalDateTimeArrayType.INSTANCE);
+
+    private final CriteriaQuery<R> contentQuery;
+    private final CriteriaQuery<Long> countQuery;
+    private final List<Class<?>> parameterTypes;
+
+    public DynaQueryPlan(CriteriaQuery<R> contentQuery, CriteriaQuery<Long> countQuery, List<Class<?>> parameterTypes) {
+        this.contentQuery = contentQuery;
+        this.countQuery = countQuery;
+        this.parameterTypes = parameterTypes;
+    }
+
+    public CriteriaQuery<R> getContentQuery() {
+        return contentQuery;
+    }
+
+    public CriteriaQuery<Long> getCountQuery() {
+        return countQuery;
+    }
+
+    public <T> TypedQuery<T> bind(TypedQuery<T> query, List<Object> parameters) {
+        if (parameters.size() != this.parameterTypes.size()) {
+            throw new IllegalStateException(String.format("Query plan expects %d parameters but got %d", this.parameterTypes.size(), parameters.size()));
+        }
+
+        for (int i = 0; i < parameters.size(); i++) {
+            String name = DynaQueryExecutor.CriteriaQueryConverter.parameterName(i);
+            Class<?> type = this.parameterTypes.get(i);
+            if (type.isArray()) {
+                // JPA can't tell the SQL type of an array, Hibernate is given it.
+                query.unwrap(org.hibernate.query.Query.class).setParameter(name, this.toArray(type.getComponentType(), (Collection<?>) parameters.get(i)), ARRAY_TYPES.get(type.getComponentType()));
+            } else {
+                query.setParameter(name, this.coerce(type, parameters.get(i)));
+            }
+        }
+
+        return query;
+    }
+
+    // Whether a list of values of the type can be bound as a single array parameter
+    public static boolean isArrayBindable(Class<?> type) {
+        return ARRAY_TYPES.containsKey(type);
+    }
+
+    // Hibernate type of an array of the element type, null if it isn't bound as an array
+    static Type arrayTypeOf(Class<?> type) {
+        return ARRAY_TYPES.get(type);
+    }
+
+    private Object toArray(Class<?> componentType, Collection<?> values) {
+        Object array = Array.newInstance(componentType, values.size());
+        int i = 0;
+        for (Object value : values) {
+            Array.set(array, i++, this.coerce(componentType, value));
+        }
+        return array;
+    }
+
+    // Criteria API used to convert literals to the type of the expression they compared with. Parameters don't, so do it here.
+    private Object coerce(Class<?> type, Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().map(x -> this.coerce(type, x)).collect(Collectors.toList());
+        }
+
+        if (value == null || !Number.class.isAssignableFrom(type) || type.isInstance(value)) {
+            return value;
+        }
+
+        Class<? extends Number> numberType = (Class<? extends Number>) type;
+        return value instanceof Number ?
+                NumberUtils.convertNumberToTargetClass((Number) value, numberType) :
+                NumberUtils.parseNumber(value.toString(), numberType);
+    }
+}
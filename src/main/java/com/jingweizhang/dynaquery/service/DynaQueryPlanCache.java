@@ -0,0 +1,36 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.jingweizhang.dynaquery.dto.DynaQueryCacheStatistics;
+
+import java.util.function.Function;
+
+/**
+ * @Description
+ * Bounded cache of compiled query plans keyed by result type and DynaQuery shape.
+ */
+public class DynaQueryPlanCache {
+    private final Cache<String, DynaQueryPlan<?>> plans;
+
+    public DynaQueryPlanCache(long maximumSize) {
+        this.plans = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public <R> DynaQueryPlan<R> get(Class<R> resultClazz, DynaQueryFingerprint fingerprint, Function<String, DynaQueryPlan<R>> compiler) {
+        return (DynaQueryPlan<R>) this.plans.get(resultClazz.getName() + '#' + fingerprint.getShape(), compiler);
+    }
+
+    public void clear() {
+        this.plans.invalidateAll();
+    }
+
+    public DynaQueryCacheStatistics getStatistics() {
+        CacheStats stats = this.plans.stats();
+        return new DynaQueryCacheStatistics(stats.hitCount(), stats.missCount(), stats.evictionCount(), this.plans.estimatedSize());
+    }
+}
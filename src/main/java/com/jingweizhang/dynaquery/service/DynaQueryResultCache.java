@@ -0,0 +1,88 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.jingweizhang.dynaquery.dto.DynaQueryCacheStatistics;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * @Description
+ * Pages of saved queries keyed by saved query id, page number and page size.
+ * Each entry lives as long as the TTL of its view. Concurrent misses of the same key wait for the one loading it,
+ * so a popular saved query hits the database once per expiry, not once per caller.
+ */
+public class DynaQueryResultCache {
+    private final Cache<List<Integer>, Result> results;
+
+    public DynaQueryResultCache(long maximumSize, Function<String, Duration> ttlOfView) {
+        this.results = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<List<Integer>, Result>() {
+                    @Override
+                    public long expireAfterCreate(List<Integer> key, Result result, long currentTime) {
+                        return ttlOfView.apply(result.getTargetView()).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(List<Integer> key, Result result, long currentTime, long currentDuration) {
+                        return ttlOfView.apply(result.getTargetView()).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(List<Integer> key, Result result, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public Page<Map<String, Object>> get(int id, Pageable pageable, Supplier<Result> loader) {
+        return this.results.get(Arrays.asList(id, pageable.getPageNumber(), pageable.getPageSize()), key -> loader.get()).getPage();
+    }
+
+    public void evictSavedQuery(int id) {
+        this.results.asMap().keySet().removeIf(x -> x.get(0) == id);
+    }
+
+    public void evictView(String targetView) {
+        this.results.asMap().values().removeIf(x -> x.getTargetView().equals(targetView));
+    }
+
+    public void clear() {
+        this.results.invalidateAll();
+    }
+
+    public DynaQueryCacheStatistics getStatistics() {
+        CacheStats stats = this.results.stats();
+        return new DynaQueryCacheStatistics(stats.hitCount(), stats.missCount(), stats.evictionCount(), this.results.estimatedSize());
+    }
+
+    static class Result {
+        private final String targetView;
+        private final Page<Map<String, Object>> page;
+
+        Result(String targetView, Page<Map<String, Object>> page) {
+            this.targetView = targetView;
+            this.page = page;
+        }
+
+        public String getTargetView() {
+            return targetView;
+        }
+
+        public Page<Map<String, Object>> getPage() {
+            return page;
+        }
+    }
+}
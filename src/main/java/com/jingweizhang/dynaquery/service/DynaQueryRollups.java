@@ -0,0 +1,354 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.exception.FailedToFindFieldInViewEntityClassException;
+import com.jingweizhang.dynaquery.exception.InvalidViewEntityException;
+import com.jingweizhang.dynaquery.extension.Rollup;
+import com.jingweizhang.dynaquery.extension.RollupMeasure;
+import com.jingweizhang.dynaquery.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @Description
+ * Rollups declared by @Rollup on view entities, and the rewrite of a normalized group by query to the rollup that can answer it.
+ * A rollup can when the query only filters, groups and orders by its dimensions, and each aggregator has a measure in it:
+ * SUM and COUNT are answered by the SUM of their measure, MIN and MAX by the MIN and MAX of theirs. AVG and COUNT_DISTINCT never are.
+ * Of the rollups that can, the one of the fewest dimensions is taken, it has the fewest rows.
+ * Rollups are refreshed by their statements in a read-write transaction, every refresh interval on a thread of their own, or on demand.
+ * Only a rollup whose last successful refresh started within the maximum staleness answers queries, one never refreshed
+ * or failing to refresh for longer leaves them to the aggregated view.
+ * The start of each refresh is kept in the table dyna_query_rollups, so it survives restarts and is shared by instances:
+ * a refresh locks the rollup's row, aggregates what changed from the previous refresh's start up to its own, and moves
+ * the row on in the same transaction.
+ */
+public class DynaQueryRollups implements AutoCloseable {
+    public static final DynaQueryRollups NONE = new DynaQueryRollups();
+
+    private static final Logger logger = LoggerFactory.getLogger(DynaQueryRollups.class);
+    static final String LAST_REFRESHED = "lastRefreshed";
+    static final String REFRESHED_UNTIL = "refreshedUntil";
+    static final String WATERMARK_TABLE = "dyna_query_rollups";
+    private static final Set<AggregateOperator> MEASURE_OPERATORS = EnumSet.of(AggregateOperator.SUM, AggregateOperator.COUNT, AggregateOperator.MIN, AggregateOperator.MAX);
+
+    // Rollups of each aggregated view, fewest dimensions first
+    private final Map<String, List<RollupView>> rollupsByView;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transaction;
+    private final DynaQueryMetrics dynaQueryMetrics;
+    // Told the name of the aggregated view once one of its rollups is refreshed
+    private final Consumer<String> onRefreshed;
+    private final Map<String, Instant> lastRefreshed = new ConcurrentHashMap<>();
+    private final Duration maximumStaleness;
+    // Null when rollups are only refreshed on demand
+    private final ScheduledExecutorService refreshThread;
+
+    private DynaQueryRollups() {
+        this.rollupsByView = Collections.emptyMap();
+        this.entityManager = null;
+        this.transaction = null;
+        this.dynaQueryMetrics = DynaQueryMetrics.DISABLED;
+        this.onRefreshed = x -> {};
+        this.maximumStaleness = Duration.ZERO;
+        this.refreshThread = null;
+    }
+
+    public DynaQueryRollups(ViewEntityRegistry viewEntityRegistry, EntityManager entityManager, TransactionTemplate transaction,
+                            DynaQueryMetrics dynaQueryMetrics, Duration refreshInterval, Duration maximumStaleness, Consumer<String> onRefreshed) {
+        Map<String, List<RollupView>> rollupsByView = new HashMap<>();
+        for (ViewEntityDescriptor descriptor : viewEntityRegistry.getDescriptors()) {
+            Rollup rollup = descriptor.getEntityClazz().getAnnotation(Rollup.class);
+            if (rollup != null) {
+                RollupView rollupView = RollupView.of(descriptor, viewEntityRegistry.getDescriptor(rollup.of()), rollup);
+                rollupsByView.computeIfAbsent(rollupView.aggregatedView, x -> new ArrayList<>()).add(rollupView);
+            }
+        }
+        rollupsByView.values().forEach(x -> x.sort(Comparator.comparingInt(rollupView -> rollupView.dimensions.size())));
+
+        this.rollupsByView = Map.copyOf(rollupsByView);
+        this.entityManager = entityManager;
+        this.transaction = transaction;
+        this.dynaQueryMetrics = dynaQueryMetrics;
+        this.onRefreshed = onRefreshed;
+        this.maximumStaleness = maximumStaleness;
+        if (!rollupsByView.isEmpty()) {
+            this.loadWatermarks();
+        }
+
+        // Refreshes run one after another, the first right away.
+        this.refreshThread = refreshInterval.isZero() || rollupsByView.isEmpty() ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dyna-query-rollup-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (this.refreshThread != null) {
+            this.refreshThread.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The query on the fresh rollup answering it, the query itself when no rollup can.
+    public DynaQuery rewrite(DynaQuery dynaQuery, String operation) {
+        List<RollupView> rollupViews = this.rollupsByView.get(dynaQuery.getTargetView());
+        if (rollupViews == null || dynaQuery.getGroupBy() == null) {
+            return dynaQuery;
+        }
+
+        Instant freshSince = Instant.now().minus(this.maximumStaleness);
+        return this.dynaQueryMetrics.stage("rewrite", dynaQuery.getTargetView(), operation, () -> rollupViews.stream()
+                .filter(x -> this.isFresh(x, freshSince))
+                .map(x -> x.rewrite(dynaQuery))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(dynaQuery));
+    }
+
+    private boolean isFresh(RollupView rollupView, Instant freshSince) {
+        Instant lastRefreshed = this.lastRefreshed.get(rollupView.name);
+        return lastRefreshed != null && lastRefreshed.isAfter(freshSince);
+    }
+
+    // Refresh every rollup, one failing leaves the others refreshed.
+    public void refresh() {
+        this.rollupsByView.values().stream().flatMap(List::stream).forEach(this::refresh);
+    }
+
+    private void refresh(RollupView rollupView) {
+        // Rows written while refreshing are left to the next refresh, which starts from when this one did.
+        Instant started = Instant.now();
+        Timestamp until = Timestamp.from(started);
+        try {
+            this.transaction.executeWithoutResult(status -> {
+                // Another instance refreshing the rollup waits for the lock, then starts from this refresh.
+                Timestamp since = this.lockWatermark(rollupView.name);
+                for (String statement : rollupView.statements) {
+                    Query query = this.entityManager.createNativeQuery(statement);
+                    if (statement.contains(":" + LAST_REFRESHED)) {
+                        query.setParameter(LAST_REFRESHED, since);
+                    }
+                    if (statement.contains(":" + REFRESHED_UNTIL)) {
+                        query.setParameter(REFRESHED_UNTIL, until);
+                    }
+                    query.executeUpdate();
+                }
+                this.entityManager.createNativeQuery("update " + WATERMARK_TABLE + " set refreshed_until = :until where name = :name")
+                        .setParameter("until", until)
+                        .setParameter("name", rollupView.name)
+                        .executeUpdate();
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to refresh rollup {} of {}", rollupView.name, rollupView.aggregatedView, e);
+            return;
+        }
+
+        this.lastRefreshed.put(rollupView.name, started);
+        this.onRefreshed.accept(rollupView.aggregatedView);
+    }
+
+    // The start of the previous successful refresh, the epoch for the first one
+    private Timestamp lockWatermark(String name) {
+        List<?> watermarks = this.entityManager.createNativeQuery("select refreshed_until from " + WATERMARK_TABLE + " where name = :name for update")
+                .setParameter("name", name)
+                .getResultList();
+        if (watermarks.isEmpty()) {
+            throw new IllegalStateException(String.format("No row of rollup %s in %s", name, WATERMARK_TABLE));
+        }
+
+        return watermarks.get(0) == null ? Timestamp.from(Instant.EPOCH) : Timestamp.from(((Date) watermarks.get(0)).toInstant());
+    }
+
+    // Creates the table and a row of each rollup when missing, and reads the start of their last refresh. Rollups
+    // whose start can't be read are left to be refreshed first.
+    private void loadWatermarks() {
+        try {
+            this.transaction.executeWithoutResult(status -> this.entityManager.createNativeQuery(
+                    "create table if not exists " + WATERMARK_TABLE + " (name varchar(255) not null primary key, refreshed_until timestamp)")
+                    .executeUpdate());
+            this.transaction.executeWithoutResult(status -> {
+                for (String name : this.getRollupNames()) {
+                    this.entityManager.createNativeQuery("insert into " + WATERMARK_TABLE + " (name) select :name where not exists (select 1 from " + WATERMARK_TABLE + " where name = :name)")
+                            .setParameter("name", name)
+                            .executeUpdate();
+                    Object refreshedUntil = this.entityManager.createNativeQuery("select refreshed_until from " + WATERMARK_TABLE + " where name = :name")
+                            .setParameter("name", name)
+                            .getSingleResult();
+                    if (refreshedUntil != null) {
+                        this.lastRefreshed.put(name, ((Date) refreshedUntil).toInstant());
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to read the last refresh of rollups from {}", WATERMARK_TABLE, e);
+        }
+    }
+
+    private List<String> getRollupNames() {
+        List<String> names = new ArrayList<>();
+        this.rollupsByView.values().forEach(x -> x.forEach(rollupView -> names.add(rollupView.name)));
+        return names;
+    }
+
+    // Start of the last successful refresh of each rollup, by the rollup's name
+    public Map<String, Instant> getLastRefreshed() {
+        return Collections.unmodifiableMap(this.lastRefreshed);
+    }
+
+    @Override
+    public void close() {
+        if (this.refreshThread != null) {
+            this.refreshThread.shutdownNow();
+        }
+    }
+
+    private static final class RollupView {
+        private final String name;
+        private final String aggregatedView;
+        private final Set<String> dimensions;
+        // Measure field by the aggregator of the aggregated view it holds, e.g. "SUM:amount"
+        private final Map<String, String> measures;
+        private final List<String> statements;
+
+        private RollupView(String name, String aggregatedView, Set<String> dimensions, Map<String, String> measures, List<String> statements) {
+            this.name = name;
+            this.aggregatedView = aggregatedView;
+            this.dimensions = dimensions;
+            this.measures = measures;
+            this.statements = statements;
+        }
+
+        // Measures must aggregate fields of the aggregated view, and dimensions be its fields of the same type.
+        static RollupView of(ViewEntityDescriptor descriptor, ViewEntityDescriptor aggregated, Rollup rollup) {
+            if (aggregated == null) {
+                throw new InvalidViewEntityException(String.format("Rollup %s aggregates %s, which is no registered view entity", descriptor.getName(), rollup.of().getName()));
+            }
+
+            Set<String> dimensions = new HashSet<>();
+            Map<String, String> measures = new HashMap<>();
+            for (ViewEntityColumn column : descriptor.getColumns()) {
+                RollupMeasure measure = measureOf(descriptor.getEntityClazz(), column.getName());
+                if (measure != null) {
+                    if (!MEASURE_OPERATORS.contains(measure.operator())) {
+                        throw new InvalidViewEntityException(String.format("Measure %s of rollup %s can't be aggregated again by %s", column.getName(), descriptor.getName(), measure.operator()));
+                    }
+                    if (!aggregated.getPaths().containsKey(measure.field())) {
+                        throw new FailedToFindFieldInViewEntityClassException(aggregated.getName(), measure.field());
+                    }
+                    measures.put(measure.operator() + ":" + measure.field(), column.getName());
+                } else if (aggregated.getPaths().containsKey(column.getName())) {
+                    if (ClassUtils.resolvePrimitiveIfNecessary(descriptor.getPaths().get(column.getName())) != ClassUtils.resolvePrimitiveIfNecessary(aggregated.getPaths().get(column.getName()))) {
+                        throw new InvalidViewEntityException(String.format("Dimension %s of rollup %s differs in type from the field of %s", column.getName(), descriptor.getName(), aggregated.getName()));
+                    }
+                    dimensions.add(column.getName());
+                } else if (!column.getName().equals(descriptor.getIdField())) {
+                    throw new InvalidViewEntityException(String.format("%s of rollup %s is neither a measure nor a field of %s", column.getName(), descriptor.getName(), aggregated.getName()));
+                }
+            }
+
+            List<String> statements = rollup.refresh().length > 0 ?
+                    List.of(rollup.refresh()) :
+                    List.of("REFRESH MATERIALIZED VIEW CONCURRENTLY " + tableOf(descriptor));
+            return new RollupView(descriptor.getName(), aggregated.getName(), Set.copyOf(dimensions), Map.copyOf(measures), statements);
+        }
+
+        private static RollupMeasure measureOf(Class<?> clazz, String fieldName) {
+            try {
+                return clazz.getDeclaredField(fieldName).getAnnotation(RollupMeasure.class);
+            } catch (NoSuchFieldException e) {
+                return null;
+            }
+        }
+
+        private static String tableOf(ViewEntityDescriptor descriptor) {
+            Table table = descriptor.getEntityClazz().getAnnotation(Table.class);
+            return table != null && !table.name().isEmpty() ? table.name() : descriptor.getName();
+        }
+
+        // Null when the rollup can't answer the query.
+        DynaQuery rewrite(DynaQuery dynaQuery) {
+            GroupBy groupBy = dynaQuery.getGroupBy();
+            if (!this.dimensions.containsAll(groupBy.getFields()) || !this.isAnswerable(dynaQuery.getFilter())) {
+                return null;
+            }
+            if (dynaQuery.getOrderBys() != null && dynaQuery.getOrderBys().stream().anyMatch(x -> !this.dimensions.contains(x.getField()))) {
+                return null;
+            }
+
+            List<Aggregator> aggregators = new ArrayList<>();
+            for (Aggregator aggregator : groupBy.getAggregators()) {
+                Aggregator measure = this.rewrite(aggregator);
+                if (measure == null) {
+                    return null;
+                }
+                aggregators.add(measure);
+            }
+
+            Filter having = this.rewriteHaving(groupBy.getHaving());
+            if (groupBy.getHaving() != null && having == null) {
+                return null;
+            }
+
+            DynaQuery rewritten = new DynaQuery(null, dynaQuery.getFilter(), GroupBy.of(groupBy.getFields(), aggregators, having, groupBy.getGroupingSets()), dynaQuery.getOrderBys());
+            rewritten.setTargetView(this.name);
+            return rewritten;
+        }
+
+        private boolean isAnswerable(Filter filter) {
+            if (filter == null) {
+                return true;
+            }
+            if (filter instanceof CompositeFilter) {
+                return ((CompositeFilter) filter).getFilters().stream().allMatch(this::isAnswerable);
+            }
+
+            return filter instanceof SimpleFilter && this.dimensions.contains(((SimpleFilter) filter).getField());
+        }
+
+        // Having on aggregators is rewritten to their measures, null when one has none.
+        private Filter rewriteHaving(Filter having) {
+            if (having instanceof CompositeFilter) {
+                List<Filter> filters = new ArrayList<>();
+                for (Filter filter : ((CompositeFilter) having).getFilters()) {
+                    Filter rewritten = this.rewriteHaving(filter);
+                    if (rewritten == null) {
+                        return null;
+                    }
+                    filters.add(rewritten);
+                }
+                return CompositeFilter.of(filters, ((CompositeFilter) having).getConnector());
+            }
+            if (having instanceof AggregatorFilter) {
+                AggregatorFilter aggregatorFilter = (AggregatorFilter) having;
+                Aggregator measure = this.rewrite(aggregatorFilter.getAggregator());
+                return measure == null ? null : AggregatorFilter.of(measure, aggregatorFilter.getFilterOperator(), aggregatorFilter.getValues());
+            }
+
+            return having != null && this.isAnswerable(having) ? having : null;
+        }
+
+        // Same alias, so rows of the rollup read as rows of the aggregated view.
+        private Aggregator rewrite(Aggregator aggregator) {
+            String measure = this.measures.get(aggregator.getOperator() + ":" + aggregator.getField());
+            if (measure == null) {
+                return null;
+            }
+
+            AggregateOperator operator = aggregator.getOperator() == AggregateOperator.MIN || aggregator.getOperator() == AggregateOperator.MAX ?
+                    aggregator.getOperator() :
+                    AggregateOperator.SUM;
+            return Aggregator.of(measure, operator, aggregator.getAlias());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.jingweizhang.dynaquery.service;
+
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import java.util.List;
+
+/**
+ * @Description
+ * Renders dq_row_gt(a, b, :x, :y) as ((a, b) > (?, ?)) and dq_row_lt likewise with <, a row value comparison JPQL has no syntax for.
+ * The database seeks an index on (a, b) straight to the first row after the values, where the equivalent
+ * a > x OR (a = x AND b > y) is at best a range on a alone. Only used on PostgreSQL and H2, for keys sorted in one direction.
+ */
+public class DynaQueryRowValueFunction implements SQLFunction {
+    public static final String GREATER = "dq_row_gt";
+    public static final String LESS = "dq_row_lt";
+
+    private final String operator;
+
+    private DynaQueryRowValueFunction(String operator) {
+        this.operator = operator;
+    }
+
+    // Registers both functions, as a MetadataBuilderContributor.
+    public static void contribute(MetadataBuilder metadataBuilder) {
+        metadataBuilder.applySqlFunction(GREATER, new DynaQueryRowValueFunction(">"));
+        metadataBuilder.applySqlFunction(LESS, new DynaQueryRowValueFunction("<"));
+    }
+
+    @Override
+    public boolean hasArguments() {
+        return true;
+    }
+
+    @Override
+    public boolean hasParenthesesIfNoArguments() {
+        return true;
+    }
+
+    @Override
+    public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+        return StandardBasicTypes.BOOLEAN;
+    }
+
+    // The first half of the arguments are the keys, the second half their values.
+    @Override
+    public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory) throws QueryException {
+        if (arguments.isEmpty() || arguments.size() % 2 != 0) {
+            throw new QueryException("Row value comparison takes as many values as keys");
+        }
+
+        int size = arguments.size() / 2;
+        return "((" + String.join(", ", (List<String>) arguments.subList(0, size)) + ") " + this.operator +
+                " (" + String.join(", ", (List<String>) arguments.subList(size, arguments.size())) + "))";
+    }
+}
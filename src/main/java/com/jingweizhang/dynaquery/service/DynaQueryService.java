@@ -1,25 +1,47 @@
 package com.jingweizhang.dynaquery.service;
 
+import com.jingweizhang.dynaquery.config.DynaQueryProperties;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchItem;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchResult;
+import com.jingweizhang.dynaquery.dto.DynaQueryCacheStatistics;
+import com.jingweizhang.dynaquery.dto.DynaQueryColumnarPage;
+import com.jingweizhang.dynaquery.dto.DynaQueryKeysetPage;
 import com.jingweizhang.dynaquery.dto.DynaQueryReference;
 import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.dto.DynaQuerySlowQuery;
 import com.jingweizhang.dynaquery.exception.FailedToFindDynaQueryException;
+import com.jingweizhang.dynaquery.extension.ViewChangedEvent;
 import com.jingweizhang.dynaquery.extension.ViewConverter;
+import com.jingweizhang.dynaquery.model.CountStrategy;
 import com.jingweizhang.dynaquery.model.DynaQuery;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.persistence.EntityManager;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * @Description
  * Handle all query request that require dynaquery ability.
+ * Queries run in read-only transactions, which skip flushing and dirty checking,
+ * and are routed to a read replica when replicas are configured. Saving a query stays on the primary.
+ * Pages of saved queries are cached per view TTL, until they expire or their view is reported changed by a ViewChangedEvent.
+ * With dyna-query.parallel-count.enabled, exact counts of pages run on a second connection next to the content query.
+ * Statements are cancelled when they run out of the timeout of their view, or by cancel when their client went away.
+ * With dyna-query.metrics.enabled, every stage of a query is measured by Micrometer, see DynaQueryMetrics.
+ * With dyna-query.slow-query.enabled, slow statements are kept with their SQL and request, see DynaQuerySlowQueryLog.
+ * Filters are simplified before they are converted, a filter that can never hold is answered without a statement, see DynaQueryOptimizer.
+ * With dyna-query.rollup.enabled, group by queries a @Rollup can answer are rewritten to it, see DynaQueryRollups.
+ * Its collaborators are beans of DynaQueryAutoConfiguration, configured by DynaQueryProperties, and are closed by the container.
  *
  * @Author rocky.zhang on 2023/4/3
  */
@@ -27,54 +49,171 @@ import java.util.stream.Collectors;
 public class DynaQueryService {
     private final DynaQueryExecutor dynaQueryExecutor;
     private final DynaQueryNormalizer dynaQueryNormalizer;
+    private final DynaQueryOptimizer dynaQueryOptimizer;
     private final DynaQueryRepository dynaQueryRepository;
+    private final DynaQueryPlanCache dynaQueryPlanCache;
+    private final DynaQueryResultCache dynaQueryResultCache;
+    private final TransactionTemplate readOnlyTransaction;
+    private final DynaQueryBatchExecutor dynaQueryBatchExecutor;
+    private final DynaQueryMetrics dynaQueryMetrics;
+    private final DynaQuerySlowQueryLog dynaQuerySlowQueryLog;
+    private final DynaQueryRollups dynaQueryRollups;
+    private final int streamFetchSize;
 
-    public DynaQueryService(EntityManager entityManager,
-                            DynaQueryRepository dynaQueryRepository,
-                            @Value("${dyna-query.view-entity-package}") String viewEntityPackage) {
-        ViewEntityRegistry viewEntityRegistry = new ViewEntityRegistry(viewEntityPackage);
-
-        this.dynaQueryNormalizer = new DynaQueryNormalizer(viewEntityRegistry);
-        this.dynaQueryExecutor = new DynaQueryExecutor(entityManager, viewEntityRegistry);
+    public DynaQueryService(DynaQueryRepository dynaQueryRepository,
+                            DynaQueryExecutor dynaQueryExecutor,
+                            DynaQueryNormalizer dynaQueryNormalizer,
+                            DynaQueryOptimizer dynaQueryOptimizer,
+                            DynaQueryPlanCache dynaQueryPlanCache,
+                            DynaQueryResultCache dynaQueryResultCache,
+                            DynaQueryBatchExecutor dynaQueryBatchExecutor,
+                            DynaQueryMetrics dynaQueryMetrics,
+                            DynaQuerySlowQueryLog dynaQuerySlowQueryLog,
+                            DynaQueryRollups dynaQueryRollups,
+                            DynaQueryProperties properties,
+                            PlatformTransactionManager transactionManager) {
         this.dynaQueryRepository = dynaQueryRepository;
+        this.dynaQueryExecutor = dynaQueryExecutor;
+        this.dynaQueryNormalizer = dynaQueryNormalizer;
+        this.dynaQueryOptimizer = dynaQueryOptimizer;
+        this.dynaQueryPlanCache = dynaQueryPlanCache;
+        this.dynaQueryResultCache = dynaQueryResultCache;
+        this.dynaQueryBatchExecutor = dynaQueryBatchExecutor;
+        this.dynaQueryMetrics = dynaQueryMetrics;
+        this.dynaQuerySlowQueryLog = dynaQuerySlowQueryLog;
+        this.dynaQueryRollups = dynaQueryRollups;
+        this.streamFetchSize = properties.getStream().getFetchSize();
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
-    @Transactional
+    // Normalized, its filters simplified, and rewritten to a rollup if one can answer it
+    private DynaQuery normalize(DynaQueryRequest dynaQueryRequest, String operation) {
+        return this.dynaQueryRollups.rewrite(this.dynaQueryOptimizer.optimize(this.dynaQueryNormalizer.normalize(dynaQueryRequest, operation), operation), operation);
+    }
+
+    @Transactional(readOnly = true)
     public Optional<Map<String, Object>> queryOne(DynaQueryRequest dynaQueryRequest) {
         return this.queryOne(dynaQueryRequest, x->x);
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Optional<Map<String, Object>> queryOne(DynaQueryRequest dynaQueryRequest, ViewConverter<Map<String, Object>, Map<String, Object>> resultConverter) {
-        DynaQuery dynaQuery = this.dynaQueryNormalizer.normalize(dynaQueryRequest);
-        return this.dynaQueryExecutor.queryOne(dynaQuery).map(resultConverter::convert);
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "queryOne");
+        return this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest, () -> this.dynaQueryExecutor.queryOne(dynaQuery)).map(resultConverter::convert);
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Page<Map<String, Object>> queryAll(DynaQueryRequest dynaQueryRequest, Pageable pageable) {
         return this.queryAll(dynaQueryRequest, pageable, x->x);
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Page<Map<String, Object>> queryAll(DynaQueryRequest dynaQueryRequest, Pageable pageable, ViewConverter<Map<String, Object>, Map<String, Object>> resultConverter) {
-        DynaQuery dynaQuery = this.dynaQueryNormalizer.normalize(dynaQueryRequest);
-        return this.dynaQueryExecutor.queryAll(dynaQuery, pageable).map(resultConverter::convert);
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "queryAll");
+        return this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest, () -> this.dynaQueryExecutor.queryAll(dynaQuery, pageable)).map(resultConverter::convert);
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
+    public Slice<Map<String, Object>> queryAll(DynaQueryRequest dynaQueryRequest, Pageable pageable, CountStrategy countStrategy) {
+        return this.queryAll(dynaQueryRequest, pageable, countStrategy, x->x);
+    }
+
+    // A Page for every count strategy but SKIP, which returns a Slice that only knows whether there is a next page.
+    @Transactional(readOnly = true)
+    public Slice<Map<String, Object>> queryAll(DynaQueryRequest dynaQueryRequest, Pageable pageable, CountStrategy countStrategy, ViewConverter<Map<String, Object>, Map<String, Object>> resultConverter) {
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "queryAll");
+        return this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest, () -> this.dynaQueryExecutor.queryAll(dynaQuery, pageable, countStrategy)).map(resultConverter::convert);
+    }
+
+    // Same rows as queryAll, column by column, see DynaQueryColumnarPage. Rows are never mapped, so there is no result converter.
+    @Transactional(readOnly = true)
+    public DynaQueryColumnarPage queryAllColumnar(DynaQueryRequest dynaQueryRequest, Pageable pageable, CountStrategy countStrategy) {
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "queryAll");
+        return this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest, () -> this.dynaQueryExecutor.queryAllToColumns(dynaQuery, pageable, countStrategy));
+    }
+
+    @Transactional(readOnly = true)
+    public void streamAll(DynaQueryRequest dynaQueryRequest, Consumer<Map<String, Object>> consumer) {
+        this.streamAll(dynaQueryRequest, consumer, x->x);
+    }
+
+    // Unlike queryAll, rows are pushed to the consumer one by one while the result set is still being read.
+    @Transactional(readOnly = true)
+    public void streamAll(DynaQueryRequest dynaQueryRequest, Consumer<Map<String, Object>> consumer, ViewConverter<Map<String, Object>, Map<String, Object>> resultConverter) {
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "stream");
+        this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest, () -> {
+            this.dynaQueryExecutor.streamAll(dynaQuery, this.streamFetchSize, row -> consumer.accept(resultConverter.convert(row)));
+            return null;
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public DynaQueryKeysetPage<Map<String, Object>> queryAllByKeyset(DynaQueryRequest dynaQueryRequest, int pageSize, String continuation) {
+        return this.queryAllByKeyset(dynaQueryRequest, pageSize, continuation, x->x);
+    }
+
+    @Transactional(readOnly = true)
+    public DynaQueryKeysetPage<Map<String, Object>> queryAllByKeyset(DynaQueryRequest dynaQueryRequest, int pageSize, String continuation, ViewConverter<Map<String, Object>, Map<String, Object>> resultConverter) {
+        DynaQuery dynaQuery = this.normalize(dynaQueryRequest, "keyset");
+        DynaQueryKeysetPage<Map<String, Object>> page = this.dynaQuerySlowQueryLog.withRequest(dynaQueryRequest,
+                () -> this.dynaQueryExecutor.queryAllByKeyset(dynaQuery, pageSize, continuation));
+        page.setContent(page.getContent().stream().map(resultConverter::convert).collect(Collectors.toList()));
+        return page;
+    }
+
+    // Cancel the statement running for the token, if any, see DynaQueryCancellationToken. Safe to call from any thread.
+    public void cancel(DynaQueryCancellationToken token) {
+        this.dynaQueryExecutor.cancel(token);
+    }
+
+    // Queries run concurrently, each in a read-only transaction of its own, identical ones once. Results are keyed by the ids of the items,
+    // a failed query or one missing the deadline of the batch has a result telling why.
+    public Map<String, DynaQueryBatchResult> queryBatch(List<DynaQueryBatchItem> items) {
+        return this.dynaQueryBatchExecutor.execute(items);
+    }
+
+    // Not transactional by itself, a cached page is returned without taking a connection.
+    // Unpaged results are never cached, there is no bound on their size.
     public Page<Map<String, Object>> querySavedQuery(int id, Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return this.readOnlyTransaction.execute(status -> this.doQuerySavedQuery(id, pageable).getPage());
+        }
+        return this.dynaQueryResultCache.get(id, pageable, () -> this.readOnlyTransaction.execute(status -> this.doQuerySavedQuery(id, pageable)));
+    }
+
+    private DynaQueryResultCache.Result doQuerySavedQuery(int id, Pageable pageable) {
         Optional<DynaQuery> dynaQueryOptional = this.dynaQueryRepository.findById(id);
         if (dynaQueryOptional.isEmpty()) {
             throw new FailedToFindDynaQueryException();
         }
 
+        // Cached under the saved query's view, which is the one reported changed.
         DynaQuery dynaQuery = dynaQueryOptional.get();
-        return this.dynaQueryExecutor.queryAll(dynaQuery, pageable);
+        return new DynaQueryResultCache.Result(dynaQuery.getTargetView(), this.dynaQueryMetrics.operation("saved", dynaQuery.getTargetView(),
+                () -> this.dynaQueryExecutor.queryAll(this.dynaQueryRollups.rewrite(this.dynaQueryOptimizer.optimize(dynaQuery, "saved"), "saved"), pageable), Page::getNumberOfElements));
+    }
+
+    public void evictSavedQuery(int id) {
+        this.dynaQueryResultCache.evictSavedQuery(id);
+    }
+
+    public void evictView(String targetView) {
+        this.dynaQueryResultCache.evictView(targetView);
+    }
+
+    public void evictAll() {
+        this.dynaQueryResultCache.clear();
+    }
+
+    @EventListener
+    public void onViewChanged(ViewChangedEvent event) {
+        this.evictView(event.getTargetView());
     }
 
     @Transactional
     public DynaQueryReference saveQuery(DynaQueryRequest dynaQueryRequest, String name, boolean isDefault) {
-        DynaQuery dynaQuery = this.dynaQueryNormalizer.normalize(dynaQueryRequest);
+        DynaQuery dynaQuery = this.dynaQueryNormalizer.normalize(dynaQueryRequest, "save");
 
         if (isDefault) {
             List<DynaQuery> queries = this.dynaQueryRepository.findAll();
@@ -88,7 +227,30 @@ public class DynaQueryService {
         return DynaQueryReference.of(this.dynaQueryRepository.save(dynaQuery));
     }
 
+    @Transactional(readOnly = true)
     public List<DynaQueryReference> listDynaQueryReferences() {
         return this.dynaQueryRepository.findAll().stream().map(DynaQueryReference::of).collect(Collectors.toList());
     }
+
+    public DynaQueryCacheStatistics getPlanCacheStatistics() {
+        return this.dynaQueryPlanCache.getStatistics();
+    }
+
+    // Latest first
+    public List<DynaQuerySlowQuery> getSlowQueries() {
+        return this.dynaQuerySlowQueryLog.getEntries();
+    }
+
+    public void clearSlowQueries() {
+        this.dynaQuerySlowQueryLog.clear();
+    }
+
+    // Refresh every rollup now, instead of waiting for dyna-query.rollup.refresh-interval-seconds.
+    public void refreshRollups() {
+        this.dynaQueryRollups.refresh();
+    }
+
+    public DynaQueryCacheStatistics getResultCacheStatistics() {
+        return this.dynaQueryResultCache.getStatistics();
+    }
 }
@@ -0,0 +1,173 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jingweizhang.dynaquery.dto.DynaQuerySlowQuery;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Keeps the latest statements running longer than a threshold, with their SQL, bind values and the request they were
+ * generated for, in a ring buffer of a fixed capacity. Only a slow statement costs anything beyond reading the clock:
+ * its SQL is translated and its request serialized after the fact.
+ * Optionally a slow statement is run again by EXPLAIN (ANALYZE, BUFFERS) on a background thread and connection, PostgreSQL only.
+ * The request is that of the outermost call on the thread, statements run on other threads, e.g. a parallel count, carry the normalized query.
+ */
+public class DynaQuerySlowQueryLog implements AutoCloseable {
+    public static final DynaQuerySlowQueryLog DISABLED = new DynaQuerySlowQueryLog();
+
+    private static final Logger logger = LoggerFactory.getLogger(DynaQuerySlowQueryLog.class);
+    private static final String EXPLAIN_OPTIONS = "ANALYZE, BUFFERS, FORMAT JSON";
+
+    private final boolean enabled;
+    private final long thresholdNanos;
+    private final int capacity;
+    private final Deque<DynaQuerySlowQuery> entries;
+    private final ThreadLocal<Object> currentRequest = new ThreadLocal<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynaQueryExplainer dynaQueryExplainer;
+    private final TransactionTemplate readOnlyTransaction;
+    // Null when slow statements are not explained
+    private final ThreadPoolExecutor explainThread;
+
+    private DynaQuerySlowQueryLog() {
+        this.enabled = false;
+        this.thresholdNanos = Long.MAX_VALUE;
+        this.capacity = 0;
+        this.entries = new ArrayDeque<>();
+        this.dynaQueryExplainer = null;
+        this.readOnlyTransaction = null;
+        this.explainThread = null;
+    }
+
+    public DynaQuerySlowQueryLog(EntityManager entityManager, TransactionTemplate readOnlyTransaction, Duration threshold, int capacity, boolean explain) {
+        this.enabled = true;
+        this.thresholdNanos = threshold.toNanos();
+        this.capacity = Math.max(1, capacity);
+        this.entries = new ArrayDeque<>(this.capacity);
+        this.dynaQueryExplainer = new DynaQueryExplainer(entityManager);
+        this.readOnlyTransaction = readOnlyTransaction;
+
+        // One statement is explained at a time, those finding the queue full are left unexplained.
+        this.explainThread = !explain ? null : new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16), runnable -> {
+            Thread thread = new Thread(runnable, "dyna-query-explain");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        if (this.explainThread != null) {
+            this.explainThread.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    // Remember the request the statements of the action are generated for, a nested call keeps the outer request.
+    public <T> T withRequest(Object request, Supplier<T> action) {
+        if (!this.enabled || this.currentRequest.get() != null) {
+            return action.get();
+        }
+
+        this.currentRequest.set(request);
+        try {
+            return action.get();
+        } finally {
+            this.currentRequest.remove();
+        }
+    }
+
+    // Run the statement of the query, and record it if it turns out slow.
+    public <T> T execute(DynaQuery dynaQuery, TypedQuery<?> query, Supplier<T> execution) {
+        if (!this.enabled) {
+            return execution.get();
+        }
+
+        long start = System.nanoTime();
+        T result = execution.get();
+        long elapsed = System.nanoTime() - start;
+        if (elapsed >= this.thresholdNanos) {
+            this.record(dynaQuery, query, elapsed);
+        }
+        return result;
+    }
+
+    private void record(DynaQuery dynaQuery, TypedQuery<?> query, long elapsedNanos) {
+        Optional<DynaQueryExplainer.TranslatedQuery> translated;
+        try {
+            translated = this.dynaQueryExplainer.translate(query);
+        } catch (RuntimeException e) {
+            logger.debug("Failed to translate slow query", e);
+            translated = Optional.empty();
+        }
+
+        Object request = this.currentRequest.get();
+        DynaQuerySlowQuery entry = new DynaQuerySlowQuery(
+                Instant.now(),
+                dynaQuery.getTargetView(),
+                this.toJson(request != null ? request : dynaQuery),
+                translated.map(DynaQueryExplainer.TranslatedQuery::getSql).orElse(null),
+                translated.map(x -> x.getValues().stream().map(String::valueOf).collect(Collectors.toList())).orElse(Collections.emptyList()),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                null);
+        // Bind values are what users searched for, they only go to a debug log, or to the endpoint.
+        logger.warn("Slow query on {} took {} ms: {}", entry.getView(), entry.getElapsedMillis(), entry.getSql());
+        logger.debug("Binds of slow query on {}: {}", entry.getView(), entry.getBinds());
+
+        synchronized (this.entries) {
+            if (this.entries.size() == this.capacity) {
+                this.entries.removeLast();
+            }
+            this.entries.addFirst(entry);
+        }
+
+        if (this.explainThread != null && translated.isPresent()) {
+            DynaQueryExplainer.TranslatedQuery statement = translated.get();
+            this.explainThread.execute(() -> {
+                try {
+                    this.readOnlyTransaction.execute(status -> this.dynaQueryExplainer.explain(statement, EXPLAIN_OPTIONS)).ifPresent(entry::setPlan);
+                } catch (RuntimeException e) {
+                    logger.debug("Failed to explain slow query", e);
+                }
+            });
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return this.objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(value);
+        }
+    }
+
+    // Latest first
+    public List<DynaQuerySlowQuery> getEntries() {
+        synchronized (this.entries) {
+            return new ArrayList<>(this.entries);
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.explainThread != null) {
+            this.explainThread.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jingweizhang.dynaquery.service;
+
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * @Description
+ * Renders full text search of PostgreSQL, which JPQL has no operator for:
+ * dq_text_search(x, ?) is to_tsvector(config, x) @@ plainto_tsquery(config, ?) and dq_text_rank(x, ?) its ts_rank.
+ * The config is written into the SQL as a literal, a GIN index on to_tsvector(config, x) is only used when the expressions match.
+ */
+public class DynaQueryTextSearchFunction implements SQLFunction {
+    public static final String TEXT_SEARCH = "dq_text_search";
+    public static final String TEXT_RANK = "dq_text_rank";
+    // Name of a text search configuration, optionally schema qualified, e.g. simple or pg_catalog.english
+    private static final Pattern CONFIG = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private final String config;
+    private final boolean rank;
+
+    private DynaQueryTextSearchFunction(String config, boolean rank) {
+        this.config = config;
+        this.rank = rank;
+    }
+
+    // Registers both functions, as a MetadataBuilderContributor.
+    public static void contribute(MetadataBuilder metadataBuilder, String config) {
+        if (!CONFIG.matcher(config).matches()) {
+            throw new IllegalArgumentException("Invalid text search configuration " + config);
+        }
+
+        metadataBuilder.applySqlFunction(TEXT_SEARCH, new DynaQueryTextSearchFunction(config, false));
+        metadataBuilder.applySqlFunction(TEXT_RANK, new DynaQueryTextSearchFunction(config, true));
+    }
+
+    @Override
+    public boolean hasArguments() {
+        return true;
+    }
+
+    @Override
+    public boolean hasParenthesesIfNoArguments() {
+        return true;
+    }
+
+    @Override
+    public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+        return this.rank ? StandardBasicTypes.FLOAT : StandardBasicTypes.BOOLEAN;
+    }
+
+    @Override
+    public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory) throws QueryException {
+        if (arguments.size() != 2) {
+            throw new QueryException((this.rank ? TEXT_RANK : TEXT_SEARCH) + " takes a field and a search text");
+        }
+
+        String vector = "to_tsvector('" + this.config + "', " + arguments.get(0) + ")";
+        String query = "plainto_tsquery('" + this.config + "', " + arguments.get(1) + ")";
+        return this.rank ? "ts_rank(" + vector + ", " + query + ")" : "(" + vector + " @@ " + query + ")";
+    }
+}
@@ -0,0 +1,76 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jingweizhang.dynaquery.exception.InvalidContinuationTokenException;
+import com.jingweizhang.dynaquery.model.OrderBy;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Opaque continuation token of keyset pagination.
+ * It carries the sort key values of the last row of a page, and the sort keys they belong to,
+ * so a token can't be replayed against a query sorted differently.
+ */
+final class KeysetCursor {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private KeysetCursor() {}
+
+    public static String encode(List<OrderBy> keys, List<Object> values) {
+        Token token = new Token();
+        token.setKeys(signatureOf(keys));
+        token.setValues(values.stream().map(x -> x == null ? null : x.toString()).collect(Collectors.toList()));
+
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(OBJECT_MAPPER.writeValueAsBytes(token));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static List<Object> decode(String continuation, List<OrderBy> keys, ViewEntityDescriptor descriptor) {
+        Token token;
+        try {
+            token = OBJECT_MAPPER.readValue(Base64.getUrlDecoder().decode(continuation.getBytes(StandardCharsets.US_ASCII)), Token.class);
+        } catch (Exception e) {
+            throw new InvalidContinuationTokenException("malformed token");
+        }
+
+        if (!signatureOf(keys).equals(token.getKeys()) || token.getValues() == null || token.getValues().size() != keys.size()) {
+            throw new InvalidContinuationTokenException("token was issued for a query with different orders");
+        }
+
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String field = keys.get(i).getField();
+            String value = token.getValues().get(i);
+            try {
+                // A null key is continued after as null, the seek places it where ORDER BY does.
+                values.add(value == null ? null : descriptor.getConverter(field).apply(value));
+            } catch (Exception e) {
+                throw new InvalidContinuationTokenException("invalid value of " + field);
+            }
+        }
+
+        return values;
+    }
+
+    private static String signatureOf(List<OrderBy> keys) {
+        return keys.stream().map(x -> x.getField() + ":" + x.getOperator()).collect(Collectors.joining(","));
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class Token {
+        private String keys;
+        private List<String> values;
+    }
+}
@@ -0,0 +1,106 @@
+package com.jingweizhang.dynaquery.service;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * @Description
+ * A column of a view entity with a getter resolved once at startup.
+ * The getter is a lambda spun by LambdaMetafactory, which the JIT inlines like a direct call,
+ * so reading a column costs no reflection per row.
+ */
+final class ViewEntityColumn {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final String name;
+    private final Class<?> type;
+    private final Function<Object, Object> getter;
+
+    private ViewEntityColumn(String name, Class<?> type, Function<Object, Object> getter) {
+        this.name = name;
+        this.type = type;
+        this.getter = getter;
+    }
+
+    public static ViewEntityColumn of(Class<?> entityClazz, Field field) {
+        return new ViewEntityColumn(field.getName(), field.getType(), getterOf(entityClazz, field));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    // Collections are copied, so lazy collections of JPA are loaded and don't leak out of the transaction.
+    public Object valueOf(Object entity) {
+        Object value = this.getter.apply(entity);
+        return value instanceof Collection ? new ArrayList<>((Collection<?>) value) : value;
+    }
+
+    private static Function<Object, Object> getterOf(Class<?> entityClazz, Field field) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(entityClazz, MethodHandles.lookup());
+            Method method = findGetter(entityClazz, field);
+            if (method == null) {
+                MethodHandle handle = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                return instance -> invoke(handle, instance);
+            }
+
+            MethodHandle handle = lookup.unreflect(method);
+            try {
+                CallSite callSite = LambdaMetafactory.metafactory(
+                        lookup,
+                        "apply",
+                        MethodType.methodType(Function.class),
+                        GETTER_TYPE,
+                        handle,
+                        MethodType.methodType(method.getReturnType().isPrimitive() ? wrap(method.getReturnType()) : method.getReturnType(), entityClazz));
+                return (Function<Object, Object>) callSite.getTarget().invokeExact();
+            } catch (Throwable e) {
+                // e.g. getter of a class loaded by a loader the lambda can't be defined in, fall back to the plain handle.
+                MethodHandle genericHandle = handle.asType(GETTER_TYPE);
+                return instance -> invoke(genericHandle, instance);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to access field " + field.getName() + " of " + entityClazz.getName(), e);
+        }
+    }
+
+    private static Method findGetter(Class<?> entityClazz, Field field) {
+        String suffix = field.getName().substring(0, 1).toUpperCase() + field.getName().substring(1);
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                Method method = entityClazz.getDeclaredMethod(prefix + suffix);
+                if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // try next prefix
+            }
+        }
+
+        return null;
+    }
+
+    private static Class<?> wrap(Class<?> primitive) {
+        return MethodType.methodType(primitive).wrap().returnType();
+    }
+
+    private static Object invoke(MethodHandle handle, Object instance) {
+        try {
+            return handle.invokeExact(instance);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jingweizhang.dynaquery.service;
+
+import com.jingweizhang.dynaquery.extension.ViewEntity;
+
+import javax.persistence.metamodel.EntityType;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * @Description
+ * Everything a query needs to know about a view entity, resolved once when the registry is built.
+ * A descriptor is immutable, it is shared by all queries on the view without copying or locking.
+ */
+final class ViewEntityDescriptor {
+    private final String name;
+    private final Class<? extends ViewEntity> entityClazz;
+    private final Map<String, Class<?>> paths;
+    private final Map<String, Function<String, Object>> converters;
+    private final Map<String, ViewEntityColumn> fields;
+    private final List<ViewEntityColumn> columns;
+    private final String idField;
+    private final EntityType<?> entityType;
+    private final Set<String> textSearchFields;
+
+    ViewEntityDescriptor(Class<? extends ViewEntity> entityClazz,
+                         Map<String, Class<?>> paths,
+                         Map<String, Function<String, Object>> converters,
+                         Map<String, ViewEntityColumn> fields,
+                         List<ViewEntityColumn> columns,
+                         String idField,
+                         EntityType<?> entityType,
+                         Set<String> textSearchFields) {
+        this.name = entityClazz.getSimpleName();
+        this.entityClazz = entityClazz;
+        this.paths = Map.copyOf(paths);
+        this.converters = Map.copyOf(converters);
+        this.fields = Map.copyOf(fields);
+        this.columns = List.copyOf(columns);
+        this.idField = idField;
+        this.entityType = entityType;
+        this.textSearchFields = Set.copyOf(textSearchFields);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<? extends ViewEntity> getEntityClazz() {
+        return entityClazz;
+    }
+
+    // Type of every dotted path of a built-in type reachable from the view entity, e.g. "order.amount"
+    public Map<String, Class<?>> getPaths() {
+        return paths;
+    }
+
+    // Parses a filter value of the path from its string form, null if there is no such path
+    public Function<String, Object> getConverter(String path) {
+        return this.converters.get(path);
+    }
+
+    // Any field declared by the view entity, null if there is no such field
+    public ViewEntityColumn getField(String fieldName) {
+        return this.fields.get(fieldName);
+    }
+
+    // Persistent fields declared by the view entity, in declaration order
+    public List<ViewEntityColumn> getColumns() {
+        return columns;
+    }
+
+    // Name of the field annotated with @Id, null if the view entity has none
+    public String getIdField() {
+        return idField;
+    }
+
+    // JPA metamodel of the view entity, null if the registry was built without a metamodel or the entity isn't in it
+    public EntityType<?> getEntityType() {
+        return entityType;
+    }
+
+    // Fields annotated with @TextSearch
+    public boolean isTextSearchField(String fieldName) {
+        return this.textSearchFields.contains(fieldName);
+    }
+}
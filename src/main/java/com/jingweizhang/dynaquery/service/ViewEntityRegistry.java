@@ -1,35 +1,70 @@
 package com.jingweizhang.dynaquery.service;
 
 import com.jingweizhang.dynaquery.exception.InvalidViewEntityException;
+import com.jingweizhang.dynaquery.extension.TextSearch;
 import com.jingweizhang.dynaquery.extension.ViewEntity;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
 import org.springframework.core.type.filter.AssignableTypeFilter;
 
+import javax.persistence.*;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Function;
 
 /**
  * @Description
  * Used to handle all view entity class to obtain its metadata for later process.
+ * Metadata of each view entity is resolved into a ViewEntityDescriptor at startup and indexed by the view's name,
+ * so looking up a view on a request is a single hash probe.
  *
  * @Author rocky.zhang on 2023/4/7
  */
 public class ViewEntityRegistry {
-    private final Map<Class<? extends ViewEntity>, Map<String, Class<?>>> viewEntityDictionary;
+    private static final List<Class<? extends Annotation>> TABLE_ANNOTATIONS = Arrays.asList(Column.class, OneToMany.class, ManyToOne.class, OneToOne.class, ManyToMany.class);
+
+    private final Map<String, ViewEntityDescriptor> descriptorsByName;
+    private final Map<Class<?>, ViewEntityDescriptor> descriptorsByClass;
     public ViewEntityRegistry(String packageFullNamespace) {
-        this.viewEntityDictionary = this.initializeViewEntityDictionary(packageFullNamespace);
+        this(packageFullNamespace, null);
+    }
+
+    // With a metamodel, descriptors also carry the JPA entity type of their view entity.
+    public ViewEntityRegistry(String packageFullNamespace, Metamodel metamodel) {
+        // A scanned view entity may not belong to the persistence unit, it then has no entity type.
+        Map<Class<?>, EntityType<?>> entityTypes = new HashMap<>();
+        if (metamodel != null) {
+            metamodel.getEntities().forEach(x -> entityTypes.put(x.getJavaType(), x));
+        }
+
+        Map<String, ViewEntityDescriptor> descriptorsByName = new HashMap<>();
+        Map<Class<?>, ViewEntityDescriptor> descriptorsByClass = new HashMap<>();
+        for (Class<? extends ViewEntity> clazz : this.scanViewEntityClasses(packageFullNamespace)) {
+            ViewEntityDescriptor descriptor = this.describe(clazz, entityTypes.get(clazz));
+            ViewEntityDescriptor duplicate = descriptorsByName.put(descriptor.getName(), descriptor);
+            if (duplicate != null) {
+                throw new InvalidViewEntityException(String.format("%s and %s share the view name %s",
+                        duplicate.getEntityClazz().getName(), clazz.getName(), descriptor.getName()));
+            }
+            descriptorsByClass.put(clazz, descriptor);
+        }
+
+        this.descriptorsByName = Map.copyOf(descriptorsByName);
+        this.descriptorsByClass = Map.copyOf(descriptorsByClass);
     }
 
-    private Map<Class<? extends ViewEntity>, Map<String, Class<?>>> initializeViewEntityDictionary(String packageFullNamespace) {
-        Map<Class<? extends ViewEntity>, Map<String, Class<?>>> viewEntityDictionary = new HashMap<>();
+    private List<Class<? extends ViewEntity>> scanViewEntityClasses(String packageFullNamespace) {
+        List<Class<? extends ViewEntity>> viewEntityClasses = new ArrayList<>();
 
         try {
             ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
@@ -40,14 +75,57 @@ public class ViewEntityRegistry {
                 Class<?> clazz = Class.forName(beanDefinition.getBeanClassName(), false, classLoader);
 
                 if (ViewEntity.class.isAssignableFrom(clazz)) {
-                    viewEntityDictionary.put((Class<? extends ViewEntity>) clazz, this.extractEntityMetaData("", clazz, new HashMap<>()));
+                    viewEntityClasses.add((Class<? extends ViewEntity>) clazz);
                 }
             }
         } catch (Exception ex) {
             throw new InvalidViewEntityException(ex);
         }
 
-        return viewEntityDictionary;
+        return viewEntityClasses;
+    }
+
+    private ViewEntityDescriptor describe(Class<? extends ViewEntity> clazz, EntityType<?> entityType) {
+        Map<String, Class<?>> paths = this.extractEntityMetaData("", clazz, new HashMap<>());
+        Map<String, Function<String, Object>> converters = new HashMap<>();
+        paths.forEach((path, type) -> converters.put(path, DynaQueryNormalizer.converterOf(type)));
+
+        // Every instance field declared by the view entity with its getter.
+        Map<String, ViewEntityColumn> fields = new LinkedHashMap<>();
+        // Columns are the persistent fields declared by the view entity, in declaration order.
+        List<ViewEntityColumn> columns = new ArrayList<>();
+        Set<String> textSearchFields = new HashSet<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            if (field.isAnnotationPresent(TextSearch.class)) {
+                if (field.getType() != String.class) {
+                    throw new InvalidViewEntityException(String.format("@TextSearch field %s of %s is not a String", field.getName(), clazz.getName()));
+                }
+                textSearchFields.add(field.getName());
+            }
+
+            ViewEntityColumn column = ViewEntityColumn.of(clazz, field);
+            fields.put(field.getName(), column);
+            if (!Modifier.isTransient(field.getModifiers()) && TABLE_ANNOTATIONS.stream().anyMatch(field::isAnnotationPresent)) {
+                columns.add(column);
+            }
+        }
+
+        return new ViewEntityDescriptor(clazz, paths, converters, fields, columns, this.idFieldOf(clazz), entityType, textSearchFields);
+    }
+
+    private String idFieldOf(Class<?> clazz) {
+        for (Class<?> type = clazz; type != null && type != Object.class; type = type.getSuperclass()) {
+            Optional<Field> idField = Arrays.stream(type.getDeclaredFields()).filter(x -> x.isAnnotationPresent(Id.class)).findFirst();
+            if (idField.isPresent()) {
+                return idField.get().getName();
+            }
+        }
+
+        return null;
     }
 
     private Map<String, Class<?>> extractEntityMetaData(String root, Class<?> clazz, Map<String, Class<?>> map) {
@@ -72,33 +150,54 @@ public class ViewEntityRegistry {
                 type.equals(BigDecimal.class) || type.equals(BigInteger.class);
     }
 
+    // Descriptor of the view entity named viewEntityName, null if there is no such view entity
+    ViewEntityDescriptor getDescriptor(String viewEntityName) {
+        return viewEntityName == null ? null : this.descriptorsByName.get(viewEntityName);
+    }
+
+    // Descriptor of the view entity class, null if it is not registered
+    ViewEntityDescriptor getDescriptor(Class<?> clazz) {
+        return this.descriptorsByClass.get(clazz);
+    }
+
+    Collection<ViewEntityDescriptor> getDescriptors() {
+        return this.descriptorsByName.values();
+    }
+
     public Map<String, Class<?>> getEntityMetaData(Class<?> clazz) {
-        return this.viewEntityDictionary.get(clazz);
+        ViewEntityDescriptor descriptor = this.getDescriptor(clazz);
+        return descriptor == null ? null : descriptor.getPaths();
+    }
+
+    public List<ViewEntityColumn> getColumns(Class<?> clazz) {
+        ViewEntityDescriptor descriptor = this.getDescriptor(clazz);
+        return descriptor == null ? null : descriptor.getColumns();
+    }
+
+    // Any field declared by the view entity, null if there is no such field
+    public ViewEntityColumn getField(Class<?> clazz, String fieldName) {
+        ViewEntityDescriptor descriptor = this.getDescriptor(clazz);
+        return descriptor == null ? null : descriptor.getField(fieldName);
+    }
+
+    // Name of the field annotated with @Id, null if the view entity has none
+    public String getIdField(Class<?> clazz) {
+        ViewEntityDescriptor descriptor = this.getDescriptor(clazz);
+        return descriptor == null ? null : descriptor.getIdField();
     }
 
     // Check if the entity is registered
     public boolean isRegistered(Class<?> clazz) {
-        return this.viewEntityDictionary.containsKey(clazz);
+        return this.descriptorsByClass.containsKey(clazz);
     }
 
     // Check the registry to see if the inputted view entity name is a supported view entity
     public boolean isSupported(String viewEntityName) {
-        for (Class<?> clazz : this.viewEntityDictionary.keySet()) {
-            if (clazz.getSimpleName().equals(viewEntityName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return this.getDescriptor(viewEntityName) != null;
     }
 
     public Class<? extends ViewEntity> getViewEntityClass(String viewEntityName) {
-        for (Class<? extends ViewEntity> clazz : this.viewEntityDictionary.keySet()) {
-            if (clazz.getSimpleName().equals(viewEntityName)) {
-                return clazz;
-            }
-        }
-
-        return null;
+        ViewEntityDescriptor descriptor = this.getDescriptor(viewEntityName);
+        return descriptor == null ? null : descriptor.getEntityClazz();
     }
 }
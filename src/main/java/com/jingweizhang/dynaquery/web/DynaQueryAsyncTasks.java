@@ -0,0 +1,27 @@
+package com.jingweizhang.dynaquery.web;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.util.concurrent.Callable;
+
+/**
+ * @Description
+ * Runs the query endpoints as async requests on DynaQuery's own executor and with its own timeout,
+ * leaving the executor and timeout of Spring MVC to the rest of the application.
+ * An executor full with work rejects further queries instead of queueing them without end.
+ */
+public class DynaQueryAsyncTasks {
+    private final AsyncTaskExecutor executor;
+    private final long timeoutMillis;
+
+    public DynaQueryAsyncTasks(AsyncTaskExecutor executor, long timeoutMillis) {
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Statements still running at the timeout are cancelled by DynaQueryCancellingInterceptor.
+    public <T> WebAsyncTask<T> of(Callable<T> callable) {
+        return new WebAsyncTask<>(this.timeoutMillis, this.executor, callable);
+    }
+}
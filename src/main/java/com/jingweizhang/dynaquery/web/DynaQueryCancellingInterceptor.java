@@ -0,0 +1,63 @@
+package com.jingweizhang.dynaquery.web;
+
+import com.jingweizhang.dynaquery.service.DynaQueryCancellationToken;
+import com.jingweizhang.dynaquery.service.DynaQueryService;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+
+/**
+ * @Description
+ * Cancels the statement of a request whose client went away, or whose async processing timed out,
+ * instead of letting the database finish a result nobody is going to read.
+ * The servlet container reports a client going away for asynchronous requests only,
+ * so the query endpoints return an async task. Its queries run under a token of the request, never cancelling
+ * a statement the thread runs for the next request it picks up.
+ * Even then the Servlet API doesn't promise to report it: Tomcat only notices a closed connection when it reads from or
+ * writes to it, which it doesn't while the query runs. A query whose client went away may then run on until the
+ * timeout of its statement, dyna-query.query-timeout, or of its request, dyna-query.web.timeout-millis, cancels it.
+ */
+public class DynaQueryCancellingInterceptor implements CallableProcessingInterceptor {
+    private static final String TOKEN_ATTRIBUTE = DynaQueryCancellingInterceptor.class.getName() + ".token";
+
+    private final DynaQueryService dynaQueryService;
+    public DynaQueryCancellingInterceptor(DynaQueryService dynaQueryService) {
+        this.dynaQueryService = dynaQueryService;
+    }
+
+    // Called on the thread about to run the request, as is postProcess once it ran
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        request.setAttribute(TOKEN_ATTRIBUTE, DynaQueryCancellationToken.open(), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+        Object token = request.getAttribute(TOKEN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (token instanceof DynaQueryCancellationToken) {
+            ((DynaQueryCancellationToken) token).close();
+        }
+        request.removeAttribute(TOKEN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+        this.cancel(request);
+        return RESULT_NONE;
+    }
+
+    @Override
+    public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+        this.cancel(request);
+        return RESULT_NONE;
+    }
+
+    private void cancel(NativeWebRequest request) {
+        Object token = request.getAttribute(TOKEN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (token instanceof DynaQueryCancellationToken) {
+            this.dynaQueryService.cancel((DynaQueryCancellationToken) token);
+        }
+    }
+}
@@ -1,13 +1,28 @@
 package com.jingweizhang.dynaquery.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchItem;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchResult;
+import com.jingweizhang.dynaquery.dto.DynaQueryColumnarPage;
+import com.jingweizhang.dynaquery.dto.DynaQueryKeysetPage;
 import com.jingweizhang.dynaquery.dto.DynaQueryReference;
 import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.CountStrategy;
 import com.jingweizhang.dynaquery.service.DynaQueryService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -15,6 +30,8 @@ import java.util.Optional;
 /**
  * @Description
  * A generic controller to handle all dynaquery request as long as the view entity is defined.
+ * Queries run asynchronously on an executor of their own, see DynaQueryAsyncTasks, so that their statements can be
+ * cancelled when the client goes away, see DynaQueryCancellingInterceptor.
  *
  * @Author rocky.zhang on 2023/4/7
  */
@@ -22,61 +39,164 @@ import java.util.Optional;
 @RestController
 @RequestMapping("/dynaquery")
 public class DynaQueryController {
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    // Rows column by column, the names once and then the values of each column, see DynaQueryColumnarPage.
+    private static final String APPLICATION_COLUMNAR_JSON_VALUE = "application/vnd.dynaquery.columnar+json";
+
     private final DynaQueryService dynaQueryService;
-    public DynaQueryController(DynaQueryService dynaQueryService) {
+    private final ObjectMapper objectMapper;
+    private final DynaQueryAsyncTasks asyncTasks;
+    public DynaQueryController(DynaQueryService dynaQueryService, ObjectMapper objectMapper, DynaQueryAsyncTasks asyncTasks) {
         this.dynaQueryService = dynaQueryService;
+        this.objectMapper = objectMapper;
+        this.asyncTasks = asyncTasks;
     }
 
     @PostMapping(value = "/queryOne", produces = "application/json")
     @ResponseBody
-    public Optional<Map<String, Object>> queryOne(@RequestBody DynaQueryRequest queryRequest) {
-        return this.dynaQueryService.queryOne(queryRequest);
+    public WebAsyncTask<Optional<Map<String, Object>>> queryOne(@RequestBody DynaQueryRequest queryRequest) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryOne(queryRequest));
     }
 
     @PostMapping(value = "/queryAll/pageNumber/{pageNum}/pageSize/{pageSize}", produces = "application/json")
     @ResponseBody
-    public Page<Map<String, Object>> queryAll(@RequestBody DynaQueryRequest queryRequest,
-                                           @PathVariable int pageNum,
-                                           @PathVariable int pageSize) {
-        Pageable pageable;
+    public WebAsyncTask<Slice<Map<String, Object>>> queryAll(@RequestBody DynaQueryRequest queryRequest,
+                                                          @PathVariable int pageNum,
+                                                          @PathVariable int pageSize,
+                                                          @RequestParam(defaultValue = "EXACT") CountStrategy countStrategy) {
+        Pageable pageable = this.pageableOf(pageNum, pageSize);
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryAll(queryRequest, pageable, countStrategy));
+    }
+
+    // An invalid page number or size asks for everything.
+    private Pageable pageableOf(int pageNum, int pageSize) {
         try {
-            pageable = PageRequest.of(pageNum, pageSize);
+            return PageRequest.of(pageNum, pageSize);
         } catch (Exception e) {
-            pageable = Pageable.unpaged();
+            return Pageable.unpaged();
         }
-        return this.dynaQueryService.queryAll(queryRequest, pageable);
     }
 
     @PostMapping(value = "/queryAll", produces = "application/json")
     @ResponseBody
-    public List<Map<String, Object>> queryAll(@RequestBody DynaQueryRequest queryRequest) {
-        return this.dynaQueryService.queryAll(queryRequest, Pageable.unpaged()).getContent();
+    public WebAsyncTask<List<Map<String, Object>>> queryAll(@RequestBody DynaQueryRequest queryRequest) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryAll(queryRequest, Pageable.unpaged()).getContent());
     }
 
-    @GetMapping(value = "/queryAll/query/{id}/pageNumber/{pageNum}/pageSize/{pageSize}", produces = "application/json")
+    @PostMapping(value = "/queryAll/pageNumber/{pageNum}/pageSize/{pageSize}", produces = APPLICATION_COLUMNAR_JSON_VALUE)
+    @ResponseBody
+    public WebAsyncTask<DynaQueryColumnarPage> queryAllColumnar(@RequestBody DynaQueryRequest queryRequest,
+                                                                @PathVariable int pageNum,
+                                                                @PathVariable int pageSize,
+                                                                @RequestParam(defaultValue = "EXACT") CountStrategy countStrategy) {
+        Pageable pageable = this.pageableOf(pageNum, pageSize);
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryAllColumnar(queryRequest, pageable, countStrategy));
+    }
+
+    @PostMapping(value = "/queryAll", produces = APPLICATION_COLUMNAR_JSON_VALUE)
+    @ResponseBody
+    public WebAsyncTask<DynaQueryColumnarPage> queryAllColumnar(@RequestBody DynaQueryRequest queryRequest) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryAllColumnar(queryRequest, Pageable.unpaged(), CountStrategy.EXACT));
+    }
+
+    // Many queries in one round trip, e.g. all widgets of a dashboard. Results are keyed by the ids of the queries.
+    @PostMapping(value = "/batch", produces = "application/json")
     @ResponseBody
-    public Page<Map<String, Object>> querySavedQuery(@PathVariable int id,
-                                                     @PathVariable int pageNum,
-                                                     @PathVariable int pageSize) {
-        Pageable pageable;
+    public WebAsyncTask<Map<String, DynaQueryBatchResult>> queryBatch(@RequestBody List<DynaQueryBatchItem> items) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryBatch(items));
+    }
+
+    // Export a whole result as newline delimited json, one row per line, written while the rows are read from database.
+    @PostMapping(value = "/queryAll/stream", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAll(@RequestBody DynaQueryRequest queryRequest) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = this.createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                this.dynaQueryService.streamAll(queryRequest, row -> this.writeRow(generator, row, true));
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    // Same as the ndjson export, but rows are written as elements of a single json array.
+    @PostMapping(value = "/queryAll/stream", produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> streamAllAsArray(@RequestBody DynaQueryRequest queryRequest) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = this.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                this.dynaQueryService.streamAll(queryRequest, row -> this.writeRow(generator, row, false));
+                generator.writeEndArray();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // The response stream belongs to the servlet container, leave it open.
+    private JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        return this.objectMapper.getFactory().createGenerator(outputStream).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    // Writing blocks while the client is slow to read, which holds back fetching of further rows.
+    private void writeRow(JsonGenerator generator, Map<String, Object> row, boolean newLine) {
         try {
-            pageable = PageRequest.of(pageNum, pageSize);
-        } catch (Exception e) {
-            pageable = Pageable.unpaged();
+            generator.writeObject(row);
+            if (newLine) {
+                generator.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return this.dynaQueryService.querySavedQuery(id, pageable);
+    }
+
+    @PostMapping(value = "/queryAll/keyset/pageSize/{pageSize}", produces = "application/json")
+    @ResponseBody
+    public WebAsyncTask<DynaQueryKeysetPage<Map<String, Object>>> queryAllByKeyset(@RequestBody DynaQueryRequest queryRequest,
+                                                                                   @PathVariable int pageSize,
+                                                                                   @RequestParam(required = false) String continuation) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.queryAllByKeyset(queryRequest, pageSize, continuation));
+    }
+
+    @GetMapping(value = "/queryAll/query/{id}/pageNumber/{pageNum}/pageSize/{pageSize}", produces = "application/json")
+    @ResponseBody
+    public WebAsyncTask<Page<Map<String, Object>>> querySavedQuery(@PathVariable int id,
+                                                                   @PathVariable int pageNum,
+                                                                   @PathVariable int pageSize) {
+        Pageable pageable = this.pageableOf(pageNum, pageSize);
+        return this.asyncTasks.of(() -> this.dynaQueryService.querySavedQuery(id, pageable));
     }
 
     @GetMapping(value = "/queryAll/query/{id}", produces = "application/json")
     @ResponseBody
-    public List<Map<String, Object>> querySavedQuery(@PathVariable int id) {
-        return this.dynaQueryService.querySavedQuery(id, Pageable.unpaged()).getContent();
+    public WebAsyncTask<List<Map<String, Object>>> querySavedQuery(@PathVariable int id) {
+        return this.asyncTasks.of(() -> this.dynaQueryService.querySavedQuery(id, Pageable.unpaged()).getContent());
+    }
+
+    @DeleteMapping("/cache/query/{id}")
+    public void evictSavedQuery(@PathVariable int id) {
+        this.dynaQueryService.evictSavedQuery(id);
+    }
+
+    @DeleteMapping("/cache/view/{targetView}")
+    public void evictView(@PathVariable String targetView) {
+        this.dynaQueryService.evictView(targetView);
+    }
+
+    @DeleteMapping("/cache")
+    public void evictAll() {
+        this.dynaQueryService.evictAll();
+    }
+
+    @PostMapping("/rollups/refresh")
+    public void refreshRollups() {
+        this.dynaQueryService.refreshRollups();
     }
 
     @PostMapping("/saveQuery/{name}/isDefault/{isDefault}")
     public DynaQueryReference saveQuery(@RequestBody DynaQueryRequest queryRequest,
-                                        @PathVariable String name,
-                                        @PathVariable boolean isDefault) {
+                                            @PathVariable String name,
+                                            @PathVariable boolean isDefault) {
         return this.dynaQueryService.saveQuery(queryRequest, name, isDefault);
     }
 
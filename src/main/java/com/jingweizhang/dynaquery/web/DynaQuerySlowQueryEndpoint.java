@@ -0,0 +1,33 @@
+package com.jingweizhang.dynaquery.web;
+
+import com.jingweizhang.dynaquery.dto.DynaQuerySlowQuery;
+import com.jingweizhang.dynaquery.service.DynaQueryService;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * @Description
+ * Actuator endpoint /actuator/slowqueries listing the latest slow statements, latest first. DELETE empties the list.
+ */
+@Component
+@Endpoint(id = "slowqueries")
+public class DynaQuerySlowQueryEndpoint {
+    private final DynaQueryService dynaQueryService;
+    public DynaQuerySlowQueryEndpoint(DynaQueryService dynaQueryService) {
+        this.dynaQueryService = dynaQueryService;
+    }
+
+    @ReadOperation
+    public List<DynaQuerySlowQuery> slowQueries() {
+        return this.dynaQueryService.getSlowQueries();
+    }
+
+    @DeleteOperation
+    public void clear() {
+        this.dynaQueryService.clearSlowQueries();
+    }
+}
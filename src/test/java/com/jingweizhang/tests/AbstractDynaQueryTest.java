@@ -0,0 +1,105 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.service.DynaQueryService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.AutoConfigureDataJpa;
+import org.springframework.boot.test.autoconfigure.orm.jpa.AutoConfigureTestEntityManager;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Description
+ * Context and orders shared by the tests. A test class of a feature adds the properties of its feature only,
+ * by @TestPropertySource, so every feature is tested with the others off.
+ */
+@SpringBootTest(
+        properties = {
+            "dyna-query.view-entity-package=com.jingweizhang.tests"
+        }
+)
+@AutoConfigureDataJpa
+@AutoConfigureTestDatabase
+@AutoConfigureTestEntityManager
+@ComponentScan(basePackages = {
+        "com.jingweizhang.dynaquery"})
+@EnableJpaRepositories(basePackageClasses = {
+        OrderRepository.class
+})
+@EntityScan(basePackageClasses = {
+        Order.class,
+        Product.class
+})
+public abstract class AbstractDynaQueryTest {
+    @Autowired
+    protected DynaQueryService variantQueryService;
+
+    @Autowired
+    protected OrderRepository orderRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    protected static final int pageNum = 0;
+    protected static final int pageSize = 10;
+
+    protected List<Order> orders;
+
+    @BeforeEach
+    public void setUp() {
+        Order entity1 = new Order();
+        entity1.setCustomerName("customer");
+        entity1.setAmount(6.5);
+        entity1.setShippingAddress("5th Avenue, New York");
+        entity1.setProducts(
+                Arrays.asList(
+                        new Product("product1", 1000),
+                        new Product("product2", 500)
+                )
+        );
+
+        Order entity2 = new Order();
+        entity2.setCustomerName("customer1");
+        entity2.setAmount(15.5);
+        entity2.setShippingAddress("5th Avenue, New York");
+        entity2.setProducts(
+                Arrays.asList(
+                        new Product("product1", 1000),
+                        new Product("product2", 500)
+                )
+        );
+
+        Order entity3 = new Order();
+        entity3.setCustomerName("customer2");
+        entity3.setAmount(11.6);
+        entity3.setShippingAddress("5th Avenue, New York");
+        entity3.setProducts(
+                Arrays.asList(
+                        new Product("product1", 1000),
+                        new Product("product2", 500)
+                )
+        );
+
+        this.orders = this.orderRepository.saveAll(Arrays.asList(entity1, entity2, entity3));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        this.orderRepository.deleteAll(this.orders);
+    }
+
+    // Queries Hibernate executed, by their JPQL. Only kept with hibernate.generate_statistics.
+    protected Statistics statistics() {
+        return this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
@@ -0,0 +1,90 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchItem;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchResult;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.*;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description
+ * Queries of a batch on the same view, each on a connection of its own.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.batch.threads=4",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.jingweizhang.tests.DynaQueryBatchConcurrencyTest$OrdersInspector"
+})
+public class DynaQueryBatchConcurrencyTest extends AbstractDynaQueryTest {
+    @AfterEach
+    public void resetInspector() {
+        OrdersInspector.barrier = null;
+    }
+
+    @Test
+    public void testSameViewQueriesRunConcurrently() {
+        // Every statement waits for the other two, queries taking turns on a connection would never get past the first.
+        OrdersInspector.barrier = new CyclicBarrier(3);
+        Map<String, DynaQueryBatchResult> results = this.variantQueryService.queryBatch(Arrays.asList(
+                new DynaQueryBatchItem("customer", byCustomer("customer"), null, null, null),
+                new DynaQueryBatchItem("customer1", byCustomer("customer1"), null, null, null),
+                new DynaQueryBatchItem("customer2", byCustomer("customer2"), null, null, null)
+        ));
+
+        for (DynaQueryBatchResult result : results.values()) {
+            Assertions.assertEquals(DynaQueryBatchResult.Status.OK, result.getStatus(), result.getError());
+            Assertions.assertEquals(1, result.getResult().getNumberOfElements());
+        }
+    }
+
+    @Test
+    public void testIdenticalQueriesRunOnce() {
+        OrdersInspector.statements.set(0);
+        Map<String, DynaQueryBatchResult> results = this.variantQueryService.queryBatch(Arrays.asList(
+                new DynaQueryBatchItem("first", byCustomer("customer1"), null, null, null),
+                new DynaQueryBatchItem("second", byCustomer("customer1"), null, null, null),
+                new DynaQueryBatchItem("other", byCustomer("customer2"), null, null, null)
+        ));
+
+        Assertions.assertEquals(2, OrdersInspector.statements.get());
+        Assertions.assertEquals(15.5, results.get("first").getResult().getContent().get(0).get("amount"));
+        Assertions.assertEquals(15.5, results.get("second").getResult().getContent().get(0).get("amount"));
+        Assertions.assertEquals(11.6, results.get("other").getResult().getContent().get(0).get("amount"));
+    }
+
+    private static DynaQueryRequest byCustomer(String customerName) {
+        DynaQueryRequest request = new DynaQueryRequest();
+        request.setTargetView("Order");
+        request.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList(customerName)));
+        return request;
+    }
+
+    // Counts the statements of the queries by customer, and holds each at the barrier when there is one.
+    public static class OrdersInspector implements StatementInspector {
+        static volatile CyclicBarrier barrier;
+        static final AtomicInteger statements = new AtomicInteger();
+
+        @Override
+        public String inspect(String sql) {
+            if (!sql.contains(" from orders order0_ where order0_.customer_name=")) {
+                return sql;
+            }
+
+            statements.incrementAndGet();
+            CyclicBarrier barrier = OrdersInspector.barrier;
+            if (barrier != null) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Queries by customer did not run at the same time", e);
+                }
+            }
+            return sql;
+        }
+    }
+}
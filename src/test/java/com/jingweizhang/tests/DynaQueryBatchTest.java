@@ -0,0 +1,94 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchItem;
+import com.jingweizhang.dynaquery.dto.DynaQueryBatchResult;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.*;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Many queries in one call.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.batch.threads=1",
+        "dyna-query.batch.timeout-millis=2000",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.jingweizhang.tests.DynaQueryBatchTest$SlowQueryInspector"
+})
+public class DynaQueryBatchTest extends AbstractDynaQueryTest {
+    @Test
+    public void testBatch() {
+        DynaQueryRequest byCustomer = new DynaQueryRequest();
+        byCustomer.setTargetView("Order");
+        byCustomer.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList("customer1")));
+
+        DynaQueryRequest grouped = new DynaQueryRequest();
+        grouped.setTargetView("Order");
+        grouped.setGroup(
+                new DynaQueryRequest.GroupBy(
+                        new ArrayList<>(List.of("shippingAddress")),
+                        new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalSum"),
+                        null
+                )
+        );
+
+        DynaQueryRequest invalid = new DynaQueryRequest();
+        invalid.setTargetView("Order");
+        invalid.setFilter(new DynaQueryRequest.SimpleFilter("customer", "EQ", Collections.singletonList("customer1")));
+
+        Map<String, DynaQueryBatchResult> results = this.variantQueryService.queryBatch(Arrays.asList(
+                new DynaQueryBatchItem("byCustomer", byCustomer, 0, 10, null),
+                new DynaQueryBatchItem("invalid", invalid, null, null, null),
+                new DynaQueryBatchItem("grouped", grouped, null, null, null)
+        ));
+
+        Assertions.assertEquals(List.of("byCustomer", "invalid", "grouped"), new ArrayList<>(results.keySet()));
+        Assertions.assertEquals(DynaQueryBatchResult.Status.OK, results.get("byCustomer").getStatus());
+        Assertions.assertEquals(15.5, results.get("byCustomer").getResult().getContent().get(0).get("amount"));
+        Assertions.assertEquals(DynaQueryBatchResult.Status.OK, results.get("grouped").getStatus());
+        Assertions.assertEquals(33.6, (Double) results.get("grouped").getResult().getContent().get(0).get("totalSum"));
+        // A failed query doesn't fail the batch
+        Assertions.assertEquals(DynaQueryBatchResult.Status.FAILED, results.get("invalid").getStatus());
+        Assertions.assertNotNull(results.get("invalid").getError());
+    }
+
+    @Test
+    public void testTimedOutQueryReleasesItsConnection() {
+        DynaQueryRequest grouped = new DynaQueryRequest();
+        grouped.setTargetView("Order");
+        grouped.setGroup(
+                new DynaQueryRequest.GroupBy(
+                        new ArrayList<>(List.of("shippingAddress")),
+                        new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalSum"),
+                        null
+                )
+        );
+
+        // Far slower than the deadline, its statement is cancelled when the deadline passes
+        SlowQueryInspector.slow = true;
+        Map<String, DynaQueryBatchResult> timedOut;
+        try {
+            timedOut = this.variantQueryService.queryBatch(List.of(new DynaQueryBatchItem("slow", grouped, null, null, null)));
+        } finally {
+            SlowQueryInspector.slow = false;
+        }
+        Assertions.assertEquals(DynaQueryBatchResult.Status.TIMEOUT, timedOut.get("slow").getStatus());
+
+        // The only thread, and its connection, are free again for the next batch
+        Map<String, DynaQueryBatchResult> results = this.variantQueryService.queryBatch(List.of(new DynaQueryBatchItem("fast", grouped, null, null, null)));
+        Assertions.assertEquals(DynaQueryBatchResult.Status.OK, results.get("fast").getStatus());
+    }
+
+    // Makes the queries on orders scan a billion rows more, when asked to.
+    public static class SlowQueryInspector implements StatementInspector {
+        static volatile boolean slow;
+
+        @Override
+        public String inspect(String sql) {
+            return slow ? sql.replace(" from orders order0_", " from orders order0_ cross join system_range(1, 1000000000) slow_") : sql;
+        }
+    }
+}
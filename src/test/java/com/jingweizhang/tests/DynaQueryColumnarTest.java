@@ -0,0 +1,36 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryColumnarPage;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.CountStrategy;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Pages answered column by column.
+ */
+public class DynaQueryColumnarTest extends AbstractDynaQueryTest {
+    @Test
+    public void testQueryAllColumnar() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setOrders(List.of(new DynaQueryRequest.OrderBy("amount", "ASC", 0)));
+
+        DynaQueryColumnarPage page = this.variantQueryService.queryAllColumnar(queryRequest, PageRequest.of(pageNum, pageSize), CountStrategy.EXACT);
+        Map<String, DynaQueryColumnarPage.Column> columns = page.getColumns().stream()
+                .collect(Collectors.toMap(DynaQueryColumnarPage.Column::getName, Function.identity()));
+
+        Assertions.assertEquals(3, page.getRowCount());
+        Assertions.assertEquals(3L, page.getTotalElements());
+        Assertions.assertEquals(Arrays.asList(6.5, 11.6, 15.5), columns.get("amount").getValues());
+        Assertions.assertNull(columns.get("customerName").getDictionary());
+        // Every order ships to the same address, it is sent once.
+        Assertions.assertEquals(List.of("5th Avenue, New York"), columns.get("shippingAddress").getDictionary());
+        Assertions.assertEquals(Arrays.asList(0, 0, 0), columns.get("shippingAddress").getValues());
+    }
+}
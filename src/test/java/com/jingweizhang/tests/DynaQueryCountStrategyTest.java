@@ -0,0 +1,57 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.CountStrategy;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Totals of a page counted exactly, estimated, cached or skipped.
+ */
+public class DynaQueryCountStrategyTest extends AbstractDynaQueryTest {
+    @Test
+    public void testCountStrategies() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(
+                new DynaQueryRequest.SimpleFilter(
+                        "shippingAddress",
+                        "EQ",
+                        Collections.singletonList("5th Avenue, New York")
+                )
+        );
+
+        Slice<Map<String, Object>> skipped = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), CountStrategy.SKIP);
+        Assertions.assertFalse(skipped instanceof Page);
+        Assertions.assertTrue(skipped.hasNext());
+        Assertions.assertEquals(2, skipped.getNumberOfElements());
+
+        Slice<Map<String, Object>> lastSkipped = this.variantQueryService.queryAll(queryRequest, PageRequest.of(1, 2), CountStrategy.SKIP);
+        Assertions.assertFalse(lastSkipped.hasNext());
+        Assertions.assertEquals(1, lastSkipped.getNumberOfElements());
+
+        // H2 gives no estimate, so it is counted exactly
+        Slice<Map<String, Object>> estimated = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), CountStrategy.ESTIMATED);
+        Assertions.assertEquals(3, ((Page<Map<String, Object>>) estimated).getTotalElements());
+
+        Slice<Map<String, Object>> cached = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), CountStrategy.CACHED);
+        Assertions.assertEquals(3, ((Page<Map<String, Object>>) cached).getTotalElements());
+
+        Order entity4 = new Order();
+        entity4.setCustomerName("customer3");
+        entity4.setAmount(1.5);
+        entity4.setShippingAddress("5th Avenue, New York");
+        entity4.setProducts(new ArrayList<>());
+        this.orders.add(this.orderRepository.save(entity4));
+
+        Slice<Map<String, Object>> stillCached = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), CountStrategy.CACHED);
+        Slice<Map<String, Object>> exact = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), CountStrategy.EXACT);
+        Assertions.assertEquals(3, ((Page<Map<String, Object>>) stillCached).getTotalElements());
+        Assertions.assertEquals(4, ((Page<Map<String, Object>>) exact).getTotalElements());
+    }
+}
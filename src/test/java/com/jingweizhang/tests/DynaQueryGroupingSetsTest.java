@@ -0,0 +1,56 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Group by of many aggregators, COUNT DISTINCT and grouping sets.
+ */
+public class DynaQueryGroupingSetsTest extends AbstractDynaQueryTest {
+    @Test
+    public void testGroupByWithAggregatorsAndRollup() {
+        DynaQueryRequest.GroupBy groupBy = new DynaQueryRequest.GroupBy(
+                new ArrayList<>(List.of("shippingAddress", "customerName")),
+                null,
+                null
+        );
+        groupBy.setAggregators(Arrays.asList(
+                new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalSum"),
+                new DynaQueryRequest.GroupBy.Aggregator("customerName", "COUNT_DISTINCT", "customers"),
+                new DynaQueryRequest.GroupBy.Aggregator("amount", "MAX", "maxAmount")
+        ));
+        groupBy.setRollup(true);
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setGroup(groupBy);
+
+        // A row per customer, a subtotal of the address and the grand total, counted across pages.
+        Page<Map<String, Object>> firstPage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2), (x) -> x);
+        Assertions.assertEquals(5, firstPage.getTotalElements());
+        Assertions.assertEquals(2, firstPage.getContent().size());
+        Assertions.assertEquals(Arrays.asList("shippingAddress", "customerName", "totalSum", "customers", "maxAmount"), new ArrayList<>(firstPage.getContent().get(0).keySet()));
+
+        List<Map<String, Object>> rows = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, pageSize), (x) -> x).getContent();
+        Map<String, Object> subtotal = rows.stream().filter(x -> x.get("shippingAddress") != null && x.get("customerName") == null).findFirst().orElseThrow();
+        Map<String, Object> total = rows.stream().filter(x -> x.get("shippingAddress") == null && x.get("customerName") == null).findFirst().orElseThrow();
+        Assertions.assertEquals(33.6, (Double) subtotal.get("totalSum"), 1e-9);
+        Assertions.assertEquals(3L, subtotal.get("customers"));
+        Assertions.assertEquals(15.5, (Double) total.get("maxAmount"), 1e-9);
+
+        // Groups are counted, not the rows grouped.
+        DynaQueryRequest perCustomer = new DynaQueryRequest();
+        perCustomer.setTargetView("Order");
+        perCustomer.setGroup(new DynaQueryRequest.GroupBy(
+                new ArrayList<>(List.of("customerName")),
+                new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalSum"),
+                null
+        ));
+        Page<Map<String, Object>> groups = this.variantQueryService.queryAll(perCustomer, PageRequest.of(0, 2), (x) -> x);
+        Assertions.assertEquals(3, groups.getTotalElements());
+    }
+}
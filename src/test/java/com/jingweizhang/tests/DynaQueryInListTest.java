@@ -0,0 +1,48 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * @Description
+ * Large IN lists bound as a single array.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.in-list.array-threshold=4",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class DynaQueryInListTest extends AbstractDynaQueryTest {
+    @Test
+    public void testLargeInListBoundAsArray() {
+        BiFunction<String, List<String>, DynaQueryRequest> requestOf = (filterOperator, customerNames) -> {
+            DynaQueryRequest queryRequest = new DynaQueryRequest();
+            queryRequest.setTargetView("Order");
+            queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", filterOperator, customerNames));
+            return queryRequest;
+        };
+
+        this.statistics().clear();
+        Page<Map<String, Object>> in = this.variantQueryService.queryAll(
+                requestOf.apply("IN", List.of("customer", "customer1", "customer2", "unknown1", "unknown2", "unknown3")), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(3, in.getTotalElements());
+        // More than 4 values are bound as one array
+        Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).anyMatch(x -> x.contains("dq_any")));
+
+        // Another length shares the plan
+        long hitCount = this.variantQueryService.getPlanCacheStatistics().getHitCount();
+        Page<Map<String, Object>> longer = this.variantQueryService.queryAll(
+                requestOf.apply("IN", List.of("customer", "unknown1", "unknown2", "unknown3", "unknown4", "unknown5", "unknown6")), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(hitCount + 1, this.variantQueryService.getPlanCacheStatistics().getHitCount());
+        Assertions.assertEquals(1, longer.getTotalElements());
+
+        Page<Map<String, Object>> notIn = this.variantQueryService.queryAll(
+                requestOf.apply("NOTIN", List.of("customer", "unknown1", "unknown2", "unknown3", "unknown4")), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(2, notIn.getTotalElements());
+    }
+}
@@ -0,0 +1,104 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryKeysetPage;
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Pages continued after the sort key values of the last row.
+ */
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class DynaQueryKeysetPaginationTest extends AbstractDynaQueryTest {
+    @Test
+    public void testKeysetPagination() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setOrders(
+                Collections.singletonList(
+                        new DynaQueryRequest.OrderBy("shippingAddress", "DESC", 0)
+                )
+        );
+
+        DynaQueryKeysetPage<Map<String, Object>> first = this.variantQueryService.queryAllByKeyset(queryRequest, 2, null);
+        DynaQueryKeysetPage<Map<String, Object>> second = this.variantQueryService.queryAllByKeyset(queryRequest, 2, first.getContinuation());
+
+        Assertions.assertTrue(first.isHasNext());
+        Assertions.assertEquals(2, first.getContent().size());
+        Assertions.assertFalse(second.isHasNext());
+        Assertions.assertNull(second.getContinuation());
+
+        List<Object> customers = new ArrayList<>();
+        first.getContent().forEach(x -> customers.add(x.get("customerName")));
+        second.getContent().forEach(x -> customers.add(x.get("customerName")));
+        // Same shipping address everywhere, so rows are ordered by the id tiebreaker
+        Assertions.assertEquals(Arrays.asList("customer", "customer1", "customer2"), customers);
+    }
+
+    @Test
+    public void testRowValueSeek() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setOrders(
+                Collections.singletonList(
+                        new DynaQueryRequest.OrderBy("amount", "ASC", 0)
+                )
+        );
+
+        this.statistics().clear();
+        // Keys sorted one way and never null are compared as one row value
+        Assertions.assertEquals(Arrays.asList(6.5, 11.6, 15.5), this.pageByPage(queryRequest, "amount"));
+        Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).anyMatch(x -> x.contains("dq_row_gt")));
+    }
+
+    @Test
+    public void testNullableSortKeys() {
+        Order nameless = new Order();
+        nameless.setShippingAddress("5th Avenue, New York");
+        nameless.setAmount(1.0);
+        Order otherNameless = new Order();
+        otherNameless.setShippingAddress("5th Avenue, New York");
+        otherNameless.setAmount(2.0);
+        List<Order> nulls = this.orderRepository.saveAll(Arrays.asList(nameless, otherNameless));
+
+        try {
+            for (String direction : Arrays.asList("ASC", "DESC")) {
+                DynaQueryRequest queryRequest = new DynaQueryRequest();
+                queryRequest.setTargetView("Order");
+                queryRequest.setOrders(Arrays.asList(
+                        new DynaQueryRequest.OrderBy("customerName", direction, 0),
+                        new DynaQueryRequest.OrderBy("orderId", direction, 1)
+                ));
+
+                // Rows of a null name are neither skipped nor repeated, and placed where ORDER BY places them
+                List<Object> expected = new ArrayList<>();
+                this.variantQueryService.queryAll(queryRequest, Pageable.unpaged()).forEach(x -> expected.add(x.get("orderId")));
+                Assertions.assertEquals(5, expected.size());
+                this.statistics().clear();
+                Assertions.assertEquals(expected, this.pageByPage(queryRequest, "orderId"));
+                Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).noneMatch(x -> x.contains("dq_row_")));
+            }
+        } finally {
+            this.orderRepository.deleteAll(nulls);
+        }
+    }
+
+    // Values of the field of all rows, read a row per page
+    private List<Object> pageByPage(DynaQueryRequest queryRequest, String field) {
+        List<Object> values = new ArrayList<>();
+        String continuation = null;
+        do {
+            DynaQueryKeysetPage<Map<String, Object>> page = this.variantQueryService.queryAllByKeyset(queryRequest, 1, continuation);
+            page.getContent().forEach(x -> values.add(x.get(field)));
+            continuation = page.getContinuation();
+        } while (continuation != null);
+
+        return values;
+    }
+}
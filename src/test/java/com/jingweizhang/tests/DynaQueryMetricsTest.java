@@ -0,0 +1,47 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.InvalidViewEntityException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Queries and their stages measured with Micrometer.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.metrics.enabled=true"
+})
+public class DynaQueryMetricsTest extends AbstractDynaQueryTest {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testMetrics() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("shippingAddress", "EQ", Collections.singletonList("5th Avenue, New York")));
+
+        double rowsBefore = this.meterRegistry.counter("dynaquery.rows", "view", "Order", "operation", "queryAll").count();
+        this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2));
+
+        Assertions.assertEquals(2, this.meterRegistry.counter("dynaquery.rows", "view", "Order", "operation", "queryAll").count() - rowsBefore);
+        Assertions.assertTrue(this.meterRegistry.get("dynaquery.query").tags("view", "Order", "operation", "queryAll", "outcome", "success").timer().count() > 0);
+        for (String stage : List.of("normalize", "execute", "fetch", "map")) {
+            Assertions.assertTrue(this.meterRegistry.get("dynaquery.stage").tags("stage", stage, "view", "Order", "operation", "queryAll").timer().count() > 0, stage);
+        }
+        Assertions.assertTrue(this.meterRegistry.get("dynaquery.stage").tags("stage", "execute", "operation", "count").timer().count() > 0);
+        Assertions.assertTrue(this.meterRegistry.get("dynaquery.result.size").tags("view", "Order", "operation", "queryAll").summary().count() > 0);
+
+        // Views nobody registered are not tagged by their name
+        DynaQueryRequest unknownView = new DynaQueryRequest();
+        unknownView.setTargetView("Customer");
+        Assertions.assertThrows(InvalidViewEntityException.class, () -> this.variantQueryService.queryAll(unknownView, PageRequest.of(0, 2)));
+        Assertions.assertTrue(this.meterRegistry.get("dynaquery.stage").tags("stage", "normalize", "view", "unknown", "outcome", "failure").timer().count() > 0);
+    }
+}
@@ -0,0 +1,69 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.FilterConnector;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * @Description
+ * Filters simplified and canonically ordered before conversion.
+ */
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class DynaQueryOptimizerTest extends AbstractDynaQueryTest {
+    @Test
+    public void testFilterOptimizer() {
+        BiFunction<String, List<String>, DynaQueryRequest> requestOf = (lowest, customerNames) -> {
+            List<DynaQueryRequest.Filter> filters = new ArrayList<>(Arrays.asList(
+                    new DynaQueryRequest.CompositeFilter(Arrays.asList(
+                            new DynaQueryRequest.SimpleFilter("amount", "GE", Collections.singletonList(lowest)),
+                            new DynaQueryRequest.SimpleFilter("amount", "LE", Collections.singletonList("12"))
+                    ), FilterConnector.AND),
+                    new DynaQueryRequest.CompositeFilter(Arrays.asList(
+                            new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList(customerNames.get(0))),
+                            new DynaQueryRequest.CompositeFilter(Arrays.asList(
+                                    new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList(customerNames.get(1))),
+                                    new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList(customerNames.get(0)))
+                            ), FilterConnector.OR)
+                    ), FilterConnector.OR),
+                    new DynaQueryRequest.SimpleFilter("amount", "GT", Collections.singletonList("1"))
+            ));
+            DynaQueryRequest queryRequest = new DynaQueryRequest();
+            queryRequest.setTargetView("Order");
+            queryRequest.setFilter(new DynaQueryRequest.CompositeFilter(filters, FilterConnector.AND));
+            return queryRequest;
+        };
+
+        // amount BETWEEN 5 AND 12 AND customerName IN (customer, customer2)
+        Page<Map<String, Object>> first = this.variantQueryService.queryAll(requestOf.apply("5", List.of("customer", "customer2")), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(2, first.getTotalElements());
+
+        // The same predicates in another order share the plan.
+        DynaQueryRequest reordered = requestOf.apply("6", List.of("customer1", "customer"));
+        Collections.reverse(((DynaQueryRequest.CompositeFilter) reordered.getFilter()).getFilters());
+        long hitCount = this.variantQueryService.getPlanCacheStatistics().getHitCount();
+        Page<Map<String, Object>> second = this.variantQueryService.queryAll(reordered, PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(hitCount + 1, this.variantQueryService.getPlanCacheStatistics().getHitCount());
+        Assertions.assertEquals(1, second.getTotalElements());
+        Assertions.assertEquals("customer", second.getContent().get(0).get("customerName"));
+
+        // A range that can't hold is answered without a statement.
+        DynaQueryRequest contradiction = new DynaQueryRequest();
+        contradiction.setTargetView("Order");
+        contradiction.setFilter(new DynaQueryRequest.CompositeFilter(Arrays.asList(
+                new DynaQueryRequest.SimpleFilter("amount", "GT", Collections.singletonList("10")),
+                new DynaQueryRequest.SimpleFilter("amount", "LT", Collections.singletonList("5"))
+        ), FilterConnector.AND));
+        this.statistics().clear();
+        Page<Map<String, Object>> none = this.variantQueryService.queryAll(contradiction, PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(0, none.getTotalElements());
+        Assertions.assertEquals(0, this.statistics().getQueryExecutionCount());
+    }
+}
@@ -0,0 +1,126 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.FailedToFindFieldInViewEntityClassException;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description
+ * Totals counted on a second connection while the page is read.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.parallel-count.enabled=true",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.jingweizhang.tests.DynaQueryParallelCountTest$SlowCountInspector"
+})
+public class DynaQueryParallelCountTest extends AbstractDynaQueryTest {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void testParallelCount() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("shippingAddress", "EQ", Collections.singletonList("5th Avenue, New York")));
+
+        // Counted on a second connection while the page is read
+        Page<Map<String, Object>> firstPage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2));
+        Assertions.assertEquals(3, firstPage.getTotalElements());
+        Assertions.assertEquals(2, firstPage.getNumberOfElements());
+
+        // The last page tells the total by itself, its count is cancelled
+        Page<Map<String, Object>> lastPage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(1, 2));
+        Assertions.assertEquals(3, lastPage.getTotalElements());
+        Assertions.assertEquals(1, lastPage.getNumberOfElements());
+
+        Page<Map<String, Object>> onePage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(3, onePage.getTotalElements());
+
+        DynaQueryRequest nothing = new DynaQueryRequest();
+        nothing.setTargetView("Order");
+        nothing.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList("nobody")));
+        Assertions.assertEquals(0, this.variantQueryService.queryAll(nothing, PageRequest.of(0, 2)).getTotalElements());
+
+        DynaQueryRequest invalid = new DynaQueryRequest();
+        invalid.setTargetView("Order");
+        invalid.setFilter(new DynaQueryRequest.SimpleFilter("customer", "EQ", Collections.singletonList("customer1")));
+        Assertions.assertThrows(FailedToFindFieldInViewEntityClassException.class, () -> this.variantQueryService.queryAll(invalid, PageRequest.of(0, 2)));
+    }
+
+    @Test
+    public void testSlowCountRunsOnce() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("shippingAddress", "EQ", Collections.singletonList("5th Avenue, New York")));
+
+        // Still running when the page is read, the count is waited for instead of counted again
+        SlowCountInspector.counts.set(0);
+        SlowCountInspector.delayMillis = 500;
+        try {
+            Page<Map<String, Object>> firstPage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(0, 2));
+            Assertions.assertEquals(3, firstPage.getTotalElements());
+        } finally {
+            SlowCountInspector.delayMillis = 0;
+        }
+        Assertions.assertEquals(1, SlowCountInspector.counts.get());
+    }
+
+    @Test
+    public void testUnneededCountCancelled() throws InterruptedException {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("shippingAddress", "EQ", Collections.singletonList("5th Avenue, New York")));
+
+        // The last page tells the total by itself, its count scanning a billion rows is cancelled on the database
+        SlowCountInspector.slow = true;
+        try {
+            Page<Map<String, Object>> lastPage = this.variantQueryService.queryAll(queryRequest, PageRequest.of(1, 2));
+            Assertions.assertEquals(3, lastPage.getTotalElements());
+        } finally {
+            SlowCountInspector.slow = false;
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.runningSlowCounts() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(0, this.runningSlowCounts());
+    }
+
+    private int runningSlowCounts() {
+        return this.jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.sessions where executing_statement like '%slow\\_%' escape '\\' and executing_statement not like '%information_schema%'",
+                Integer.class);
+    }
+
+    // Counts the count statements, and slows them down when asked to.
+    public static class SlowCountInspector implements StatementInspector {
+        static final AtomicInteger counts = new AtomicInteger();
+        static volatile long delayMillis;
+        static volatile boolean slow;
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.startsWith("select count(")) {
+                counts.incrementAndGet();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (slow) {
+                    return sql.replace(" from orders order0_", " from orders order0_ cross join system_range(1, 1000000000) slow_");
+                }
+            }
+            return sql;
+        }
+    }
+}
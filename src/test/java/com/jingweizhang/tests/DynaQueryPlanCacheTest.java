@@ -0,0 +1,51 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.model.FilterConnector;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * @Description
+ * Queries of the same shape share a compiled plan.
+ */
+public class DynaQueryPlanCacheTest extends AbstractDynaQueryTest {
+    @Test
+    public void testPlanCacheReusesPlanForDifferentValues() {
+        Function<String, DynaQueryRequest> requestOf = customerName -> {
+            DynaQueryRequest queryRequest = new DynaQueryRequest();
+            queryRequest.setTargetView("Order");
+            queryRequest.setFilter(
+                    new DynaQueryRequest.CompositeFilter(
+                            Arrays.asList(
+                                    new DynaQueryRequest.SimpleFilter(
+                                            "customerName",
+                                            "IN",
+                                            Arrays.asList(customerName, "unknown")
+                                    ),
+                                    new DynaQueryRequest.SimpleFilter(
+                                            "amount",
+                                            "GT",
+                                            Collections.singletonList("1")
+                                    )
+                            ),
+                            FilterConnector.AND
+                    )
+            );
+            return queryRequest;
+        };
+
+        Page<Map<String, Object>> first = this.variantQueryService.queryAll(requestOf.apply("customer1"), PageRequest.of(pageNum, pageSize));
+        long hitCount = this.variantQueryService.getPlanCacheStatistics().getHitCount();
+        Page<Map<String, Object>> second = this.variantQueryService.queryAll(requestOf.apply("customer2"), PageRequest.of(pageNum, pageSize));
+
+        Assertions.assertEquals(hitCount + 1, this.variantQueryService.getPlanCacheStatistics().getHitCount());
+        Assertions.assertEquals("customer1", first.getContent().get(0).get("customerName"));
+        Assertions.assertEquals("customer2", second.getContent().get(0).get("customerName"));
+        Assertions.assertEquals(1, second.getTotalElements());
+    }
+}
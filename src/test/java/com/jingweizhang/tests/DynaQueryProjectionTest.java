@@ -0,0 +1,77 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Projections selected by SQL, and associations joined only when a query refers to them.
+ */
+public class DynaQueryProjectionTest extends AbstractDynaQueryTest {
+    @Test
+    public void testProjectionPushdown() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setProjections(
+                Collections.singletonList(
+                        new DynaQueryRequest.ProjectBy("shippingAddress", true)
+                )
+        );
+        queryRequest.setOrders(
+                Collections.singletonList(
+                        new DynaQueryRequest.OrderBy("amount", "DESC", 0)
+                )
+        );
+
+        Page<Map<String, Object>> result = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize));
+
+        // All orders ship to the same address, still one row per order
+        Assertions.assertEquals(3, result.getTotalElements());
+        Assertions.assertEquals(3, result.getContent().size());
+        result.getContent().forEach(x -> Assertions.assertEquals(Map.of("shippingAddress", "5th Avenue, New York"), x));
+    }
+
+    @Test
+    public void testAssociationsNotJoinedUnlessReferred() {
+        Order entity4 = new Order();
+        entity4.setCustomerName("customer3");
+        entity4.setAmount(10);
+        entity4.setShippingAddress("Broadway, New York");
+        List<Product> products = Arrays.asList(new Product("product1", 1000), new Product("product2", 500));
+        products.forEach(x -> x.setOrder(entity4));
+        entity4.setProducts(products);
+        this.orders.add(this.orderRepository.save(entity4));
+
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(
+                new DynaQueryRequest.SimpleFilter(
+                        "customerName",
+                        "EQ",
+                        Collections.singletonList("customer3")
+                )
+        );
+
+        Page<Map<String, Object>> result = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize));
+
+        Assertions.assertEquals(1, result.getTotalElements());
+        // Collections are still there, fetched by a separate query
+        Assertions.assertEquals(2, ((List<?>) result.getContent().get(0).get("products")).size());
+
+        queryRequest.setGroup(
+                new DynaQueryRequest.GroupBy(
+                        new ArrayList<>(List.of("shippingAddress")),
+                        new DynaQueryRequest.GroupBy.Aggregator("amount", "SUM", "totalSum"),
+                        null
+                )
+        );
+
+        // Products are not joined, so they don't multiply the amount
+        Page<Map<String, Object>> grouped = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(10.0, (Double) grouped.getContent().get(0).get("totalSum"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.extension.ViewChangedEvent;
+import com.jingweizhang.dynaquery.model.DynaQuery;
+import com.jingweizhang.dynaquery.service.DynaQueryRepository;
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Pages of saved queries cached until their view changes.
+ */
+public class DynaQueryResultCacheTest extends AbstractDynaQueryTest {
+    // H2 reads json columns back as json strings, keep saved queries in memory instead
+    @MockBean
+    private DynaQueryRepository dynaQueryRepository;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Test
+    public void testSavedQueryResultCache() {
+        Map<Integer, DynaQuery> savedQueries = new HashMap<>();
+        Mockito.when(this.dynaQueryRepository.save(Mockito.any())).thenAnswer(x -> {
+        DynaQuery dynaQuery = x.getArgument(0);
+        dynaQuery.setId(savedQueries.size() + 1);
+        savedQueries.put(dynaQuery.getId(), dynaQuery);
+        return dynaQuery;
+        });
+        Mockito.when(this.dynaQueryRepository.findById(Mockito.anyInt())).thenAnswer(x -> Optional.ofNullable(savedQueries.get(x.<Integer>getArgument(0))));
+
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        int id = Integer.parseInt(this.variantQueryService.saveQuery(queryRequest, "cached", false).getId());
+
+        Assertions.assertEquals(3, this.variantQueryService.querySavedQuery(id, PageRequest.of(0, 2)).getTotalElements());
+
+        Order entity4 = new Order();
+        entity4.setCustomerName("customer3");
+        entity4.setAmount(1.5);
+        entity4.setShippingAddress("5th Avenue, New York");
+        entity4.setProducts(new ArrayList<>());
+        this.orders.add(this.orderRepository.save(entity4));
+
+        // Served from cache until the view is reported changed
+        Assertions.assertEquals(3, this.variantQueryService.querySavedQuery(id, PageRequest.of(0, 2)).getTotalElements());
+        // Another page is another entry
+        Assertions.assertEquals(4, this.variantQueryService.querySavedQuery(id, PageRequest.of(1, 2)).getTotalElements());
+
+        this.applicationEventPublisher.publishEvent(new ViewChangedEvent("Order"));
+        Assertions.assertEquals(4, this.variantQueryService.querySavedQuery(id, PageRequest.of(0, 2)).getTotalElements());
+
+        this.variantQueryService.evictSavedQuery(id);
+    }
+}
@@ -0,0 +1,96 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.service.DynaQueryMetrics;
+import com.jingweizhang.dynaquery.service.DynaQueryRollups;
+import com.jingweizhang.dynaquery.service.ViewEntityRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * @Description
+ * Group by queries answered from declared rollups.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.rollup.enabled=true",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class DynaQueryRollupTest extends AbstractDynaQueryTest {
+    @Autowired
+    private ViewEntityRegistry viewEntityRegistry;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void testRollupRewrite() {
+        DynaQueryRequest.GroupBy groupBy = new DynaQueryRequest.GroupBy(new ArrayList<>(List.of("customerName")), null, null);
+        groupBy.setAggregators(Arrays.asList(
+                new DynaQueryRequest.GroupBy.Aggregator("amount", "MIN", "minAmount"),
+                new DynaQueryRequest.GroupBy.Aggregator("orderId", "COUNT", "orders")
+        ));
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "IN", Arrays.asList("customer", "customer1")));
+        queryRequest.setGroup(groupBy);
+        queryRequest.setOrders(List.of(new DynaQueryRequest.OrderBy("customerName", "ASC", 0)));
+
+        // Never refreshed, the rollup may be empty or stale, answered from Order.
+        this.statistics().clear();
+        List<Map<String, Object>> rows = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize), (x) -> x).getContent();
+        Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).noneMatch(x -> x.contains("OrderCustomerTotal")));
+        Assertions.assertEquals(2, rows.size());
+
+        // Answered from the rows of the rollup, read as rows of Order.
+        this.variantQueryService.refreshRollups();
+        this.statistics().clear();
+        rows = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize), (x) -> x).getContent();
+        Assertions.assertTrue(this.statistics().getQueries().length > 0);
+        Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).allMatch(x -> x.contains("OrderCustomerTotal")));
+        Assertions.assertEquals(2, rows.size());
+        Assertions.assertEquals("customer", rows.get(0).get("customerName"));
+        Assertions.assertEquals(6.5, (Double) rows.get(0).get("minAmount"), 1e-9);
+        Assertions.assertEquals(1L, rows.get(0).get("orders"));
+
+        // An average can't be aggregated again, it is answered from Order.
+        groupBy.setAggregators(List.of(new DynaQueryRequest.GroupBy.Aggregator("amount", "AVG", "avgAmount")));
+        this.statistics().clear();
+        rows = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize), (x) -> x).getContent();
+        Assertions.assertTrue(Arrays.stream(this.statistics().getQueries()).noneMatch(x -> x.contains("OrderCustomerTotal")));
+        Assertions.assertEquals(6.5, (Double) rows.get(0).get("avgAmount"), 1e-9);
+    }
+
+    @Test
+    public void testLastRefreshedSurvivesRestart() {
+        Instant refreshedUntil;
+        try (DynaQueryRollups rollups = this.newRollups()) {
+            rollups.refresh();
+            refreshedUntil = rollups.getLastRefreshed().get("OrderCustomerTotal");
+            Assertions.assertNotNull(refreshedUntil);
+        }
+
+        // Read back from the table, up to the precision of its timestamps.
+        try (DynaQueryRollups restarted = this.newRollups()) {
+            Instant loaded = restarted.getLastRefreshed().get("OrderCustomerTotal");
+            Assertions.assertNotNull(loaded);
+            Assertions.assertTrue(Duration.between(refreshedUntil, loaded).abs().toMillis() < 1);
+        }
+    }
+
+    private DynaQueryRollups newRollups() {
+        return new DynaQueryRollups(this.viewEntityRegistry, this.entityManager, new TransactionTemplate(this.transactionManager),
+                DynaQueryMetrics.DISABLED, Duration.ZERO, Duration.ofMinutes(10), x -> {});
+    }
+}
@@ -0,0 +1,66 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.dto.DynaQuerySlowQuery;
+import com.jingweizhang.dynaquery.model.CountStrategy;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Slow statements kept with their SQL, binds and request.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.slow-query.enabled=true",
+        "dyna-query.slow-query.threshold-millis=0",
+        "dyna-query.slow-query.capacity=5",
+        "logging.level.com.jingweizhang.dynaquery.service.DynaQuerySlowQueryLog=ERROR"
+})
+public class DynaQuerySlowQueryLogTest extends AbstractDynaQueryTest {
+    @Test
+    public void testSlowQueryLog() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList("customer1")));
+
+        this.variantQueryService.clearSlowQueries();
+        this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize), CountStrategy.SKIP);
+
+        // Every statement is slow with a threshold of 0
+        List<DynaQuerySlowQuery> slowQueries = this.variantQueryService.getSlowQueries();
+        Assertions.assertEquals(1, slowQueries.size());
+        DynaQuerySlowQuery slowQuery = slowQueries.get(0);
+        Assertions.assertEquals("Order", slowQuery.getView());
+        Assertions.assertTrue(slowQuery.getRequest().contains("\"customerName\""));
+        Assertions.assertTrue(slowQuery.getSql().toLowerCase().startsWith("select"));
+        Assertions.assertTrue(slowQuery.getBinds().contains("customer1"));
+        // H2 is never explained
+        Assertions.assertNull(slowQuery.getPlan());
+
+        // Only the latest are kept
+        for (int i = 0; i < 10; i++) {
+            this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize), CountStrategy.SKIP);
+        }
+        Assertions.assertEquals(5, this.variantQueryService.getSlowQueries().size());
+    }
+
+    @Test
+    public void testSlowStreamLog() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList("customer2")));
+
+        this.variantQueryService.clearSlowQueries();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        this.variantQueryService.streamAll(queryRequest, rows::add);
+
+        Assertions.assertEquals(1, rows.size());
+        List<DynaQuerySlowQuery> slowQueries = this.variantQueryService.getSlowQueries();
+        Assertions.assertEquals(1, slowQueries.size());
+        Assertions.assertTrue(slowQueries.get(0).getRequest().contains("\"customerName\""));
+        Assertions.assertTrue(slowQueries.get(0).getBinds().contains("customer2"));
+    }
+}
@@ -0,0 +1,29 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Unpaged exports streamed row by row.
+ */
+public class DynaQueryStreamTest extends AbstractDynaQueryTest {
+    @Test
+    public void testStreamAll() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setOrders(
+                Collections.singletonList(
+                        new DynaQueryRequest.OrderBy("amount", "ASC", 0)
+                )
+        );
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        this.variantQueryService.streamAll(queryRequest, rows::add);
+
+        Assertions.assertEquals(Arrays.asList(6.5, 11.6, 15.5), rows.stream().map(x -> x.get("amount")).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,43 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.UnsupportedFilterOperatorException;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * @Description
+ * STARTS_WITH, ENDS_WITH and CONTAINS with their case-insensitive variants.
+ */
+public class DynaQueryStringOperatorTest extends AbstractDynaQueryTest {
+    @Test
+    public void testStringPatternOperators() {
+        BiFunction<String, String, Long> countOf = (operator, value) -> {
+            DynaQueryRequest queryRequest = new DynaQueryRequest();
+            queryRequest.setTargetView("Order");
+            queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", operator, Collections.singletonList(value)));
+            return this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize)).getTotalElements();
+        };
+
+        Assertions.assertEquals(3, countOf.apply("STARTS_WITH", "cust"));
+        Assertions.assertEquals(0, countOf.apply("STARTS_WITH", "Cust"));
+        Assertions.assertEquals(3, countOf.apply("STARTS_WITH_IGNORE_CASE", "Cust"));
+        Assertions.assertEquals(1, countOf.apply("ENDS_WITH", "r2"));
+        Assertions.assertEquals(1, countOf.apply("ENDS_WITH_IGNORE_CASE", "MER1"));
+        Assertions.assertEquals(3, countOf.apply("CONTAINS", "stome"));
+        Assertions.assertEquals(3, countOf.apply("CONTAINS_IGNORE_CASE", "STOME"));
+        // Wildcards of the value match literally, as LIKE they still are wildcards
+        Assertions.assertEquals(0, countOf.apply("CONTAINS", "cust_mer"));
+        Assertions.assertEquals(0, countOf.apply("STARTS_WITH", "%"));
+        Assertions.assertEquals(3, countOf.apply("LIKE", "cust_mer%"));
+
+        // Only string fields take patterns
+        DynaQueryRequest notString = new DynaQueryRequest();
+        notString.setTargetView("Order");
+        notString.setFilter(new DynaQueryRequest.SimpleFilter("amount", "STARTS_WITH", Collections.singletonList("6")));
+        Assertions.assertThrows(UnsupportedFilterOperatorException.class, () -> this.variantQueryService.queryAll(notString, PageRequest.of(pageNum, pageSize)));
+    }
+}
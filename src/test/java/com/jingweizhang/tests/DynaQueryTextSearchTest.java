@@ -0,0 +1,49 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.UnsupportedFilterOperatorException;
+import com.jingweizhang.dynaquery.exception.UnsupportedSortingOperatorException;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * @Description
+ * TEXT_SEARCH filters and RELEVANCE orders of @TextSearch fields.
+ */
+public class DynaQueryTextSearchTest extends AbstractDynaQueryTest {
+    @Test
+    public void testTextSearch() {
+        BiFunction<String, String, DynaQueryRequest> requestOf = (field, text) -> {
+            DynaQueryRequest queryRequest = new DynaQueryRequest();
+            queryRequest.setTargetView("Order");
+            queryRequest.setFilter(new DynaQueryRequest.SimpleFilter(field, "TEXT_SEARCH", Collections.singletonList(text)));
+            queryRequest.setOrders(List.of(new DynaQueryRequest.OrderBy(field, "RELEVANCE", 0), new DynaQueryRequest.OrderBy("amount", "ASC", 1)));
+            return queryRequest;
+        };
+
+        // H2 has no full text search, the text is found as a substring ignoring case, and relevance leaves the order to the next one
+        Page<Map<String, Object>> all = this.variantQueryService.queryAll(requestOf.apply("shippingAddress", "New YORK"), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(3, all.getTotalElements());
+        Assertions.assertEquals(6.5, all.getContent().get(0).get("amount"));
+
+        Page<Map<String, Object>> one = this.variantQueryService.queryAll(requestOf.apply("customerName", "CUSTOMER1"), PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(1, one.getTotalElements());
+        Assertions.assertEquals("customer1", one.getContent().get(0).get("customerName"));
+
+        // Only fields annotated with @TextSearch are searched
+        DynaQueryRequest notSearchable = new DynaQueryRequest();
+        notSearchable.setTargetView("Order");
+        notSearchable.setFilter(new DynaQueryRequest.SimpleFilter("amount", "TEXT_SEARCH", Collections.singletonList("6.5")));
+        Assertions.assertThrows(UnsupportedFilterOperatorException.class, () -> this.variantQueryService.queryAll(notSearchable, PageRequest.of(pageNum, pageSize)));
+
+        // Relevance is of a text search
+        DynaQueryRequest noSearch = new DynaQueryRequest();
+        noSearch.setTargetView("Order");
+        noSearch.setOrders(List.of(new DynaQueryRequest.OrderBy("customerName", "RELEVANCE", 0)));
+        Assertions.assertThrows(UnsupportedSortingOperatorException.class, () -> this.variantQueryService.queryAll(noSearch, PageRequest.of(pageNum, pageSize)));
+    }
+}
@@ -0,0 +1,45 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.service.DynaQueryCancellationToken;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+
+/**
+ * @Description
+ * Statement timeouts per view, cancellation and the cost check.
+ */
+@TestPropertySource(properties = {
+        "dyna-query.query-timeout.millis=30000",
+        "dyna-query.query-timeout.views.Order.millis=10000",
+        "dyna-query.cost-check.max-cost=1"
+})
+public class DynaQueryTimeoutTest extends AbstractDynaQueryTest {
+    @Test
+    public void testTimeoutsAndCancellation() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.SimpleFilter("customerName", "EQ", Collections.singletonList("customer1")));
+
+        // Cancelling the token of a finished request has no effect on the next request of its thread
+        DynaQueryCancellationToken finished;
+        try (DynaQueryCancellationToken token = DynaQueryCancellationToken.open()) {
+            finished = token;
+            Assertions.assertTrue(this.variantQueryService.queryOne(queryRequest).isPresent());
+        }
+        this.variantQueryService.cancel(finished);
+
+        // Statements carry the timeout of the view, and H2 can't be explained, so the maximum cost doesn't apply
+        Page<Map<String, Object>> page = this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize));
+        Assertions.assertEquals(1, page.getTotalElements());
+        Assertions.assertTrue(this.variantQueryService.queryOne(queryRequest).isPresent());
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        this.variantQueryService.streamAll(queryRequest, rows::add);
+        Assertions.assertEquals(15.5, rows.get(0).get("amount"));
+    }
+}
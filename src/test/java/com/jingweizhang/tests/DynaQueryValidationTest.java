@@ -0,0 +1,84 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.dto.DynaQueryRequest;
+import com.jingweizhang.dynaquery.exception.FailedToConvertFilterValuesToFieldDataTypeException;
+import com.jingweizhang.dynaquery.exception.FailedToFindFieldInViewEntityClassException;
+import com.jingweizhang.dynaquery.exception.InvalidDynaQueryException;
+import com.jingweizhang.dynaquery.exception.InvalidViewEntityException;
+import com.jingweizhang.dynaquery.exception.UnsupportedFilterOperatorException;
+import com.jingweizhang.dynaquery.exception.UnsupportedSortingOperatorException;
+import com.jingweizhang.dynaquery.model.FilterConnector;
+import org.junit.jupiter.api.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * @Description
+ * Requests checked against their view, with all their errors reported at once.
+ */
+public class DynaQueryValidationTest extends AbstractDynaQueryTest {
+    @Test
+    public void testUnknownViewAndFieldRejected() {
+        DynaQueryRequest unknownView = new DynaQueryRequest();
+        unknownView.setTargetView("order");
+        Assertions.assertThrows(InvalidViewEntityException.class, () -> this.variantQueryService.queryAll(unknownView, PageRequest.of(pageNum, pageSize)));
+
+        DynaQueryRequest unknownField = new DynaQueryRequest();
+        unknownField.setTargetView("Order");
+        unknownField.setFilter(new DynaQueryRequest.SimpleFilter("customer", "EQ", Collections.singletonList("customer")));
+        Assertions.assertThrows(FailedToFindFieldInViewEntityClassException.class, () -> this.variantQueryService.queryAll(unknownField, PageRequest.of(pageNum, pageSize)));
+    }
+
+    @Test
+    public void testAllErrorsReportedAtOnce() {
+        DynaQueryRequest queryRequest = new DynaQueryRequest();
+        queryRequest.setTargetView("Order");
+        queryRequest.setFilter(new DynaQueryRequest.CompositeFilter(Arrays.asList(
+                new DynaQueryRequest.SimpleFilter("customer", "EQ", Collections.singletonList("customer")),
+                new DynaQueryRequest.SimpleFilter("amount", "GT", Collections.singletonList("much")),
+                new DynaQueryRequest.SimpleFilter("customerName", "SOUNDS_LIKE", Collections.singletonList("customer"))
+        ), FilterConnector.AND));
+        queryRequest.setOrders(List.of(new DynaQueryRequest.OrderBy("amount", "UPWARDS", 0)));
+
+        InvalidDynaQueryException exception = Assertions.assertThrows(InvalidDynaQueryException.class,
+                () -> this.variantQueryService.queryAll(queryRequest, PageRequest.of(pageNum, pageSize)));
+        Assertions.assertEquals(
+                Arrays.asList(FailedToFindFieldInViewEntityClassException.class, FailedToConvertFilterValuesToFieldDataTypeException.class,
+                        UnsupportedFilterOperatorException.class, UnsupportedSortingOperatorException.class),
+                exception.getErrors().stream().map(Object::getClass).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testHavingValuesOfTheAggregateType() {
+        // A maximum of amounts is compared with a decimal
+        DynaQueryRequest.GroupBy.Aggregator maxAmount = new DynaQueryRequest.GroupBy.Aggregator("amount", "MAX", "maxAmount");
+        DynaQueryRequest decimal = new DynaQueryRequest();
+        decimal.setTargetView("Order");
+        decimal.setGroup(
+                new DynaQueryRequest.GroupBy(
+                        new ArrayList<>(List.of("customerName")),
+                        maxAmount,
+                        new DynaQueryRequest.GroupBy.AggregatorFilter(maxAmount, "GT", Collections.singletonList("12.5"))
+                )
+        );
+
+        List<Map<String, Object>> rows = this.variantQueryService.queryAll(decimal, PageRequest.of(pageNum, pageSize)).getContent();
+        Assertions.assertEquals(1, rows.size());
+        Assertions.assertEquals(15.5, rows.get(0).get("maxAmount"));
+
+        // A count only with a whole number
+        DynaQueryRequest.GroupBy.Aggregator count = new DynaQueryRequest.GroupBy.Aggregator("amount", "COUNT", "orders");
+        DynaQueryRequest fraction = new DynaQueryRequest();
+        fraction.setTargetView("Order");
+        fraction.setGroup(
+                new DynaQueryRequest.GroupBy(
+                        new ArrayList<>(List.of("customerName")),
+                        count,
+                        new DynaQueryRequest.GroupBy.AggregatorFilter(count, "GT", Collections.singletonList("0.5"))
+                )
+        );
+        Assertions.assertThrows(FailedToConvertFilterValuesToFieldDataTypeException.class, () -> this.variantQueryService.queryAll(fraction, PageRequest.of(pageNum, pageSize)));
+    }
+}
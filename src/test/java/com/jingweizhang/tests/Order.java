@@ -5,6 +5,7 @@ package com.jingweizhang.tests;
  * @Author rocky.zhang on 2023/4/4
  */
 
+import com.jingweizhang.dynaquery.extension.TextSearch;
 import com.jingweizhang.dynaquery.extension.ViewEntity;
 
 import javax.persistence.*;
@@ -19,9 +20,11 @@ public class Order implements ViewEntity {
     @Column(name = "order_id")
     private int orderId;
 
+    @TextSearch
     @Column(name = "customer_name")
     private String customerName;
 
+    @TextSearch
     @Column(name = "shipping_address")
     private String shippingAddress;
 
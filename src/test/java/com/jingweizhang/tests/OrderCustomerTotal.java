@@ -0,0 +1,47 @@
+package com.jingweizhang.tests;
+
+import com.jingweizhang.dynaquery.extension.Rollup;
+import com.jingweizhang.dynaquery.extension.RollupMeasure;
+import com.jingweizhang.dynaquery.extension.ViewEntity;
+import com.jingweizhang.dynaquery.model.AggregateOperator;
+
+import javax.persistence.*;
+
+/**
+ * @Description
+ * Rollup of Order by customer, refreshed by recomputing it as a whole.
+ */
+@Entity
+@Table(name = "order_customer_totals")
+@Rollup(of = Order.class, refresh = {
+        "delete from order_customer_totals",
+        "insert into order_customer_totals (customer_name, min_amount, orders) select customer_name, min(amount), count(order_id) from orders group by customer_name"
+})
+public class OrderCustomerTotal implements ViewEntity {
+
+    @Id
+    @Column(name = "customer_name")
+    private String customerName;
+
+    @Column(name = "min_amount")
+    @RollupMeasure(field = "amount", operator = AggregateOperator.MIN)
+    private double minAmount;
+
+    @Column(name = "orders")
+    @RollupMeasure(field = "orderId", operator = AggregateOperator.COUNT)
+    private long orders;
+
+    public OrderCustomerTotal() {}
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public double getMinAmount() {
+        return minAmount;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+}